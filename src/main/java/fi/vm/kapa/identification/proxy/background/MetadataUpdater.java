@@ -26,16 +26,46 @@ import fi.vm.kapa.identification.proxy.service.MetadataService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 @Service
 public class MetadataUpdater {
 
     private static final Logger logger = LoggerFactory.getLogger(MetadataUpdater.class);
 
-    @Autowired
     private MetadataService metadataService;
 
+    // requested updates arriving within this window are served by one update
+    private long debounceMillis;
+
+    private final AtomicBoolean updatePending = new AtomicBoolean(false);
+
+    private final ScheduledExecutorService requestedUpdateExecutor = newRequestedUpdateExecutor();
+
+    @SuppressWarnings("unused")
+    private MetadataUpdater() {
+    }
+
+    @Autowired
+    MetadataUpdater(MetadataService metadataService,
+                    @Value("${metadata.refresh.debounce.millis}") long debounceMillis) {
+        this.metadataService = metadataService;
+        this.debounceMillis = debounceMillis;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        requestedUpdateExecutor.shutdownNow();
+    }
+
     public void runUpdate() {
         long start = System.currentTimeMillis();
 
@@ -45,4 +75,33 @@ public class MetadataUpdater {
 
         logger.info("Metadata update finished, duration: {} ms", System.currentTimeMillis() - start);
     }
+
+    /**
+     * Schedules a metadata update after the debounce delay unless one is already waiting.
+     * A request arriving while an update is running schedules a new one, so changes
+     * notified during an update are not lost.
+     *
+     * @return true if a new update was scheduled, false if the request joined a pending one
+     */
+    public boolean requestUpdate() {
+        if (!updatePending.compareAndSet(false, true)) {
+            logger.debug("Metadata update already pending, request coalesced");
+            return false;
+        }
+        requestedUpdateExecutor.schedule(() -> {
+            updatePending.set(false);
+            try {
+                runUpdate();
+            } catch (Exception e) {
+                logger.error("Error running requested metadata update", e);
+            }
+        }, debounceMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private static ScheduledExecutorService newRequestedUpdateExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("metadata-update-");
+        threadFactory.setDaemon(true);
+        return Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
 }
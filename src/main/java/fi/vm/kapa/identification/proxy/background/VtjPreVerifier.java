@@ -0,0 +1,181 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.background;
+
+import fi.vm.kapa.identification.proxy.exception.InvalidVtjDataException;
+import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
+import fi.vm.kapa.identification.proxy.person.VtjPerson;
+import fi.vm.kapa.identification.proxy.service.VtjPersonService;
+import fi.vm.kapa.identification.proxy.session.Session;
+import fi.vm.kapa.identification.proxy.session.UidToUserSessionsCache;
+import fi.vm.kapa.identification.vtj.model.VtjIssue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries VTJ verification in the background for sessions that were built without it
+ * because VTJ failed and verification was not required. The retries happen between session
+ * build and the IdP's attribute request, so the attribute request usually finds the session
+ * verified and doesn't have to query VTJ itself.
+ * At most queueCapacity sessions wait for verification, further sessions are left to the
+ * re-query done on attribute request.
+ */
+@Service
+public class VtjPreVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(VtjPreVerifier.class);
+
+    private static final int THREADS = 2;
+
+    private boolean enabled;
+    private int queueCapacity;
+    private long initialDelayMillis;
+    private int maxAttempts;
+
+    private VtjPersonService vtjPersonService;
+    private UidToUserSessionsCache uidToUserSessionsCache;
+
+    private final AtomicInteger queuedSessions = new AtomicInteger();
+    private final AtomicLong verifiedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private ScheduledExecutorService preVerifyExecutor;
+
+    @SuppressWarnings("unused")
+    private VtjPreVerifier() {
+    }
+
+    @Autowired
+    VtjPreVerifier(VtjPersonService vtjPersonService,
+                   UidToUserSessionsCache uidToUserSessionsCache,
+                   @Value("${vtj.preverify.enabled}") boolean enabled,
+                   @Value("${vtj.preverify.queue.capacity}") int queueCapacity,
+                   @Value("${vtj.preverify.initial.delay.millis}") long initialDelayMillis,
+                   @Value("${vtj.preverify.max.attempts}") int maxAttempts) {
+        this.vtjPersonService = vtjPersonService;
+        this.uidToUserSessionsCache = uidToUserSessionsCache;
+        this.enabled = enabled;
+        this.queueCapacity = queueCapacity;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxAttempts = maxAttempts;
+        if (enabled) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("vtj-preverify-");
+            threadFactory.setDaemon(true);
+            this.preVerifyExecutor = Executors.newScheduledThreadPool(THREADS, threadFactory);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (preVerifyExecutor != null) {
+            preVerifyExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queues VTJ verification of the session.
+     *
+     * @return true if the session was queued, false if pre-verification is disabled or the queue is full
+     */
+    public boolean submit(Session session) {
+        if (!enabled) {
+            return false;
+        }
+        if (queuedSessions.incrementAndGet() > queueCapacity) {
+            queuedSessions.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            logger.debug("VTJ pre-verification queue full, session left for attribute request re-query");
+            return false;
+        }
+        if (!schedule(session, 1, initialDelayMillis)) {
+            queuedSessions.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean schedule(Session session, int attempt, long delayMillis) {
+        try {
+            preVerifyExecutor.schedule(() -> verify(session, attempt, delayMillis), delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.debug("VTJ pre-verification executor shut down");
+            return false;
+        }
+    }
+
+    void verify(Session session, int attempt, long delayMillis) {
+        boolean done = true;
+        try {
+            if (session.isVtjVerified() || session.isVtjDataInvalid()) {
+                return;
+            }
+            VtjPerson vtjPerson = vtjPersonService.getVtjPerson(session.getIdentifiedPerson(),
+                    new VtjIssue(session.getConversationKey(), session.getUid(), "2", null));
+            vtjPerson.validate();
+            session.setVtjPerson(vtjPerson);
+            session.setVtjVerified(true);
+            verifiedCount.incrementAndGet();
+            logger.debug("Session pre-verified from VTJ on attempt {}", attempt);
+        } catch (InvalidVtjDataException e) {
+            session.setVtjDataInvalid(true);
+            uidToUserSessionsCache.invalidateCachedSessionsByKey(session.getUid());
+        } catch (VtjServiceException e) {
+            if (attempt < maxAttempts) {
+                done = !schedule(session, attempt + 1, delayMillis * 2);
+            } else {
+                logger.info("VTJ pre-verification gave up after {} attempts", attempt);
+            }
+        } catch (Exception e) {
+            logger.error("Error in VTJ pre-verification", e);
+        } finally {
+            if (done) {
+                queuedSessions.decrementAndGet();
+            }
+        }
+    }
+
+    public int getQueuedSessions() {
+        return queuedSessions.get();
+    }
+
+    public long getVerifiedCount() {
+        return verifiedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.background;
+
+import fi.vm.kapa.identification.proxy.exception.InvalidVtjDataException;
+import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
+import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPerson;
+import fi.vm.kapa.identification.proxy.service.VtjPersonService;
+import fi.vm.kapa.identification.proxy.session.Identity;
+import fi.vm.kapa.identification.proxy.session.Session;
+import fi.vm.kapa.identification.proxy.session.UidToUserSessionsCache;
+import fi.vm.kapa.identification.type.AuthMethod;
+import fi.vm.kapa.identification.vtj.model.VtjIssue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Rechecks cached sessions from VTJ in batches: sessions whose VTJ lookup failed and
+ * sessions whose VTJ data is older than staleMinutes. Persons no longer valid in VTJ
+ * (not found, deceased, invalid identifier) invalidate all sessions of the user.
+ */
+@Service
+public class VtjRevalidator {
+
+    private static final Logger logger = LoggerFactory.getLogger(VtjRevalidator.class);
+
+    // VTJ issue of a batch: the batch id as the conversation key, this marker as the uid and
+    // the reason code of VTJ re-queries
+    static final String REVALIDATION_UID = "vtj-revalidation";
+    static final String REVALIDATION_REASON = "2";
+
+    private boolean enabled;
+    private int batchSize;
+    private int maxSessions;
+    private long staleMillis;
+
+    private VtjPersonService vtjPersonService;
+    private UidToUserSessionsCache uidToUserSessionsCache;
+
+    @SuppressWarnings("unused")
+    private VtjRevalidator() {
+    }
+
+    @Autowired
+    VtjRevalidator(VtjPersonService vtjPersonService,
+                   UidToUserSessionsCache uidToUserSessionsCache,
+                   @Value("${vtj.revalidate.enabled}") boolean enabled,
+                   @Value("${vtj.revalidate.batch.size}") int batchSize,
+                   @Value("${vtj.revalidate.max.sessions}") int maxSessions,
+                   @Value("${vtj.revalidate.stale.minutes}") long staleMinutes) {
+        this.vtjPersonService = vtjPersonService;
+        this.uidToUserSessionsCache = uidToUserSessionsCache;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.maxSessions = maxSessions;
+        this.staleMillis = staleMinutes * 60 * 1000;
+    }
+
+    public void runRevalidation() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Map<Identity,List<Session>> sessionsByIdentity = getSessionsToRevalidate(System.currentTimeMillis() - staleMillis);
+            if (sessionsByIdentity.isEmpty()) {
+                return;
+            }
+            logger.info("Revalidating {} persons from VTJ", sessionsByIdentity.size());
+            List<List<Session>> persons = new ArrayList<>(sessionsByIdentity.values());
+            for (int i = 0; i < persons.size(); i += batchSize) {
+                revalidate(persons.subList(i, Math.min(i + batchSize, persons.size())));
+            }
+        } catch (VtjServiceException e) {
+            logger.warn("VTJ revalidation stopped, VTJ request failed: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error running VTJ revalidation", e);
+        }
+    }
+
+    Map<Identity,List<Session>> getSessionsToRevalidate(long staleBefore) {
+        Map<Identity,List<Session>> sessionsByIdentity = new LinkedHashMap<>();
+        int count = 0;
+        for (Map<AuthMethod,Session> userSessions : uidToUserSessionsCache.getSessionsCache().values()) {
+            for (Session session : userSessions.values()) {
+                if (count >= maxSessions) {
+                    return sessionsByIdentity;
+                }
+                if (needsRevalidation(session, staleBefore)) {
+                    sessionsByIdentity.computeIfAbsent(session.getIdentifiedPerson().getIdentity(), identity -> new ArrayList<>()).add(session);
+                    count++;
+                }
+            }
+        }
+        return sessionsByIdentity;
+    }
+
+    private boolean needsRevalidation(Session session, long staleBefore) {
+        if (session.isVtjDataInvalid() || session.getIdentifiedPerson() == null) {
+            return false;
+        }
+        if (session.isVtjVerified()) {
+            return session.getVtjVerifiedTimestamp() < staleBefore;
+        }
+        return session.isVtjLookupFailed();
+    }
+
+    /**
+     * @param batch sessions of each person in the batch, grouped by person
+     */
+    private void revalidate(List<List<Session>> batch) throws VtjServiceException {
+        List<IdentifiedPerson> identifiedPersons = batch.stream()
+                .map(sessions -> sessions.get(0).getIdentifiedPerson())
+                .collect(Collectors.toList());
+        String batchId = UUID.randomUUID().toString();
+        if (logger.isInfoEnabled()) {
+            logger.info("VTJ revalidation batch {} for sessions {}", batchId, batch.stream()
+                    .flatMap(List::stream).map(Session::getUid).collect(Collectors.joining(",")));
+        }
+        Map<Identity,VtjPerson> vtjPersons = vtjPersonService.getVtjPersons(identifiedPersons,
+                new VtjIssue(batchId, REVALIDATION_UID, REVALIDATION_REASON, null));
+        for (List<Session> sessions : batch) {
+            Identity identity = sessions.get(0).getIdentifiedPerson().getIdentity();
+            VtjPerson vtjPerson = vtjPersons.get(identity);
+            try {
+                if (vtjPerson == null) {
+                    throw new InvalidVtjDataException("Person not found from VTJ");
+                }
+                vtjPerson.validate();
+                for (Session session : sessions) {
+                    session.setVtjPerson(vtjPerson);
+                    session.setVtjVerified(true);
+                }
+            } catch (InvalidVtjDataException e) {
+                logger.warn("Invalidating sessions after VTJ revalidation: {}", e.getMessage());
+                for (Session session : sessions) {
+                    session.setVtjDataInvalid(true);
+                    uidToUserSessionsCache.invalidateCachedSessionsByKey(session.getUid());
+                }
+            }
+        }
+    }
+}
@@ -23,21 +23,56 @@
 package fi.vm.kapa.identification.proxy.config;
 
 import fi.vm.kapa.identification.proxy.exception.InitializationException;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
 import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.jackson.JacksonFeature;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class ClientConfiguration {
 
+    @Value("${vtj.client.max.connections}")
+    private int maxConnections;
+
+    @Value("${vtj.client.connect.timeout.millis}")
+    private int connectTimeoutMillis;
+
+    @Value("${vtj.client.read.timeout.millis}")
+    private int readTimeoutMillis;
+
+    @Value("${vtj.client.connection.ttl.millis}")
+    private long connectionTtlMillis;
+
+    /**
+     * Pooled connections are reused until connectionTtlMillis after they were opened. All requests
+     * go to the same VTJ host so the per route limit equals the total limit.
+     */
+    @Bean(name = "jerseyConnectionManager")
+    PoolingHttpClientConnectionManager provideConnectionManager() {
+        PoolingHttpClientConnectionManager connectionManager =
+                new PoolingHttpClientConnectionManager(connectionTtlMillis, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        return connectionManager;
+    }
+
     @Bean(name = "jerseyClient")
     Client provideClient() throws InitializationException {
         try {
             ClientConfig clientConfig = new ClientConfig();
+            clientConfig.connectorProvider(new ApacheConnectorProvider());
+            clientConfig.property(ApacheClientProperties.CONNECTION_MANAGER, provideConnectionManager());
+            clientConfig.property(ClientProperties.CONNECT_TIMEOUT, connectTimeoutMillis);
+            clientConfig.property(ClientProperties.READ_TIMEOUT, readTimeoutMillis);
             Client client = ClientBuilder.newClient(clientConfig);
             client.register(JacksonFeature.class);
             return client;
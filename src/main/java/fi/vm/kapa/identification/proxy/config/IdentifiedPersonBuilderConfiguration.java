@@ -22,11 +22,15 @@
  */
 package fi.vm.kapa.identification.proxy.config;
 
+import fi.vm.kapa.identification.proxy.exception.InitializationException;
 import fi.vm.kapa.identification.proxy.person.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.Arrays;
+
 @Configuration
 public class IdentifiedPersonBuilderConfiguration {
 
@@ -39,12 +43,29 @@ public class IdentifiedPersonBuilderConfiguration {
     @Autowired
     ForeignPersonParser foreignPersonParser;
 
+    @Value("${sp.attribute.mapping}")
+    String spAttributeMapping;
+
+    @Value("${saml.vtj.required.key}")
+    String vtjRequiredKey;
+
+    @Value("${saml.vtj.verified.key}")
+    String vtjVerifiedKey;
+
+    @Value("${saml.vtj.invalid.key}")
+    String vtjDataInvalidKey;
+
+    @Value("${legacy.version.key}")
+    String legacyVersionKey;
+
     @Bean(name = "personBuilder")
-    IdentifiedPersonBuilder provide() {
+    IdentifiedPersonBuilder provide() throws InitializationException {
         return new IdentifiedPersonBuilder(
                 new KatsoPersonFactory(identifiedPersonParser),
                 new GenericPersonFactory(identifiedPersonParser),
                 new EidasPersonFactory(eidasPersonParser),
-                new ForeignPersonFactory(foreignPersonParser));
+                new ForeignPersonFactory(foreignPersonParser),
+                SpAttributeMapping.compile(spAttributeMapping,
+                        Arrays.asList(vtjRequiredKey, vtjVerifiedKey, vtjDataInvalidKey, legacyVersionKey)));
     }
 }
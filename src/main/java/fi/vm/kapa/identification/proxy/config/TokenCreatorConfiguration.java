@@ -24,6 +24,7 @@ package fi.vm.kapa.identification.proxy.config;
 
 import com.auth0.jwt.algorithms.Algorithm;
 import fi.vm.kapa.identification.proxy.exception.TokenCreatorException;
+import fi.vm.kapa.identification.proxy.utils.ES256Algorithm;
 import fi.vm.kapa.identification.proxy.utils.TokenCreator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,8 +35,14 @@ import org.springframework.context.annotation.Configuration;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.security.*;
+import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
 
 @Configuration
 public class TokenCreatorConfiguration {
@@ -61,6 +68,27 @@ public class TokenCreatorConfiguration {
     @Value("${token.expiration.time}")
     private int tokenExpirationTime;
 
+    /**
+     * RS256, ES256 or auto, in which case the algorithm follows the type of the keystore entry
+     */
+    @Value("${token.signing.algorithm}")
+    private String tokenSigningAlgorithm;
+
+    @Value("${token.signing.threads}")
+    private int tokenSigningThreads;
+
+    @Value("${token.signing.queue.capacity}")
+    private int tokenSigningQueueCapacity;
+
+    @Value("${token.reuse.max.size}")
+    private int tokenReuseMaxSize;
+
+    @Value("${token.reuse.max.age.fraction}")
+    private double tokenReuseMaxAgeFraction;
+
+    static final String AUTO_ALGORITHM = "auto";
+    static final String RS256_ALGORITHM = "RS256";
+
     private static final Logger logger = LoggerFactory.getLogger(TokenCreatorConfiguration.class);
 
     @Bean(name = "tokenCreator")
@@ -81,8 +109,11 @@ public class TokenCreatorConfiguration {
 
         try {
             Key key = tokenKeyStore.getKey(tokenKeystoreAlias, tokenKeystoreKeyPass.toCharArray());
-            Algorithm algorithm = Algorithm.RSA256((RSAPrivateKey) key);
-            return new TokenCreator(algorithm, tokenIssuer, tokenHeaderKid, tokenExpirationTime);
+            Certificate certificate = tokenKeyStore.getCertificate(tokenKeystoreAlias);
+            Algorithm algorithm = createAlgorithm(tokenSigningAlgorithm, key, certificate != null ? certificate.getPublicKey() : null);
+            logger.info("Signing tokens with " + algorithm.getName() + ", kid " + tokenHeaderKid);
+            return new TokenCreator(algorithm, tokenIssuer, tokenHeaderKid, tokenExpirationTime,
+                    tokenSigningThreads, tokenSigningQueueCapacity, tokenReuseMaxSize, tokenReuseMaxAgeFraction);
         } catch (KeyStoreException e) {
             throw new TokenCreatorException("KeyStore problem: ", e);
         } catch (NoSuchAlgorithmException e) {
@@ -92,4 +123,42 @@ public class TokenCreatorConfiguration {
         }
     }
 
+    static Algorithm createAlgorithm(String configuredAlgorithm, Key key, PublicKey publicKey) throws TokenCreatorException {
+        String algorithm = configuredAlgorithm == null || configuredAlgorithm.trim().isEmpty()
+                ? AUTO_ALGORITHM : configuredAlgorithm.trim();
+        if (key instanceof RSAPrivateKey
+                && (AUTO_ALGORITHM.equalsIgnoreCase(algorithm) || RS256_ALGORITHM.equalsIgnoreCase(algorithm))) {
+            return Algorithm.RSA256((RSAPrivateKey) key);
+        }
+        if (key instanceof ECPrivateKey
+                && (AUTO_ALGORITHM.equalsIgnoreCase(algorithm) || ES256Algorithm.NAME.equalsIgnoreCase(algorithm))) {
+            ECPrivateKey ecKey = (ECPrivateKey) key;
+            if (!isP256(ecKey.getParams())) {
+                throw new TokenCreatorException("ES256 requires a P-256 key, got a "
+                        + ecKey.getParams().getCurve().getField().getFieldSize() + " bit key on another curve");
+            }
+            return new ES256Algorithm(publicKey instanceof ECPublicKey ? (ECPublicKey) publicKey : null, ecKey);
+        }
+        throw new TokenCreatorException("Token signing algorithm " + algorithm + " does not match key "
+                + (key != null ? key.getAlgorithm() : "null"));
+    }
+
+    /**
+     * ECParameterSpec has no equals, so the curve, generator, order and cofactor are compared
+     * one by one against secp256r1; a field size check alone would accept e.g. secp256k1.
+     */
+    private static boolean isP256(ECParameterSpec params) throws TokenCreatorException {
+        ECParameterSpec p256;
+        try {
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+            parameters.init(new ECGenParameterSpec("secp256r1"));
+            p256 = parameters.getParameterSpec(ECParameterSpec.class);
+        } catch (NoSuchAlgorithmException | InvalidParameterSpecException e) {
+            throw new TokenCreatorException("P-256 curve parameters not available: ", e);
+        }
+        return p256.getCurve().equals(params.getCurve())
+                && p256.getGenerator().equals(params.getGenerator())
+                && p256.getOrder().equals(params.getOrder())
+                && p256.getCofactor() == params.getCofactor();
+    }
 }
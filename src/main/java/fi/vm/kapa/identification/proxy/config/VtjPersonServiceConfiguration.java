@@ -22,12 +22,17 @@
  */
 package fi.vm.kapa.identification.proxy.config;
 
+import fi.vm.kapa.identification.proxy.service.CachingVtjPersonService;
+import fi.vm.kapa.identification.proxy.service.CoalescingVtjPersonService;
 import fi.vm.kapa.identification.proxy.service.DummyVtjPersonService;
 import fi.vm.kapa.identification.proxy.service.RealVtjPersonService;
 import fi.vm.kapa.identification.proxy.service.VtjPersonService;
+import fi.vm.kapa.identification.proxy.vtj.VtjClient;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 @Configuration
 public class VtjPersonServiceConfiguration {
@@ -35,13 +40,41 @@ public class VtjPersonServiceConfiguration {
     @Value("${vtj.client.dummydata}")
     private boolean vtjDummydataToBeUsed;
 
+    // caching is disabled when TTL is zero
+    @Value("${vtj.cache.ttl.seconds}")
+    private long vtjCacheTtlSeconds;
+
+    @Value("${vtj.cache.negative.ttl.seconds}")
+    private long vtjCacheNegativeTtlSeconds;
+
+    @Value("${vtj.cache.max.size}")
+    private int vtjCacheMaxSize;
+
+    // how long a caller waits for a concurrent request of the same identity
+    @Value("${vtj.coalescing.wait.timeout.millis}")
+    private long vtjCoalescingWaitTimeoutMillis;
+
+    @Autowired
+    private VtjClient vtjClient;
+
     @Bean(name = "VtjPersonService")
+    @Primary
     VtjPersonService provideVtjPersonService() {
         if (vtjDummydataToBeUsed) {
             return new DummyVtjPersonService("010191-9696");
         } else {
-            return new RealVtjPersonService();
+            VtjPersonService coalescingVtjPersonService = provideCoalescingVtjPersonService();
+            if (vtjCacheTtlSeconds > 0) {
+                return new CachingVtjPersonService(coalescingVtjPersonService, vtjCacheTtlSeconds, vtjCacheNegativeTtlSeconds, vtjCacheMaxSize);
+            }
+            return coalescingVtjPersonService;
         }
     }
 
+    // a bean of its own so that its counters are exported
+    @Bean(name = "CoalescingVtjPersonService")
+    CoalescingVtjPersonService provideCoalescingVtjPersonService() {
+        return new CoalescingVtjPersonService(new RealVtjPersonService(vtjClient), vtjCoalescingWaitTimeoutMillis);
+    }
+
 }
@@ -24,6 +24,8 @@ package fi.vm.kapa.identification.proxy.metadata;
 
 import fi.vm.kapa.identification.type.AuthMethod;
 
+import java.util.Objects;
+
 public class AuthenticationProvider {
 
     private final String name;
@@ -79,6 +81,20 @@ public class AuthenticationProvider {
         return loginContext;
     }
 
+    /**
+     * Compares all metadata fields, unlike equals() which only compares the entity ID.
+     */
+    public boolean hasSameContent(AuthenticationProvider other) {
+        return other != null
+                && Objects.equals(name, other.name)
+                && Objects.equals(domainName, other.domainName)
+                && Objects.equals(realMethod, other.realMethod)
+                && authenticationMethod == other.authenticationMethod
+                && Objects.equals(authProviderAuthContextUrl, other.authProviderAuthContextUrl)
+                && Objects.equals(dbEntityIdAuthContextUrl, other.dbEntityIdAuthContextUrl)
+                && Objects.equals(loginContext, other.loginContext);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if ( obj == null ) {
@@ -22,6 +22,8 @@
  */
 package fi.vm.kapa.identification.proxy.metadata;
 
+import java.util.Objects;
+
 public class Country {
 
     public Country(String countryCode, String authProviderEntityId, String eidasLoginContext) {
@@ -52,6 +54,13 @@ public class Country {
         this.authProviderEntityId = authProviderEntityId;
     }
 
+    public boolean hasSameContent(Country other) {
+        return other != null
+                && Objects.equals(countryCode, other.countryCode)
+                && Objects.equals(authProviderEntityId, other.authProviderEntityId)
+                && Objects.equals(eidasLoginContext, other.eidasLoginContext);
+    }
+
     public String getEidasLoginContext() {
         return eidasLoginContext;
     }
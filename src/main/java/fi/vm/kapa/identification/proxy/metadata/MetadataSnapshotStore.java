@@ -0,0 +1,137 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.metadata;
+
+import com.google.gson.Gson;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the last successfully applied metadata on local disk as gzipped JSON so that
+ * Proxy can start serving with it before the metadata server has answered.
+ * Persisting is disabled when no snapshot file is configured.
+ */
+@Component
+public class MetadataSnapshotStore {
+    private static final Logger logger = LoggerFactory.getLogger(MetadataSnapshotStore.class);
+
+    static final int FORMAT_VERSION = 1;
+
+    @Value("${metadata.snapshot.file}")
+    private String snapshotFile;
+
+    private final Gson gson = new Gson();
+
+    public boolean isEnabled() {
+        return StringUtils.isNotBlank(snapshotFile);
+    }
+
+    public void save(Map<String,ServiceProvider> serviceProviders,
+                     List<AuthenticationProvider> authenticationProviders,
+                     Map<String,Country> countries) {
+        if (!isEnabled()) {
+            return;
+        }
+        StoredMetadata storedMetadata = new StoredMetadata(serviceProviders, authenticationProviders, countries);
+        Path target = Paths.get(snapshotFile);
+        Path temporary = Paths.get(snapshotFile + ".tmp");
+        try {
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(temporary)), StandardCharsets.UTF_8)) {
+                gson.toJson(storedMetadata, writer);
+            }
+            // readers never see a half written snapshot
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Metadata snapshot written to {}", target);
+        } catch (IOException e) {
+            logger.warn("Could not write metadata snapshot to " + target, e);
+        }
+    }
+
+    /**
+     * @return metadata from the snapshot file or null if there is no usable snapshot
+     */
+    public StoredMetadata load() {
+        if (!isEnabled() || !Files.isReadable(Paths.get(snapshotFile))) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(new GZIPInputStream(Files.newInputStream(Paths.get(snapshotFile))), StandardCharsets.UTF_8)) {
+            StoredMetadata storedMetadata = gson.fromJson(reader, StoredMetadata.class);
+            if (storedMetadata == null || storedMetadata.version != FORMAT_VERSION) {
+                logger.warn("Ignoring metadata snapshot {} with unknown format", snapshotFile);
+                return null;
+            }
+            return storedMetadata;
+        } catch (Exception e) {
+            logger.warn("Could not read metadata snapshot from " + snapshotFile, e);
+            return null;
+        }
+    }
+
+    public static class StoredMetadata {
+        private final int version;
+        private final long savedAt;
+        private final Map<String,ServiceProvider> serviceProviders;
+        private final List<AuthenticationProvider> authenticationProviders;
+        private final Map<String,Country> countries;
+
+        StoredMetadata(Map<String,ServiceProvider> serviceProviders,
+                       List<AuthenticationProvider> authenticationProviders,
+                       Map<String,Country> countries) {
+            this.version = FORMAT_VERSION;
+            this.savedAt = System.currentTimeMillis();
+            this.serviceProviders = serviceProviders;
+            this.authenticationProviders = authenticationProviders;
+            this.countries = countries;
+        }
+
+        public long getSavedAt() {
+            return savedAt;
+        }
+
+        public Map<String,ServiceProvider> getServiceProviders() {
+            return serviceProviders;
+        }
+
+        public List<AuthenticationProvider> getAuthenticationProviders() {
+            return authenticationProviders;
+        }
+
+        public Map<String,Country> getCountries() {
+            return countries;
+        }
+    }
+}
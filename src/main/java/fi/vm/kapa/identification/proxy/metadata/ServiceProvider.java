@@ -22,12 +22,17 @@
  */
 package fi.vm.kapa.identification.proxy.metadata;
 
+import com.google.gson.Gson;
 import fi.vm.kapa.identification.dto.MultiLanguageDTO;
 import fi.vm.kapa.identification.util.AuthMethodHelper;
 import fi.vm.kapa.identification.type.EidasSupport;
 import fi.vm.kapa.identification.type.SessionProfile;
 
+import java.util.Objects;
+
 public class ServiceProvider {
+    private static final Gson gson = new Gson();
+
     private final String entityId;
     private final String levelOfAssurance;
     private final String permittedAuthMethods;
@@ -90,4 +95,27 @@ public class ServiceProvider {
     public MultiLanguageDTO getDisplayName() {
         return displayName;
     }
+
+    /**
+     * Compares all metadata fields, used to keep the previous instance when a metadata
+     * update did not change this service provider.
+     */
+    public boolean hasSameContent(ServiceProvider other) {
+        return other != null
+                && vtjVerificationRequired == other.vtjVerificationRequired
+                && Objects.equals(entityId, other.entityId)
+                && Objects.equals(levelOfAssurance, other.levelOfAssurance)
+                && Objects.equals(permittedAuthMethods, other.permittedAuthMethods)
+                && sessionProfile == other.sessionProfile
+                && Objects.equals(eidasContactAddress, other.eidasContactAddress)
+                && eidasSupport == other.eidasSupport
+                && sameDisplayName(displayName, other.displayName);
+    }
+
+    private static boolean sameDisplayName(MultiLanguageDTO first, MultiLanguageDTO second) {
+        if (first == null || second == null) {
+            return first == second;
+        }
+        return first.equals(second) || gson.toJsonTree(first).equals(gson.toJsonTree(second));
+    }
 }
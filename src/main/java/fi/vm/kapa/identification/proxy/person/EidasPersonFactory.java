@@ -33,7 +33,8 @@ public class EidasPersonFactory {
         this.eidasPersonParser = eidasPersonParser;
     }
 
-    public EidasPerson createFromSpData(Map<String,String> spData) throws IdentityParsingException {
+    public EidasPerson createFromSpData(Map<String,String> spSessionData) throws IdentityParsingException {
+        SpSessionData spData = SpSessionData.of(spSessionData);
         return new EidasPerson(
                 eidasPersonParser.getFamilyName(spData),
                 eidasPersonParser.getFirstNames(spData),
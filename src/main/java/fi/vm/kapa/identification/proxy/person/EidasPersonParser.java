@@ -40,15 +40,15 @@ public class EidasPersonParser {
     }
 
     String getFirstNames(Map<String,String> spData) {
-        return spData.get("AJP_eidasGivenName");
+        return SpSessionData.of(spData).get(SpSessionData.Key.EIDAS_GIVEN_NAME);
     }
 
     String getDateOfBirth(Map<String,String> spData) {
-        return spData.get("AJP_eidasDateOfBirth");
+        return SpSessionData.of(spData).get(SpSessionData.Key.EIDAS_DATE_OF_BIRTH);
     }
 
     String getFamilyName(Map<String,String> spData) {
-        return spData.get("AJP_eidasFamilyName");
+        return SpSessionData.of(spData).get(SpSessionData.Key.EIDAS_FAMILY_NAME);
     }
 
     Identity getIdentity(Map<String,String> spData) throws IdentityParsingException {
@@ -26,8 +26,6 @@ import fi.vm.kapa.identification.proxy.exception.AttributeGenerationException;
 import fi.vm.kapa.identification.proxy.session.Identity;
 import fi.vm.kapa.identification.type.Identifier;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 public class ForeignPerson implements IdentifiedPerson {
@@ -73,32 +71,26 @@ public class ForeignPerson implements IdentifiedPerson {
     }
 
     @Override
-    public Map<String,String> getAttributes() throws AttributeGenerationException {
-        Map<String,String> attributes = new HashMap<>();
+    public SamlAttributes getAttributes() throws AttributeGenerationException {
+        SamlAttributes attributes = new SamlAttributes();
         for (Map.Entry<Identifier.Types,String> entry : getIdentifiers().entrySet()) {
             switch (entry.getKey()) {
                 case FPID:
-                    attributes.put("samlForeignPersonIdentifier", entry.getValue());
+                    attributes.set(SamlAttribute.FOREIGN_PERSON_IDENTIFIER, entry.getValue());
                     break;
                 default:
                     throw new AttributeGenerationException("Unknown type:" + entry.getKey() + ", value:" + entry.getValue());
             }
         }
-        putIfNonEmpty(attributes, "samlFirstName", getGivenName());
-        putIfNonEmpty(attributes, "samlSn", getFamilyName());
-        putIfNonEmpty(attributes, "samlDateOfBirth", getDateOfBirth());
-        putIfNonEmpty(attributes, "samlIdentityAssuranceLevel", getIdentityAssuranceLevel());
-        return attributes;
+        attributes.setIfNotEmpty(SamlAttribute.FIRST_NAME, getGivenName());
+        attributes.setIfNotEmpty(SamlAttribute.SN, getFamilyName());
+        attributes.setIfNotEmpty(SamlAttribute.DATE_OF_BIRTH, getDateOfBirth());
+        attributes.setIfNotEmpty(SamlAttribute.IDENTITY_ASSURANCE_LEVEL, getIdentityAssuranceLevel());
+        return attributes.readOnly();
     }
 
     @Override
-    public Map<String,String> getLegacyAttributes() throws AttributeGenerationException {
-        return Collections.emptyMap();
-    }
-
-    void putIfNonEmpty(Map<String,String> attributes, String key, String value) {
-        if (null != value && !value.isEmpty()) {
-            attributes.put(key, value);
-        }
+    public SamlAttributes getLegacyAttributes() throws AttributeGenerationException {
+        return new SamlAttributes();
     }
 }
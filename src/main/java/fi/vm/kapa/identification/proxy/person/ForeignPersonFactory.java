@@ -33,7 +33,8 @@ public class ForeignPersonFactory {
         this.foreignPersonParser = foreignPersonParser;
     }
 
-    public ForeignPerson createFromSpData(Map<String,String> spData) throws IdentityParsingException {
+    public ForeignPerson createFromSpData(Map<String,String> spSessionData) throws IdentityParsingException {
+        SpSessionData spData = SpSessionData.of(spSessionData);
         return new ForeignPerson(
                 foreignPersonParser.getFamilyName(spData),
                 foreignPersonParser.getFirstNames(spData),
@@ -40,19 +40,19 @@ public class ForeignPersonParser {
     }
 
     String getFirstNames(Map<String,String> spData) {
-        return spData.get("AJP_eidasGivenName");
+        return SpSessionData.of(spData).get(SpSessionData.Key.EIDAS_GIVEN_NAME);
     }
 
     String getDateOfBirth(Map<String,String> spData) {
-        return spData.get("AJP_eidasDateOfBirth");
+        return SpSessionData.of(spData).get(SpSessionData.Key.EIDAS_DATE_OF_BIRTH);
     }
 
     String getFamilyName(Map<String,String> spData) {
-        return spData.get("AJP_sn");
+        return SpSessionData.of(spData).get(SpSessionData.Key.SN);
     }
 
     String getIdentityAssuranceLevel(Map<String,String> spData) {
-        return spData.get("AJP_identityAssuranceLevel");
+        return SpSessionData.of(spData).get(SpSessionData.Key.IDENTITY_ASSURANCE_LEVEL);
     }
 
     Identity getIdentity(Map<String,String> spData) throws IdentityParsingException {
@@ -26,7 +26,6 @@ import fi.vm.kapa.identification.proxy.exception.AttributeGenerationException;
 import fi.vm.kapa.identification.proxy.session.Identity;
 import fi.vm.kapa.identification.type.Identifier;
 
-import java.util.HashMap;
 import java.util.Map;
 
 public class GenericPerson implements IdentifiedPerson {
@@ -52,49 +51,48 @@ public class GenericPerson implements IdentifiedPerson {
         return commonName;
     }
 
+    @Override
+    public String commonName() {
+        return null != commonName && !commonName.isEmpty() ? commonName : null;
+    }
+
     @Override
     public Map<Identifier.Types,String> getIdentifiers() {
         return identifiers;
     }
 
     @Override
-    public Map<String,String> getAttributes() throws AttributeGenerationException {
-        Map<String,String> attributes = new HashMap<>();
+    public SamlAttributes getAttributes() throws AttributeGenerationException {
+        SamlAttributes attributes = new SamlAttributes();
         for (Map.Entry<Identifier.Types,String> entry : getIdentifiers().entrySet()) {
             switch (entry.getKey()) {
                 case HETU:
-                    attributes.put("samlNationalIdentificationNumber", entry.getValue());
+                    attributes.set(SamlAttribute.NATIONAL_IDENTIFICATION_NUMBER, entry.getValue());
                     break;
                 case SATU:
-                    attributes.put("samlElectronicIdentificationNumber", entry.getValue());
+                    attributes.set(SamlAttribute.ELECTRONIC_IDENTIFICATION_NUMBER, entry.getValue());
                     break;
                 case KID:
-                    attributes.put("samlKid", entry.getValue());                   
+                    attributes.set(SamlAttribute.KID, entry.getValue());                   
                     break;
                 default:
                     throw new AttributeGenerationException("Unknown type:" + entry.getKey() + ", value:" + entry.getValue());
             }
         }
-        putIfNonEmpty(attributes, "samlCn", getCommonName());
-        return attributes;
+        attributes.setIfNotEmpty(SamlAttribute.CN, getCommonName());
+        return attributes.readOnly();
     }
 
     @Override
-    public Map<String,String> getLegacyAttributes() throws AttributeGenerationException {
-        Map<String,String> legacyAttributes = new HashMap<>();
+    public SamlAttributes getLegacyAttributes() throws AttributeGenerationException {
+        SamlAttributes legacyAttributes = new SamlAttributes();
         if (getIdentity().getIdentifierType() == Identifier.Types.KID) {
-            legacyAttributes.put("legacyKid", getIdentity().getIdentifier());
+            legacyAttributes.set(SamlAttribute.LEGACY_KID, getIdentity().getIdentifier());
         } else {
-            legacyAttributes.put("legacyPin", getIdentity().getIdentifier());
-        }
-        legacyAttributes.put("legacyPersonName", getCommonName());
-        return legacyAttributes;
-    }
-
-    void putIfNonEmpty(Map<String,String> attributes, String key, String value) {
-        if (null != value && !value.isEmpty()) {
-            attributes.put(key, value);
+            legacyAttributes.set(SamlAttribute.LEGACY_PIN, getIdentity().getIdentifier());
         }
+        legacyAttributes.set(SamlAttribute.LEGACY_PERSON_NAME, getCommonName());
+        return legacyAttributes.readOnly();
     }
 
 }
@@ -33,7 +33,8 @@ public class GenericPersonFactory {
         this.identifiedPersonParser = identifiedPersonParser;
     }
 
-    public GenericPerson createFromSpData(Map<String,String> spData) throws IdentityParsingException {
+    public GenericPerson createFromSpData(Map<String,String> spSessionData) throws IdentityParsingException {
+        SpSessionData spData = SpSessionData.of(spSessionData);
         return new GenericPerson(
                 identifiedPersonParser.getIdentity(spData),
                 identifiedPersonParser.getCommonName(spData),
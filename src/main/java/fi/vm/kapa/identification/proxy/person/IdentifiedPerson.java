@@ -33,7 +33,28 @@ public interface IdentifiedPerson {
 
     Map<Identifier.Types,String> getIdentifiers();
 
-    Map<String,String> getAttributes() throws AttributeGenerationException;
+    SamlAttributes getAttributes() throws AttributeGenerationException;
 
-    Map<String,String> getLegacyAttributes() throws AttributeGenerationException;
+    SamlAttributes getLegacyAttributes() throws AttributeGenerationException;
+
+    /**
+     * @return national identification number (samlNationalIdentificationNumber), null if not known
+     */
+    default String nationalId() {
+        return getIdentifiers().get(Identifier.Types.HETU);
+    }
+
+    /**
+     * @return electronic identification number (samlElectronicIdentificationNumber), null if not known
+     */
+    default String electronicId() {
+        return getIdentifiers().get(Identifier.Types.SATU);
+    }
+
+    /**
+     * @return common name (samlCn), null if not known
+     */
+    default String commonName() {
+        return null;
+    }
 }
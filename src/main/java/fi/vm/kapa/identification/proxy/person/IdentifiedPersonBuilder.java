@@ -38,18 +38,39 @@ public class IdentifiedPersonBuilder {
     private final GenericPersonFactory genericPersonFactory;
     private final EidasPersonFactory eidasPersonFactory;
     private final ForeignPersonFactory foreignPersonFactory;
+    private final SpAttributeMapping attributeMapping;
 
     public IdentifiedPersonBuilder(KatsoPersonFactory katsoPersonFactory,
                                    GenericPersonFactory genericPersonFactory,
                                    EidasPersonFactory eidasPersonFactory,
                                    ForeignPersonFactory foreignPersonFactory) {
+        this(katsoPersonFactory, genericPersonFactory, eidasPersonFactory, foreignPersonFactory, null);
+    }
+
+    /**
+     * @param attributeMapping SP attributes added to the persons, null if none
+     */
+    public IdentifiedPersonBuilder(KatsoPersonFactory katsoPersonFactory,
+                                   GenericPersonFactory genericPersonFactory,
+                                   EidasPersonFactory eidasPersonFactory,
+                                   ForeignPersonFactory foreignPersonFactory,
+                                   SpAttributeMapping attributeMapping) {
         this.katsoPersonFactory = katsoPersonFactory;
         this.genericPersonFactory = genericPersonFactory;
         this.eidasPersonFactory = eidasPersonFactory;
         this.foreignPersonFactory = foreignPersonFactory;
+        this.attributeMapping = attributeMapping;
     }
 
     public IdentifiedPerson build(Map<String,String> spData, AuthMethod authenticationMethod) throws PersonParsingException {
+        IdentifiedPerson person = buildPerson(spData, authenticationMethod);
+        if (attributeMapping != null && attributeMapping.isMapped(authenticationMethod)) {
+            return new MappedAttributesPerson(person, attributeMapping.extract(spData, authenticationMethod));
+        }
+        return person;
+    }
+
+    private IdentifiedPerson buildPerson(Map<String,String> spData, AuthMethod authenticationMethod) throws PersonParsingException {
         try {
             if (authenticationMethod == AuthMethod.KATSOPWD || authenticationMethod == AuthMethod.KATSOOTP) {
                 return katsoPersonFactory.createFromSpData(spData);
@@ -50,12 +50,15 @@ public class IdentifiedPersonParser {
     }
 
     String getCommonName(Map<String,String> spData) {
-        if (null != spData.get("AJP_cn")) {
-            return spData.get("AJP_cn");
-        } else if ( spData.get("AJP_firstNames") != null && spData.get("AJP_sn") != null ) {
-            return spData.get("AJP_sn") + " " + spData.get("AJP_firstNames");
+        SpSessionData data = SpSessionData.of(spData);
+        String firstNames = data.get(SpSessionData.Key.FIRST_NAMES);
+        String sn = data.get(SpSessionData.Key.SN);
+        if (null != data.get(SpSessionData.Key.CN)) {
+            return data.get(SpSessionData.Key.CN);
+        } else if ( firstNames != null && sn != null ) {
+            return sn + " " + firstNames;
         } else {
-            return spData.get("AJP_tfiPersonName");
+            return data.get(SpSessionData.Key.PERSON_NAME);
         }
     }
 
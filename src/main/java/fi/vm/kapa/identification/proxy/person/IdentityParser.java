@@ -25,39 +25,24 @@ package fi.vm.kapa.identification.proxy.person;
 import fi.vm.kapa.identification.proxy.exception.IdentityParsingException;
 import fi.vm.kapa.identification.proxy.session.Identity;
 import fi.vm.kapa.identification.type.Identifier;
-import jersey.repackaged.com.google.common.collect.ImmutableMap;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
-import java.util.EnumMap;
 import java.util.Map;
 
 @Component
 @Scope(value = "prototype")
 public class IdentityParser {
-    private static Map<Identifier.Types,String> identifierKeys = ImmutableMap.<Identifier.Types,String>builder()
-            .put(Identifier.Types.HETU, "AJP_hetu")
-            .put(Identifier.Types.SATU, "AJP_satu")
-            .put(Identifier.Types.KID, "AJP_tfiKid")
-            .put(Identifier.Types.FPID, "AJP_foreignPersonIdentifier")
-            .put(Identifier.Types.EIDAS_ID, "AJP_eidasPersonIdentifier")
-            .build();
-
     public Map<Identifier.Types,String> parseIdentifiers(Map<String,String> spData) throws IdentityParsingException {
-        Map<Identifier.Types,String> identifiers = new EnumMap<>(Identifier.Types.class);
-        for (Identifier.Types identifierType : Identifier.Types.values()) {
-            String key = identifierKeys.get(identifierType);
-            if (spData.containsKey(key)) {
-                identifiers.put(identifierType, spData.get(key));
-            }
-        }
-        return identifiers;
+        return SpSessionData.of(spData).getIdentifiers();
     }
 
     public Identity parse(Map<String,String> spData) throws IdentityParsingException {
-        Identifier.Types identifierType = getIdentifierType(spData);
-        String identifier = spData.get(identifierKeys.get(identifierType));
-        String issuerCN = spData.get("AJP_issuerCN");
+        SpSessionData data = SpSessionData.of(spData);
+        Identifier.Types identifierType = getIdentifierType(data);
+        SpSessionData.Key identifierKey = SpSessionData.getIdentifierKey(identifierType);
+        String identifier = identifierKey != null ? data.get(identifierKey) : null;
+        String issuerCN = data.get(SpSessionData.Key.ISSUER_CN);
         switch (identifierType) {
             case HETU:
             case KID:
@@ -72,7 +57,7 @@ public class IdentityParser {
     }
 
     public Identifier.Types getIdentifierType(Map<String,String> spData) throws IdentityParsingException {
-        String sessionIdentifierType = spData.get(Identifier.typeKey);
+        String sessionIdentifierType = SpSessionData.of(spData).get(SpSessionData.Key.IDENTIFIER_TYPE);
         if (null == sessionIdentifierType) {
             throw new IdentityParsingException("IdentifierType not found");
         }
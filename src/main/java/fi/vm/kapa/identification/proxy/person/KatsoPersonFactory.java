@@ -33,7 +33,8 @@ public class KatsoPersonFactory {
         this.identifiedPersonParser = identifiedPersonParser;
     }
 
-    public KatsoPerson createFromSpData(Map<String,String> spData) throws IdentityParsingException {
+    public KatsoPerson createFromSpData(Map<String,String> spSessionData) throws IdentityParsingException {
+        SpSessionData spData = SpSessionData.of(spSessionData);
         return new KatsoPerson(
                 identifiedPersonParser.getIdentity(spData),
                 identifiedPersonParser.getCommonName(spData),
@@ -0,0 +1,86 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.person;
+
+import fi.vm.kapa.identification.proxy.exception.AttributeGenerationException;
+import fi.vm.kapa.identification.proxy.session.Identity;
+import fi.vm.kapa.identification.type.Identifier;
+
+import java.util.Map;
+
+/**
+ * Person with SP attributes mapped by SpAttributeMapping in addition to the attributes of
+ * the person itself. The attributes of the person take precedence over the mapped ones.
+ */
+public class MappedAttributesPerson implements IdentifiedPerson {
+
+    private final IdentifiedPerson person;
+    private final SamlAttributes mappedAttributes;
+
+    public MappedAttributesPerson(IdentifiedPerson person, SamlAttributes mappedAttributes) {
+        this.person = person;
+        this.mappedAttributes = mappedAttributes;
+    }
+
+    public IdentifiedPerson getPerson() {
+        return person;
+    }
+
+    @Override
+    public Identity getIdentity() {
+        return person.getIdentity();
+    }
+
+    @Override
+    public Map<Identifier.Types,String> getIdentifiers() {
+        return person.getIdentifiers();
+    }
+
+    @Override
+    public SamlAttributes getAttributes() throws AttributeGenerationException {
+        SamlAttributes attributes = new SamlAttributes();
+        attributes.overlay(mappedAttributes);
+        attributes.overlay(person.getAttributes());
+        return attributes.readOnly();
+    }
+
+    @Override
+    public SamlAttributes getLegacyAttributes() throws AttributeGenerationException {
+        return person.getLegacyAttributes();
+    }
+
+    @Override
+    public String nationalId() {
+        return person.nationalId();
+    }
+
+    @Override
+    public String electronicId() {
+        return person.electronicId();
+    }
+
+    @Override
+    public String commonName() {
+        return person.commonName();
+    }
+}
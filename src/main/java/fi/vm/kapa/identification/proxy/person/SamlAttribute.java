@@ -0,0 +1,90 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.person;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Names of the attributes the proxy passes to the IdP. The ordinal indexes SamlAttributes.
+ */
+public enum SamlAttribute {
+    NATIONAL_IDENTIFICATION_NUMBER("samlNationalIdentificationNumber"),
+    ELECTRONIC_IDENTIFICATION_NUMBER("samlElectronicIdentificationNumber"),
+    KID("samlKid"),
+    PERSON_IDENTIFIER("samlPersonIdentifier"),
+    FOREIGN_PERSON_IDENTIFIER("samlForeignPersonIdentifier"),
+    CN("samlCn"),
+    SN("samlSn"),
+    FIRST_NAME("samlFirstName"),
+    FAMILY_NAME("samlFamilyName"),
+    GIVEN_NAME("samlGivenName"),
+    DISPLAY_NAME("samlDisplayName"),
+    DATE_OF_BIRTH("samlDateOfBirth"),
+    IDENTITY_ASSURANCE_LEVEL("samlIdentityAssuranceLevel"),
+    PROTECTION_ORDER("samlProtectionOrder"),
+    FINNISH_CITIZENSHIP("samlFinnishCitizenship"),
+    MAIL("samlMail"),
+    MUNICIPALITY_CODE("samlMunicipalityCode"),
+    MUNICIPALITY("samlMunicipality"),
+    DOMESTIC_ADDRESS("samlDomesticAddress"),
+    POSTAL_CODE("samlPostalCode"),
+    CITY("samlCity"),
+    FOREIGN_ADDRESS("samlForeignAddress"),
+    FOREIGN_LOCALITY_AND_STATE("samlForeignLocalityAndState"),
+    FOREIGN_LOCALITY_AND_STATE_CLEAR_TEXT("samlForeignLocalityAndStateClearText"),
+    STATE("samlState"),
+    TEMPORARY_DOMESTIC_ADDRESS("samlTemporaryDomesticAddress"),
+    TEMPORARY_POSTAL_CODE("samlTemporaryPostalCode"),
+    TEMPORARY_CITY("samlTemporaryCity"),
+    AUTHENTICATION_TOKEN("samlAuthenticationToken"),
+    LEGACY_KID("legacyKid"),
+    LEGACY_PIN("legacyPin"),
+    LEGACY_PERSON_NAME("legacyPersonName"),
+    LEGACY_VERSION("legacyVersion");
+
+    private static final Map<String,SamlAttribute> BY_NAME = new HashMap<>();
+
+    static {
+        for (SamlAttribute attribute : values()) {
+            BY_NAME.put(attribute.attributeName, attribute);
+        }
+    }
+
+    private final String attributeName;
+
+    SamlAttribute(String attributeName) {
+        this.attributeName = attributeName;
+    }
+
+    public String getAttributeName() {
+        return attributeName;
+    }
+
+    /**
+     * @return the attribute with the given name, null if the name is not one of these
+     */
+    public static SamlAttribute fromName(String attributeName) {
+        return BY_NAME.get(attributeName);
+    }
+}
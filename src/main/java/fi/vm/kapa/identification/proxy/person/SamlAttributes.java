@@ -0,0 +1,243 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.person;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Attribute values indexed by SamlAttribute ordinal. Attributes with names outside
+ * SamlAttribute, such as the configured VTJ status keys, are kept in a small list of their own.
+ * Merging attributes of several sources is an overlay of the value arrays; the Map view
+ * by attribute name is meant for the REST boundary where the attributes become the
+ * SessionAttributeDTO map. An absent attribute and a null value are the same thing.
+ * After readOnly() the attributes can't be changed.
+ */
+public final class SamlAttributes extends AbstractMap<String,String> {
+
+    private static final SamlAttribute[] ATTRIBUTES = SamlAttribute.values();
+
+    private final String[] values = new String[ATTRIBUTES.length];
+    private String[] otherNames;
+    private String[] otherValues;
+    private int otherCount;
+    private int size;
+    private boolean readOnly;
+
+    private EntrySet entrySet;
+
+    public String get(SamlAttribute attribute) {
+        return values[attribute.ordinal()];
+    }
+
+    /**
+     * @param value null removes the attribute
+     * @return the previous value
+     */
+    public String set(SamlAttribute attribute, String value) {
+        checkWritable();
+        String previous = values[attribute.ordinal()];
+        values[attribute.ordinal()] = value;
+        if (previous == null && value != null) {
+            size++;
+        } else if (previous != null && value == null) {
+            size--;
+        }
+        return previous;
+    }
+
+    /**
+     * Sets the attribute if the value is neither null nor empty.
+     */
+    public void setIfNotEmpty(SamlAttribute attribute, String value) {
+        if (null != value && !value.isEmpty()) {
+            set(attribute, value);
+        }
+    }
+
+    /**
+     * Sets an attribute by name, names of SamlAttribute go to their slots.
+     */
+    public String set(String name, String value) {
+        SamlAttribute attribute = SamlAttribute.fromName(name);
+        if (attribute != null) {
+            return set(attribute, value);
+        }
+        checkWritable();
+        int index = indexOfOther(name);
+        if (index >= 0) {
+            String previous = otherValues[index];
+            otherValues[index] = value;
+            if (previous == null && value != null) {
+                size++;
+            } else if (previous != null && value == null) {
+                size--;
+            }
+            return previous;
+        }
+        if (value == null) {
+            return null;
+        }
+        if (otherNames == null) {
+            otherNames = new String[4];
+            otherValues = new String[4];
+        } else if (otherCount == otherNames.length) {
+            otherNames = Arrays.copyOf(otherNames, otherCount * 2);
+            otherValues = Arrays.copyOf(otherValues, otherCount * 2);
+        }
+        otherNames[otherCount] = name;
+        otherValues[otherCount] = value;
+        otherCount++;
+        size++;
+        return null;
+    }
+
+    /**
+     * Copies every attribute present in the given attributes over these.
+     */
+    public void overlay(SamlAttributes attributes) {
+        checkWritable();
+        for (int i = 0; i < values.length; i++) {
+            String value = attributes.values[i];
+            if (value != null) {
+                if (values[i] == null) {
+                    size++;
+                }
+                values[i] = value;
+            }
+        }
+        for (int i = 0; i < attributes.otherCount; i++) {
+            set(attributes.otherNames[i], attributes.otherValues[i]);
+        }
+    }
+
+    public SamlAttributes readOnly() {
+        readOnly = true;
+        return this;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Attributes are read only");
+        }
+    }
+
+    private int indexOfOther(Object name) {
+        for (int i = 0; i < otherCount; i++) {
+            if (otherNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String get(Object name) {
+        SamlAttribute attribute = name instanceof String ? SamlAttribute.fromName((String) name) : null;
+        if (attribute != null) {
+            return values[attribute.ordinal()];
+        }
+        int index = indexOfOther(name);
+        return index >= 0 ? otherValues[index] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return get(name) != null;
+    }
+
+    @Override
+    public String put(String name, String value) {
+        return set(name, value);
+    }
+
+    @Override
+    public String remove(Object name) {
+        return name instanceof String ? set((String) name, null) : null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<String,String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String,String>> {
+        @Override
+        public Iterator<Map.Entry<String,String>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String,String>> {
+        // indexes up to values.length are SamlAttribute ordinals, then other attributes
+        private int next = advance(0);
+
+        private int advance(int index) {
+            while (index < values.length && values[index] == null) {
+                index++;
+            }
+            if (index >= values.length) {
+                while (index - values.length < otherCount && otherValues[index - values.length] == null) {
+                    index++;
+                }
+            }
+            return index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < values.length + otherCount;
+        }
+
+        @Override
+        public Map.Entry<String,String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int index = next;
+            next = advance(index + 1);
+            if (index < values.length) {
+                return new SimpleImmutableEntry<>(ATTRIBUTES[index].getAttributeName(), values[index]);
+            }
+            return new SimpleImmutableEntry<>(otherNames[index - values.length], otherValues[index - values.length]);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.person;
+
+import fi.vm.kapa.identification.proxy.exception.InitializationException;
+import fi.vm.kapa.identification.type.AuthMethod;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SP attributes passed on to the IdP as SAML attributes, configured per authentication method.
+ * The definition is a comma separated list of method mappings where each method lists its
+ * attributes separated by semicolons, e.g.
+ * <pre>fLoA2:AJP_mail=samlMail;AJP_mobile=samlMobile,eLoA3:AJP_eidasBirthName=samlBirthName</pre>
+ * The definition is compiled at startup into an extractor per method so that building a
+ * person only walks the arrays of its own method. Identifiers, the authentication token and
+ * the other attributes computed by the proxy itself cannot be mapping targets.
+ */
+public class SpAttributeMapping {
+
+    private static final Set<SamlAttribute> RESERVED_TARGETS = Collections.unmodifiableSet(EnumSet.of(
+            SamlAttribute.NATIONAL_IDENTIFICATION_NUMBER,
+            SamlAttribute.ELECTRONIC_IDENTIFICATION_NUMBER,
+            SamlAttribute.KID,
+            SamlAttribute.PERSON_IDENTIFIER,
+            SamlAttribute.FOREIGN_PERSON_IDENTIFIER,
+            SamlAttribute.AUTHENTICATION_TOKEN,
+            SamlAttribute.LEGACY_KID,
+            SamlAttribute.LEGACY_PIN,
+            SamlAttribute.LEGACY_VERSION));
+
+    private final Map<AuthMethod,Extractor> extractors;
+
+    private SpAttributeMapping(Map<AuthMethod,Extractor> extractors) {
+        this.extractors = extractors;
+    }
+
+    public static SpAttributeMapping compile(String definition) throws InitializationException {
+        return compile(definition, Collections.emptySet());
+    }
+
+    /**
+     * @param reservedNames additional target names the proxy sets itself, e.g. the VTJ status keys
+     */
+    public static SpAttributeMapping compile(String definition, Collection<String> reservedNames) throws InitializationException {
+        Map<AuthMethod,List<String[]>> mappings = new EnumMap<>(AuthMethod.class);
+        if (StringUtils.isNotBlank(definition)) {
+            for (String methodMapping : definition.split(",")) {
+                String[] methodAndAttributes = methodMapping.split(":", 2);
+                if (methodAndAttributes.length != 2) {
+                    throw new InitializationException("Invalid SP attribute mapping " + methodMapping);
+                }
+                AuthMethod authMethod;
+                try {
+                    authMethod = AuthMethod.valueOf(methodAndAttributes[0].trim());
+                } catch (IllegalArgumentException e) {
+                    throw new InitializationException("Unknown authentication method in SP attribute mapping " + methodMapping, e);
+                }
+                List<String[]> attributes = mappings.computeIfAbsent(authMethod, method -> new ArrayList<>());
+                for (String attributeMapping : methodAndAttributes[1].split(";")) {
+                    String[] sourceAndTarget = attributeMapping.split("=", 2);
+                    if (sourceAndTarget.length != 2 || StringUtils.isBlank(sourceAndTarget[0]) || StringUtils.isBlank(sourceAndTarget[1])) {
+                        throw new InitializationException("Invalid SP attribute mapping " + attributeMapping + " for " + authMethod);
+                    }
+                    String target = sourceAndTarget[1].trim();
+                    if (RESERVED_TARGETS.contains(SamlAttribute.fromName(target)) || reservedNames.contains(target)) {
+                        throw new InitializationException("Reserved target in SP attribute mapping " + attributeMapping + " for " + authMethod);
+                    }
+                    attributes.add(new String[] { sourceAndTarget[0].trim(), target });
+                }
+            }
+        }
+        Map<AuthMethod,Extractor> extractors = new EnumMap<>(AuthMethod.class);
+        mappings.forEach((authMethod, attributes) -> extractors.put(authMethod, new Extractor(attributes)));
+        return new SpAttributeMapping(Collections.unmodifiableMap(extractors));
+    }
+
+    /**
+     * @return true if attributes are mapped for the given method
+     */
+    public boolean isMapped(AuthMethod authMethod) {
+        return extractors.containsKey(authMethod);
+    }
+
+    /**
+     * @return the mapped attributes present in the SP data, empty if none are mapped for the method
+     */
+    public SamlAttributes extract(Map<String,String> spData, AuthMethod authMethod) {
+        SamlAttributes attributes = new SamlAttributes();
+        Extractor extractor = extractors.get(authMethod);
+        if (extractor != null) {
+            extractor.extract(spData, attributes);
+        }
+        return attributes.readOnly();
+    }
+
+    private static class Extractor {
+        private final String[] sourceNames;
+        private final SamlAttribute[] targets;
+        private final String[] targetNames;
+
+        Extractor(List<String[]> attributes) {
+            sourceNames = new String[attributes.size()];
+            targets = new SamlAttribute[attributes.size()];
+            targetNames = new String[attributes.size()];
+            for (int i = 0; i < attributes.size(); i++) {
+                sourceNames[i] = attributes.get(i)[0];
+                targetNames[i] = attributes.get(i)[1];
+                // names outside SamlAttribute are passed on as they are
+                targets[i] = SamlAttribute.fromName(targetNames[i]);
+            }
+        }
+
+        void extract(Map<String,String> spData, SamlAttributes attributes) {
+            for (int i = 0; i < sourceNames.length; i++) {
+                String value = spData.get(sourceNames[i]);
+                if (StringUtils.isNotEmpty(value)) {
+                    if (targets[i] != null) {
+                        attributes.set(targets[i], value);
+                    } else {
+                        attributes.set(targetNames[i], value);
+                    }
+                }
+            }
+        }
+    }
+}
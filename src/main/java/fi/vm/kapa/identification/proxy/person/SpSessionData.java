@@ -0,0 +1,154 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.person;
+
+import fi.vm.kapa.identification.type.Identifier;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Session data received from the SP, parsed in a single pass over the AJP attributes.
+ * Every known attribute is dispatched to its slot so that building the person and the
+ * session reads the slots instead of looking the attributes up one by one. As a Map
+ * this is a read only view of the original data.
+ */
+public final class SpSessionData extends AbstractMap<String,String> {
+
+    public enum Key {
+        IDENTIFIER_TYPE(Identifier.typeKey),
+        HETU("AJP_hetu"),
+        SATU("AJP_satu"),
+        KID("AJP_tfiKid"),
+        FOREIGN_PERSON_IDENTIFIER("AJP_foreignPersonIdentifier"),
+        EIDAS_PERSON_IDENTIFIER("AJP_eidasPersonIdentifier"),
+        ISSUER_CN("AJP_issuerCN"),
+        CN("AJP_cn"),
+        FIRST_NAMES("AJP_firstNames"),
+        SN("AJP_sn"),
+        PERSON_NAME("AJP_tfiPersonName"),
+        EIDAS_GIVEN_NAME("AJP_eidasGivenName"),
+        EIDAS_FAMILY_NAME("AJP_eidasFamilyName"),
+        EIDAS_DATE_OF_BIRTH("AJP_eidasDateOfBirth"),
+        IDENTITY_ASSURANCE_LEVEL("AJP_identityAssuranceLevel"),
+        AUTHN_CONTEXT_CLASS("AJP_Shib-AuthnContext-Class"),
+        AUTHN_CONTEXT_DECL("AJP_Shib-AuthnContext-Decl"),
+        LEGACY_VERSION("AJP_tfiVersion");
+
+        private final String attributeName;
+
+        Key(String attributeName) {
+            this.attributeName = attributeName;
+        }
+
+        public String getAttributeName() {
+            return attributeName;
+        }
+    }
+
+    private static final Map<String,Key> keysByName = new HashMap<>();
+    private static final Map<Identifier.Types,Key> identifierKeys = new EnumMap<>(Identifier.Types.class);
+
+    static {
+        for (Key key : Key.values()) {
+            keysByName.put(key.getAttributeName(), key);
+        }
+        identifierKeys.put(Identifier.Types.HETU, Key.HETU);
+        identifierKeys.put(Identifier.Types.SATU, Key.SATU);
+        identifierKeys.put(Identifier.Types.KID, Key.KID);
+        identifierKeys.put(Identifier.Types.FPID, Key.FOREIGN_PERSON_IDENTIFIER);
+        identifierKeys.put(Identifier.Types.EIDAS_ID, Key.EIDAS_PERSON_IDENTIFIER);
+    }
+
+    private final Map<String,String> spData;
+    private final String[] values = new String[Key.values().length];
+
+    private SpSessionData(Map<String,String> spData) {
+        this.spData = Collections.unmodifiableMap(spData);
+        for (Map.Entry<String,String> attribute : spData.entrySet()) {
+            Key key = keysByName.get(attribute.getKey());
+            if (key != null) {
+                values[key.ordinal()] = attribute.getValue();
+            }
+        }
+    }
+
+    /**
+     * @return the given data if it is already parsed, otherwise the data parsed
+     */
+    public static SpSessionData of(Map<String,String> spData) {
+        if (spData instanceof SpSessionData) {
+            return (SpSessionData) spData;
+        }
+        return new SpSessionData(spData);
+    }
+
+    public String get(Key key) {
+        return values[key.ordinal()];
+    }
+
+    /**
+     * @return the key of the given identifier type, null if the SP doesn't provide such identifiers
+     */
+    public static Key getIdentifierKey(Identifier.Types identifierType) {
+        return identifierKeys.get(identifierType);
+    }
+
+    /**
+     * @return identifiers of the person keyed by their type
+     */
+    public Map<Identifier.Types,String> getIdentifiers() {
+        Map<Identifier.Types,String> identifiers = new EnumMap<>(Identifier.Types.class);
+        for (Map.Entry<Identifier.Types,Key> identifierKey : identifierKeys.entrySet()) {
+            String identifier = get(identifierKey.getValue());
+            if (identifier != null) {
+                identifiers.put(identifierKey.getKey(), identifier);
+            }
+        }
+        return identifiers;
+    }
+
+    @Override
+    public String get(Object name) {
+        return spData.get(name);
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return spData.containsKey(name);
+    }
+
+    @Override
+    public int size() {
+        return spData.size();
+    }
+
+    @Override
+    public Set<Map.Entry<String,String>> entrySet() {
+        return spData.entrySet();
+    }
+}
@@ -30,18 +30,60 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.regex.Pattern;
 
 public class VtjPerson {
     private static final Logger logger = LoggerFactory.getLogger(VtjPerson.class);
 
-    private final Person person;
+    private static final Pattern FIRST_NAMES_DELIMITER = Pattern.compile("[ ]+");
+
+    private final VtjPersonRecord person;
     private final Identity identity;
+    private final String commonName;
+
+    // built once, the VTJ data of the person doesn't change
+    private volatile SamlAttributes attributes;
 
     public VtjPerson(Identity identity, Person person) {
+        this(identity, VtjPersonRecord.from(person));
+    }
+
+    public VtjPerson(Identity identity, VtjPersonRecord person) {
         this.identity = identity;
         this.person = person;
+        this.commonName = person != null ? buildCommonName(person) : null;
+    }
+
+    /**
+     * samlCn is "last name first names" when the person has a last name and a given name
+     */
+    private static String buildCommonName(VtjPersonRecord person) {
+        if (StringUtils.isNotEmpty(person.getLastName())
+                && (StringUtils.isNotEmpty(person.getNickName()) || StringUtils.isNotBlank(person.getFirstNames()))) {
+            return person.getLastName() + " " + person.getFirstNames();
+        }
+        return null;
+    }
+
+    /**
+     * @return national identification number (samlNationalIdentificationNumber), null if not known
+     */
+    public String nationalId() {
+        return person != null && StringUtils.isNotEmpty(person.getHetu()) ? person.getHetu() : null;
+    }
+
+    /**
+     * @return electronic identification number (samlElectronicIdentificationNumber), null if not known
+     */
+    public String electronicId() {
+        return person != null && StringUtils.isNotEmpty(person.getSatu()) ? person.getSatu() : null;
+    }
+
+    /**
+     * @return common name (samlCn), null if not known
+     */
+    public String commonName() {
+        return commonName;
     }
 
     public void validate() throws InvalidVtjDataException {
@@ -67,109 +109,122 @@ public class VtjPerson {
                 throw new InvalidVtjDataException("HETU does not match");
             }
         }
+        attributes = buildAttributes();
+    }
+
+    /**
+     * @return read only SAML attributes derived from the VTJ data
+     */
+    public SamlAttributes getAttributes() {
+        SamlAttributes result = attributes;
+        if (result == null) {
+            result = buildAttributes();
+            attributes = result;
+        }
+        return result;
     }
 
-    public Map<String,String> getAttributes() {
-        Map<String,String> attributes = new HashMap<>();
+    private SamlAttributes buildAttributes() {
+        SamlAttributes attributes = new SamlAttributes();
 
         if (StringUtils.isNotEmpty(person.getHetu())) {
-            attributes.put("samlNationalIdentificationNumber", person.getHetu());
+            attributes.set(SamlAttribute.NATIONAL_IDENTIFICATION_NUMBER, person.getHetu());
         }
         if (StringUtils.isNotEmpty(person.getSatu())) {
-            attributes.put("samlElectronicIdentificationNumber", person.getSatu());
+            attributes.set(SamlAttribute.ELECTRONIC_IDENTIFICATION_NUMBER, person.getSatu());
         }
-        attributes.put("samlProtectionOrder", person.isProtectionOrder() ? "1" : "0");
+        attributes.set(SamlAttribute.PROTECTION_ORDER, person.isProtectionOrder() ? "1" : "0");
         if (StringUtils.isNotEmpty(person.getFinnishCitizenship())) {
-            attributes.put("samlFinnishCitizenship", person.getFinnishCitizenship());
+            attributes.set(SamlAttribute.FINNISH_CITIZENSHIP, person.getFinnishCitizenship());
         }
 
         if (StringUtils.isNotEmpty(person.getLastName())) {
-            attributes.put("samlSn", person.getLastName());
+            attributes.set(SamlAttribute.SN, person.getLastName());
         }
 
         if (StringUtils.isNotEmpty(person.getFirstNames())) {
-            attributes.put("samlFirstName", person.getFirstNames());
+            attributes.set(SamlAttribute.FIRST_NAME, person.getFirstNames());
         }
 
         if (StringUtils.isNotEmpty(person.getNickName())) {
-            attributes.put("samlGivenName", person.getNickName());
+            attributes.set(SamlAttribute.GIVEN_NAME, person.getNickName());
             if (StringUtils.isNotEmpty(person.getLastName())) {
-                attributes.put("samlDisplayName", person.getNickName() + " " + person.getLastName());
-                attributes.put("samlCn", person.getLastName() + " " + person.getFirstNames());
+                attributes.set(SamlAttribute.DISPLAY_NAME, person.getNickName() + " " + person.getLastName());
+                attributes.set(SamlAttribute.CN, commonName);
             }
         } else if (StringUtils.isNotBlank(person.getFirstNames())) {
-            String delims = "[ ]+";
-            attributes.put("samlGivenName", person.getFirstNames().split(delims)[0]);
+            String firstName = FIRST_NAMES_DELIMITER.split(person.getFirstNames(), 2)[0];
+            attributes.set(SamlAttribute.GIVEN_NAME, firstName);
             if (StringUtils.isNotEmpty(person.getLastName())) {
-                attributes.put("samlDisplayName", person.getFirstNames().split(delims)[0] + " " + person.getLastName());
-                attributes.put("samlCn", person.getLastName() + " " + person.getFirstNames());
+                attributes.set(SamlAttribute.DISPLAY_NAME, firstName + " " + person.getLastName());
+                attributes.set(SamlAttribute.CN, commonName);
             }
         }
 
         if (StringUtils.isNotEmpty(person.getEmailAddress())) {
-            attributes.put("samlMail", person.getEmailAddress());
+            attributes.set(SamlAttribute.MAIL, person.getEmailAddress());
         }
 
         if (StringUtils.isNotEmpty(person.getMunicipalityCode())) {
-            attributes.put("samlMunicipalityCode", person.getMunicipalityCode());
+            attributes.set(SamlAttribute.MUNICIPALITY_CODE, person.getMunicipalityCode());
         }
 
         if (StringUtils.isNotEmpty(person.getMunicipalityS())) {
-            attributes.put("samlMunicipality", person.getMunicipalityS());
+            attributes.set(SamlAttribute.MUNICIPALITY, person.getMunicipalityS());
         } else if (StringUtils.isNotEmpty(person.getMunicipalityR())) {
-            attributes.put("samlMunicipality", person.getMunicipalityR());
+            attributes.set(SamlAttribute.MUNICIPALITY, person.getMunicipalityR());
         }
 
         if (StringUtils.isNotEmpty(person.getDomesticAddressS())) {
-            attributes.put("samlDomesticAddress", person.getDomesticAddressS());
+            attributes.set(SamlAttribute.DOMESTIC_ADDRESS, person.getDomesticAddressS());
         } else if (StringUtils.isNotEmpty(person.getDomesticAddressR())) {
-            attributes.put("samlDomesticAddress", person.getDomesticAddressR());
+            attributes.set(SamlAttribute.DOMESTIC_ADDRESS, person.getDomesticAddressR());
         }
 
         if (StringUtils.isNotEmpty(person.getPostalCode())) {
-            attributes.put("samlPostalCode", person.getPostalCode());
+            attributes.set(SamlAttribute.POSTAL_CODE, person.getPostalCode());
         }
 
         if (StringUtils.isNotEmpty(person.getCityS())) {
-            attributes.put("samlCity", person.getCityS());
+            attributes.set(SamlAttribute.CITY, person.getCityS());
         } else if (StringUtils.isNotEmpty(person.getCityR())) {
-            attributes.put("samlCity", person.getCityR());
+            attributes.set(SamlAttribute.CITY, person.getCityR());
         }
 
         if (StringUtils.isNotEmpty(person.getForeignAddress())) {
-            attributes.put("samlForeignAddress", person.getForeignAddress());
+            attributes.set(SamlAttribute.FOREIGN_ADDRESS, person.getForeignAddress());
         }
 
         if (StringUtils.isNotEmpty(person.getForeignLocalityAndStateS())) {
-            attributes.put("samlForeignLocalityAndState", person.getForeignLocalityAndStateS());
+            attributes.set(SamlAttribute.FOREIGN_LOCALITY_AND_STATE, person.getForeignLocalityAndStateS());
         } else if (StringUtils.isNotEmpty(person.getForeignLocalityAndStateR())) {
-            attributes.put("samlForeignLocalityAndState", person.getForeignLocalityAndStateR());
+            attributes.set(SamlAttribute.FOREIGN_LOCALITY_AND_STATE, person.getForeignLocalityAndStateR());
         }
 
         if (StringUtils.isNotEmpty(person.getForeignLocalityAndStateClearText())) {
-            attributes.put("samlForeignLocalityAndStateClearText", person.getForeignLocalityAndStateClearText());
+            attributes.set(SamlAttribute.FOREIGN_LOCALITY_AND_STATE_CLEAR_TEXT, person.getForeignLocalityAndStateClearText());
         }
 
         if (StringUtils.isNotEmpty(person.getStateCode())) {
-            attributes.put("samlState", person.getStateCode());
+            attributes.set(SamlAttribute.STATE, person.getStateCode());
         }
 
         if (StringUtils.isNotEmpty(person.getTemporaryDomesticAddressS())) {
-            attributes.put("samlTemporaryDomesticAddress", person.getTemporaryDomesticAddressS());
+            attributes.set(SamlAttribute.TEMPORARY_DOMESTIC_ADDRESS, person.getTemporaryDomesticAddressS());
         } else if (StringUtils.isNotEmpty(person.getTemporaryDomesticAddressR())) {
-            attributes.put("samlTemporaryDomesticAddress", person.getTemporaryDomesticAddressR());
+            attributes.set(SamlAttribute.TEMPORARY_DOMESTIC_ADDRESS, person.getTemporaryDomesticAddressR());
         }
 
         if (StringUtils.isNotEmpty(person.getTemporaryPostalCode())) {
-            attributes.put("samlTemporaryPostalCode", person.getTemporaryPostalCode());
+            attributes.set(SamlAttribute.TEMPORARY_POSTAL_CODE, person.getTemporaryPostalCode());
         }
 
         if (StringUtils.isNotEmpty(person.getTemporaryCityS())) {
-            attributes.put("samlTemporaryCity", person.getTemporaryCityS());
+            attributes.set(SamlAttribute.TEMPORARY_CITY, person.getTemporaryCityS());
         } else if (StringUtils.isNotEmpty(person.getTemporaryCityR())) {
-            attributes.put("samlTemporaryCity", person.getTemporaryCityR());
+            attributes.set(SamlAttribute.TEMPORARY_CITY, person.getTemporaryCityR());
         }
-        return attributes;
+        return attributes.readOnly();
     }
 
 }
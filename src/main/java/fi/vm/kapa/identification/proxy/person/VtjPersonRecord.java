@@ -0,0 +1,435 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.person;
+
+import fi.vm.kapa.identification.vtj.model.Person;
+
+/**
+ * Immutable copy of the VTJ person data the proxy uses. Sessions hold this
+ * instead of the full VTJ Person, the field names match the VTJ JSON.
+ */
+public final class VtjPersonRecord {
+
+    private final String hetu;
+    private final boolean hetuValid;
+    private final String satu;
+    private final boolean satuValid;
+    private final boolean deceased;
+    private final boolean protectionOrder;
+    private final String finnishCitizenship;
+    private final String lastName;
+    private final String firstNames;
+    private final String nickName;
+    private final String emailAddress;
+    private final String municipalityCode;
+    private final String municipalityS;
+    private final String municipalityR;
+    private final String domesticAddressS;
+    private final String domesticAddressR;
+    private final String postalCode;
+    private final String cityS;
+    private final String cityR;
+    private final String foreignAddress;
+    private final String foreignLocalityAndStateS;
+    private final String foreignLocalityAndStateR;
+    private final String foreignLocalityAndStateClearText;
+    private final String stateCode;
+    private final String temporaryDomesticAddressS;
+    private final String temporaryDomesticAddressR;
+    private final String temporaryPostalCode;
+    private final String temporaryCityS;
+    private final String temporaryCityR;
+
+    private VtjPersonRecord(Builder builder) {
+        this.hetu = builder.hetu;
+        this.hetuValid = builder.hetuValid;
+        this.satu = builder.satu;
+        this.satuValid = builder.satuValid;
+        this.deceased = builder.deceased;
+        this.protectionOrder = builder.protectionOrder;
+        this.finnishCitizenship = builder.finnishCitizenship;
+        this.lastName = builder.lastName;
+        this.firstNames = builder.firstNames;
+        this.nickName = builder.nickName;
+        this.emailAddress = builder.emailAddress;
+        this.municipalityCode = builder.municipalityCode;
+        this.municipalityS = builder.municipalityS;
+        this.municipalityR = builder.municipalityR;
+        this.domesticAddressS = builder.domesticAddressS;
+        this.domesticAddressR = builder.domesticAddressR;
+        this.postalCode = builder.postalCode;
+        this.cityS = builder.cityS;
+        this.cityR = builder.cityR;
+        this.foreignAddress = builder.foreignAddress;
+        this.foreignLocalityAndStateS = builder.foreignLocalityAndStateS;
+        this.foreignLocalityAndStateR = builder.foreignLocalityAndStateR;
+        this.foreignLocalityAndStateClearText = builder.foreignLocalityAndStateClearText;
+        this.stateCode = builder.stateCode;
+        this.temporaryDomesticAddressS = builder.temporaryDomesticAddressS;
+        this.temporaryDomesticAddressR = builder.temporaryDomesticAddressR;
+        this.temporaryPostalCode = builder.temporaryPostalCode;
+        this.temporaryCityS = builder.temporaryCityS;
+        this.temporaryCityR = builder.temporaryCityR;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static VtjPersonRecord from(Person person) {
+        if (person == null) {
+            return null;
+        }
+        return builder()
+                .hetu(person.getHetu())
+                .hetuValid(person.isHetuValid())
+                .satu(person.getSatu())
+                .satuValid(person.isSatuValid())
+                .deceased(person.isDeceased())
+                .protectionOrder(person.isProtectionOrder())
+                .finnishCitizenship(person.getFinnishCitizenship())
+                .lastName(person.getLastName())
+                .firstNames(person.getFirstNames())
+                .nickName(person.getNickName())
+                .emailAddress(person.getEmailAddress())
+                .municipalityCode(person.getMunicipalityCode())
+                .municipalityS(person.getMunicipalityS())
+                .municipalityR(person.getMunicipalityR())
+                .domesticAddressS(person.getDomesticAddressS())
+                .domesticAddressR(person.getDomesticAddressR())
+                .postalCode(person.getPostalCode())
+                .cityS(person.getCityS())
+                .cityR(person.getCityR())
+                .foreignAddress(person.getForeignAddress())
+                .foreignLocalityAndStateS(person.getForeignLocalityAndStateS())
+                .foreignLocalityAndStateR(person.getForeignLocalityAndStateR())
+                .foreignLocalityAndStateClearText(person.getForeignLocalityAndStateClearText())
+                .stateCode(person.getStateCode())
+                .temporaryDomesticAddressS(person.getTemporaryDomesticAddressS())
+                .temporaryDomesticAddressR(person.getTemporaryDomesticAddressR())
+                .temporaryPostalCode(person.getTemporaryPostalCode())
+                .temporaryCityS(person.getTemporaryCityS())
+                .temporaryCityR(person.getTemporaryCityR())
+                .build();
+    }
+
+    public String getHetu() {
+        return hetu;
+    }
+
+    public boolean isHetuValid() {
+        return hetuValid;
+    }
+
+    public String getSatu() {
+        return satu;
+    }
+
+    public boolean isSatuValid() {
+        return satuValid;
+    }
+
+    public boolean isDeceased() {
+        return deceased;
+    }
+
+    public boolean isProtectionOrder() {
+        return protectionOrder;
+    }
+
+    public String getFinnishCitizenship() {
+        return finnishCitizenship;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getFirstNames() {
+        return firstNames;
+    }
+
+    public String getNickName() {
+        return nickName;
+    }
+
+    public String getEmailAddress() {
+        return emailAddress;
+    }
+
+    public String getMunicipalityCode() {
+        return municipalityCode;
+    }
+
+    public String getMunicipalityS() {
+        return municipalityS;
+    }
+
+    public String getMunicipalityR() {
+        return municipalityR;
+    }
+
+    public String getDomesticAddressS() {
+        return domesticAddressS;
+    }
+
+    public String getDomesticAddressR() {
+        return domesticAddressR;
+    }
+
+    public String getPostalCode() {
+        return postalCode;
+    }
+
+    public String getCityS() {
+        return cityS;
+    }
+
+    public String getCityR() {
+        return cityR;
+    }
+
+    public String getForeignAddress() {
+        return foreignAddress;
+    }
+
+    public String getForeignLocalityAndStateS() {
+        return foreignLocalityAndStateS;
+    }
+
+    public String getForeignLocalityAndStateR() {
+        return foreignLocalityAndStateR;
+    }
+
+    public String getForeignLocalityAndStateClearText() {
+        return foreignLocalityAndStateClearText;
+    }
+
+    public String getStateCode() {
+        return stateCode;
+    }
+
+    public String getTemporaryDomesticAddressS() {
+        return temporaryDomesticAddressS;
+    }
+
+    public String getTemporaryDomesticAddressR() {
+        return temporaryDomesticAddressR;
+    }
+
+    public String getTemporaryPostalCode() {
+        return temporaryPostalCode;
+    }
+
+    public String getTemporaryCityS() {
+        return temporaryCityS;
+    }
+
+    public String getTemporaryCityR() {
+        return temporaryCityR;
+    }
+
+    public static final class Builder {
+        private String hetu;
+        private boolean hetuValid;
+        private String satu;
+        private boolean satuValid;
+        private boolean deceased;
+        private boolean protectionOrder;
+        private String finnishCitizenship;
+        private String lastName;
+        private String firstNames;
+        private String nickName;
+        private String emailAddress;
+        private String municipalityCode;
+        private String municipalityS;
+        private String municipalityR;
+        private String domesticAddressS;
+        private String domesticAddressR;
+        private String postalCode;
+        private String cityS;
+        private String cityR;
+        private String foreignAddress;
+        private String foreignLocalityAndStateS;
+        private String foreignLocalityAndStateR;
+        private String foreignLocalityAndStateClearText;
+        private String stateCode;
+        private String temporaryDomesticAddressS;
+        private String temporaryDomesticAddressR;
+        private String temporaryPostalCode;
+        private String temporaryCityS;
+        private String temporaryCityR;
+
+        private Builder() {
+        }
+
+        public Builder hetu(String hetu) {
+            this.hetu = hetu;
+            return this;
+        }
+
+        public Builder hetuValid(boolean hetuValid) {
+            this.hetuValid = hetuValid;
+            return this;
+        }
+
+        public Builder satu(String satu) {
+            this.satu = satu;
+            return this;
+        }
+
+        public Builder satuValid(boolean satuValid) {
+            this.satuValid = satuValid;
+            return this;
+        }
+
+        public Builder deceased(boolean deceased) {
+            this.deceased = deceased;
+            return this;
+        }
+
+        public Builder protectionOrder(boolean protectionOrder) {
+            this.protectionOrder = protectionOrder;
+            return this;
+        }
+
+        public Builder finnishCitizenship(String finnishCitizenship) {
+            this.finnishCitizenship = finnishCitizenship;
+            return this;
+        }
+
+        public Builder lastName(String lastName) {
+            this.lastName = lastName;
+            return this;
+        }
+
+        public Builder firstNames(String firstNames) {
+            this.firstNames = firstNames;
+            return this;
+        }
+
+        public Builder nickName(String nickName) {
+            this.nickName = nickName;
+            return this;
+        }
+
+        public Builder emailAddress(String emailAddress) {
+            this.emailAddress = emailAddress;
+            return this;
+        }
+
+        public Builder municipalityCode(String municipalityCode) {
+            this.municipalityCode = municipalityCode;
+            return this;
+        }
+
+        public Builder municipalityS(String municipalityS) {
+            this.municipalityS = municipalityS;
+            return this;
+        }
+
+        public Builder municipalityR(String municipalityR) {
+            this.municipalityR = municipalityR;
+            return this;
+        }
+
+        public Builder domesticAddressS(String domesticAddressS) {
+            this.domesticAddressS = domesticAddressS;
+            return this;
+        }
+
+        public Builder domesticAddressR(String domesticAddressR) {
+            this.domesticAddressR = domesticAddressR;
+            return this;
+        }
+
+        public Builder postalCode(String postalCode) {
+            this.postalCode = postalCode;
+            return this;
+        }
+
+        public Builder cityS(String cityS) {
+            this.cityS = cityS;
+            return this;
+        }
+
+        public Builder cityR(String cityR) {
+            this.cityR = cityR;
+            return this;
+        }
+
+        public Builder foreignAddress(String foreignAddress) {
+            this.foreignAddress = foreignAddress;
+            return this;
+        }
+
+        public Builder foreignLocalityAndStateS(String foreignLocalityAndStateS) {
+            this.foreignLocalityAndStateS = foreignLocalityAndStateS;
+            return this;
+        }
+
+        public Builder foreignLocalityAndStateR(String foreignLocalityAndStateR) {
+            this.foreignLocalityAndStateR = foreignLocalityAndStateR;
+            return this;
+        }
+
+        public Builder foreignLocalityAndStateClearText(String foreignLocalityAndStateClearText) {
+            this.foreignLocalityAndStateClearText = foreignLocalityAndStateClearText;
+            return this;
+        }
+
+        public Builder stateCode(String stateCode) {
+            this.stateCode = stateCode;
+            return this;
+        }
+
+        public Builder temporaryDomesticAddressS(String temporaryDomesticAddressS) {
+            this.temporaryDomesticAddressS = temporaryDomesticAddressS;
+            return this;
+        }
+
+        public Builder temporaryDomesticAddressR(String temporaryDomesticAddressR) {
+            this.temporaryDomesticAddressR = temporaryDomesticAddressR;
+            return this;
+        }
+
+        public Builder temporaryPostalCode(String temporaryPostalCode) {
+            this.temporaryPostalCode = temporaryPostalCode;
+            return this;
+        }
+
+        public Builder temporaryCityS(String temporaryCityS) {
+            this.temporaryCityS = temporaryCityS;
+            return this;
+        }
+
+        public Builder temporaryCityR(String temporaryCityR) {
+            this.temporaryCityR = temporaryCityR;
+            return this;
+        }
+
+        public VtjPersonRecord build() {
+            return new VtjPersonRecord(this);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.rest;
+
+import fi.vm.kapa.identification.proxy.background.MetadataUpdater;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Lets the metadata server or an operator notify Proxy about changed metadata.
+ * Notifications are debounced by MetadataUpdater so a burst causes one fetch,
+ * scheduled polling remains as a fallback.
+ */
+@Component
+@Path("/metadata")
+public class MetadataResourceImpl {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataResourceImpl.class);
+
+    static final String REFRESH_SECRET_HEADER = "X-Metadata-Refresh-Secret";
+
+    @Autowired
+    private MetadataUpdater metadataUpdater;
+
+    // refresh endpoint is disabled when no secret is configured
+    @Value("${metadata.refresh.secret}")
+    private String refreshSecret;
+
+    @POST
+    @Path("/refresh")
+    public Response refreshMetadata(@HeaderParam(REFRESH_SECRET_HEADER) String secret) {
+        if (!isAuthorized(secret)) {
+            logger.warn("Rejected metadata refresh request with missing or invalid secret");
+            throw new ForbiddenException();
+        }
+        boolean scheduled = metadataUpdater.requestUpdate();
+        logger.info("Metadata refresh requested, {}", scheduled ? "update scheduled" : "joined pending update");
+        return Response.accepted().build();
+    }
+
+    boolean isAuthorized(String secret) {
+        if (StringUtils.isBlank(refreshSecret) || secret == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(refreshSecret.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -25,6 +25,7 @@ package fi.vm.kapa.identification.proxy.rest;
 import fi.vm.kapa.identification.dto.ProxyMessageDTO;
 import fi.vm.kapa.identification.dto.SessionAttributeDTO;
 import fi.vm.kapa.identification.proxy.exception.AttributeGenerationException;
+import fi.vm.kapa.identification.proxy.service.MetadataService;
 import fi.vm.kapa.identification.proxy.service.SessionHandlingService;
 import fi.vm.kapa.identification.resource.ProxyResource;
 import fi.vm.kapa.identification.type.ErrorType;
@@ -47,6 +48,9 @@ public class ProxyResourceImpl implements ProxyResource {
     @Autowired
     private SessionHandlingService sessionHandlingService;
 
+    @Autowired
+    private MetadataService metadataService;
+
     @Override
     public ProxyMessageDTO fromIdPInitSession(String relyingParty,
                                               String entityId,
@@ -56,6 +60,7 @@ public class ProxyResourceImpl implements ProxyResource {
                                               String authMethodReqStr,
                                               String logTag) {
         logger.debug("Got session init from Shibboleth IdP, conversation key: {}", key);
+        requireReady();
 
         ProxyMessageDTO message = sessionHandlingService.initNewSession(relyingParty, entityId, countryCode, uid, key, authMethodReqStr, logTag);
         if (message.getErrorType() == ErrorType.NO_ERROR) {
@@ -68,6 +73,7 @@ public class ProxyResourceImpl implements ProxyResource {
     @Override
     public ProxyMessageDTO fromIdPRequestSession(String tokenId, String phaseId, String logTag) {
         logger.debug("Got session request from Shibboleth IdP, tokenId: {}, phase ID: {}", tokenId, phaseId);
+        requireReady();
 
         ProxyMessageDTO message = sessionHandlingService.getSessionById(tokenId, phaseId, logTag);
         if (message.getErrorType() == ErrorType.NO_ERROR) {
@@ -110,6 +116,7 @@ public class ProxyResourceImpl implements ProxyResource {
     public ProxyMessageDTO fromSPBuildSessionPost(String tokenId, String phaseId,
                                                   String logTag, Map<String,String> spSessionData) {
         logger.debug("Got build session POST request from Shibboleth SP, tokenId: {} , phaseId: {}", tokenId, phaseId);
+        requireReady();
 
         ProxyMessageDTO message = sessionHandlingService.buildNewSession(tokenId, phaseId, spSessionData, logTag);
         if (message.getErrorType() == ErrorType.NO_ERROR) {
@@ -119,6 +126,13 @@ public class ProxyResourceImpl implements ProxyResource {
         }
     }
 
+    private void requireReady() {
+        if (!metadataService.isReady()) {
+            logger.warn("Metadata not available yet, rejecting request");
+            throw new ServiceUnavailableException();
+        }
+    }
+
     private WebApplicationException resolveError(ProxyMessageDTO message) {
         if (message.getErrorType() == ErrorType.VTJ_FAILED) {
             return new ServiceUnavailableException();
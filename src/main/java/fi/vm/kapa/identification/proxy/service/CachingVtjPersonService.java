@@ -0,0 +1,196 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.service;
+
+import fi.vm.kapa.identification.proxy.exception.InvalidVtjDataException;
+import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
+import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPerson;
+import fi.vm.kapa.identification.proxy.session.Identity;
+import fi.vm.kapa.identification.vtj.model.VtjIssue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches VTJ persons by identity for a short time so that repeated logins and the
+ * attribute re-query of the same person do not all hit VTJ. Persons not found from
+ * VTJ (InvalidVtjDataException) are cached too, with their own TTL. VtjServiceExceptions
+ * are never cached. Each entry remembers the VtjIssue of the query that fetched it,
+ * cache hits log both issues so VTJ audit entries can be traced to every login.
+ */
+@ManagedResource(objectName = "fi.vm.kapa.identification.proxy:name=VtjPersonCache",
+        description = "VTJ person cache")
+public class CachingVtjPersonService implements VtjPersonService {
+    private static final Logger logger = LoggerFactory.getLogger(CachingVtjPersonService.class);
+
+    private final VtjPersonService vtjPersonService;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final int maxSize;
+
+    // access ordered, the least recently used entry is evicted when maxSize is exceeded
+    private final LinkedHashMap<Identity,CacheEntry> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingVtjPersonService(VtjPersonService vtjPersonService, long ttlSeconds, long negativeTtlSeconds, int maxSize) {
+        this.vtjPersonService = vtjPersonService;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.negativeTtlMillis = negativeTtlSeconds * 1000;
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<Identity,CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Identity,CacheEntry> eldest) {
+                return size() > CachingVtjPersonService.this.maxSize;
+            }
+        };
+    }
+
+    @Override
+    public VtjPerson getVtjPerson(IdentifiedPerson identifiedPerson, VtjIssue vtjIssue) throws VtjServiceException, InvalidVtjDataException {
+        Identity identity = identifiedPerson.getIdentity();
+        CacheEntry entry = getValidEntry(identity);
+        if (entry != null) {
+            if (entry.vtjPerson == null) {
+                negativeHits.incrementAndGet();
+                logger.info("VTJ request {} answered from cache with not found, original VTJ request {}", vtjIssue, entry.vtjIssue);
+                throw new InvalidVtjDataException(entry.invalidReason);
+            }
+            hits.incrementAndGet();
+            logger.info("VTJ request {} answered from cache, original VTJ request {}", vtjIssue, entry.vtjIssue);
+            return entry.vtjPerson;
+        }
+        misses.incrementAndGet();
+        try {
+            VtjPerson vtjPerson = vtjPersonService.getVtjPerson(identifiedPerson, vtjIssue);
+            put(identity, new CacheEntry(vtjPerson, null, String.valueOf(vtjIssue), System.currentTimeMillis() + ttlMillis));
+            return vtjPerson;
+        } catch (InvalidVtjDataException e) {
+            if (negativeTtlMillis > 0) {
+                put(identity, new CacheEntry(null, e.getMessage(), String.valueOf(vtjIssue), System.currentTimeMillis() + negativeTtlMillis));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Batches always go to VTJ, they are used to revalidate data. The results replace
+     * the cached entries of the persons.
+     */
+    @Override
+    public Map<Identity,VtjPerson> getVtjPersons(Collection<IdentifiedPerson> identifiedPersons, VtjIssue vtjIssue) throws VtjServiceException {
+        Map<Identity,VtjPerson> vtjPersons = vtjPersonService.getVtjPersons(identifiedPersons, vtjIssue);
+        long now = System.currentTimeMillis();
+        for (IdentifiedPerson identifiedPerson : identifiedPersons) {
+            Identity identity = identifiedPerson.getIdentity();
+            VtjPerson vtjPerson = vtjPersons.get(identity);
+            if (vtjPerson != null) {
+                put(identity, new CacheEntry(vtjPerson, null, String.valueOf(vtjIssue), now + ttlMillis));
+            } else if (negativeTtlMillis > 0) {
+                put(identity, new CacheEntry(null, "Person not found in VTJ", String.valueOf(vtjIssue), now + negativeTtlMillis));
+            } else {
+                synchronized (cache) {
+                    cache.remove(identity);
+                }
+            }
+        }
+        return vtjPersons;
+    }
+
+    private CacheEntry getValidEntry(Identity identity) {
+        synchronized (cache) {
+            CacheEntry entry = cache.get(identity);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                cache.remove(identity);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void put(Identity identity, CacheEntry entry) {
+        synchronized (cache) {
+            cache.put(identity, entry);
+        }
+    }
+
+    @ManagedAttribute(description = "Cache hits")
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedAttribute(description = "Cache hits for persons not found from VTJ")
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    @ManagedAttribute(description = "Cache misses")
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @ManagedAttribute(description = "Ratio of all hits to all requests")
+    public double getHitRate() {
+        long hitCount = hits.get() + negativeHits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @ManagedAttribute(description = "Current number of cached entries")
+    public int getSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @ManagedOperation(description = "Removes all cached entries")
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private static class CacheEntry {
+        private final VtjPerson vtjPerson;
+        private final String invalidReason;
+        private final String vtjIssue;
+        private final long expiresAt;
+
+        CacheEntry(VtjPerson vtjPerson, String invalidReason, String vtjIssue, long expiresAt) {
+            this.vtjPerson = vtjPerson;
+            this.invalidReason = invalidReason;
+            this.vtjIssue = vtjIssue;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
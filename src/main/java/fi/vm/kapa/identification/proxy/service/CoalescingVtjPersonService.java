@@ -0,0 +1,133 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.service;
+
+import fi.vm.kapa.identification.proxy.exception.InvalidVtjDataException;
+import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
+import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPerson;
+import fi.vm.kapa.identification.proxy.session.Identity;
+import fi.vm.kapa.identification.vtj.model.VtjIssue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.Collection;
+import java.util.Map;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets concurrent VTJ lookups for the same identity share one VTJ request. The first
+ * caller makes the request in its own thread, callers arriving while it is in flight wait
+ * for its result or exception, each at most waitTimeoutMillis.
+ */
+@ManagedResource(objectName = "fi.vm.kapa.identification.proxy:name=VtjCoalescing",
+        description = "Coalescing of concurrent VTJ requests")
+public class CoalescingVtjPersonService implements VtjPersonService {
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingVtjPersonService.class);
+
+    private final VtjPersonService vtjPersonService;
+    private final long waitTimeoutMillis;
+
+    private final ConcurrentMap<Identity,InFlightRequest> inFlightRequests = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalescedRequests = new AtomicLong();
+
+    public CoalescingVtjPersonService(VtjPersonService vtjPersonService, long waitTimeoutMillis) {
+        this.vtjPersonService = vtjPersonService;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+    }
+
+    @Override
+    public VtjPerson getVtjPerson(IdentifiedPerson identifiedPerson, VtjIssue vtjIssue) throws VtjServiceException, InvalidVtjDataException {
+        Identity identity = identifiedPerson.getIdentity();
+        InFlightRequest request = new InFlightRequest(String.valueOf(vtjIssue));
+        InFlightRequest inFlightRequest = inFlightRequests.putIfAbsent(identity, request);
+        if (inFlightRequest == null) {
+            return fetch(identifiedPerson, vtjIssue, request);
+        }
+        coalescedRequests.incrementAndGet();
+        logger.info("VTJ request {} waits for in-flight VTJ request {}", vtjIssue, inFlightRequest.vtjIssue);
+        return await(inFlightRequest);
+    }
+
+    /**
+     * Batches are passed on as such, they are not coalesced with single lookups.
+     */
+    @Override
+    public Map<Identity,VtjPerson> getVtjPersons(Collection<IdentifiedPerson> identifiedPersons, VtjIssue vtjIssue) throws VtjServiceException {
+        return vtjPersonService.getVtjPersons(identifiedPersons, vtjIssue);
+    }
+
+    private VtjPerson fetch(IdentifiedPerson identifiedPerson, VtjIssue vtjIssue, InFlightRequest request) throws VtjServiceException, InvalidVtjDataException {
+        try {
+            VtjPerson vtjPerson = vtjPersonService.getVtjPerson(identifiedPerson, vtjIssue);
+            request.result.complete(vtjPerson);
+            return vtjPerson;
+        } catch (VtjServiceException | InvalidVtjDataException | RuntimeException e) {
+            request.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightRequests.remove(identifiedPerson.getIdentity(), request);
+        }
+    }
+
+    private VtjPerson await(InFlightRequest inFlightRequest) throws VtjServiceException, InvalidVtjDataException {
+        try {
+            return inFlightRequest.result.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new VtjServiceException("Timed out waiting for in-flight VTJ request " + inFlightRequest.vtjIssue, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VtjServiceException("Interrupted while waiting for in-flight VTJ request " + inFlightRequest.vtjIssue, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InvalidVtjDataException) {
+                throw new InvalidVtjDataException(cause.getMessage(), cause);
+            }
+            throw new VtjServiceException("In-flight VTJ request " + inFlightRequest.vtjIssue + " failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    @ManagedAttribute(description = "VTJ requests that waited for an in-flight request of the same identity")
+    public long getCoalescedRequests() {
+        return coalescedRequests.get();
+    }
+
+    @ManagedAttribute(description = "VTJ requests currently in flight")
+    public int getInFlightRequests() {
+        return inFlightRequests.size();
+    }
+
+    private static class InFlightRequest {
+        private final String vtjIssue;
+        private final CompletableFuture<VtjPerson> result = new CompletableFuture<>();
+
+        InFlightRequest(String vtjIssue) {
+            this.vtjIssue = vtjIssue;
+        }
+    }
+}
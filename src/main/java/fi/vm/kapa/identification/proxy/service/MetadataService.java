@@ -28,14 +28,21 @@ import fi.vm.kapa.identification.proxy.exception.RelyingPartyNotFoundException;
 import fi.vm.kapa.identification.proxy.metadata.AuthenticationProvider;
 import fi.vm.kapa.identification.proxy.metadata.Country;
 import fi.vm.kapa.identification.proxy.metadata.MetadataClient;
+import fi.vm.kapa.identification.proxy.metadata.MetadataSnapshotStore;
+import fi.vm.kapa.identification.proxy.metadata.MetadataSnapshotStore.StoredMetadata;
 import fi.vm.kapa.identification.proxy.metadata.ServiceProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Singleton;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
 
 @Service
 @Singleton
@@ -43,53 +50,101 @@ public class MetadataService {
 
     private static final Logger logger = LoggerFactory.getLogger(MetadataService.class);
 
+    // one fetch thread per metadata section: authentication providers, service providers and countries
+    private static final int METADATA_FETCH_THREADS = 3;
+    private static final long METADATA_FETCH_TIMEOUT_SECONDS = 60;
+
+    // retry delays for the first metadata load until live metadata has been fetched
+    private static final long INITIAL_LOAD_RETRY_MIN_SECONDS = 5;
+    private static final long INITIAL_LOAD_RETRY_MAX_SECONDS = 120;
+
     private MetadataClient metadataClient;
 
-    //cached service providers
-    private Map<String,ServiceProvider> serviceProviderMetaDataCache = new HashMap<>();
-    //cached authentication providers
-    private ApprovedAuthenticationProviders approvedAuthenticationProviders =
-            new ApprovedAuthenticationProviders(Collections.emptyList());
-    //cached country data
-    private Map<String, Country> countryCache = new HashMap<>();
+    private MetadataSnapshotStore metadataSnapshotStore;
+
+    private final ExecutorService metadataFetchExecutor = newMetadataFetchExecutor();
+
+    private final ScheduledExecutorService metadataRefreshExecutor = newMetadataRefreshExecutor();
+
+    //cached metadata, all sections are published together as one immutable snapshot
+    private volatile MetadataSnapshot metadataSnapshot = new MetadataSnapshot(new HashMap<>(),
+            new ApprovedAuthenticationProviders(Collections.emptyList()), new HashMap<>());
+
+    // set once service and authentication providers have been fetched from the metadata server,
+    // a persisted snapshot makes the proxy ready but does not count as a live load
+    private volatile boolean liveLoaded;
 
     @SuppressWarnings("unused")
     private MetadataService() {
     }
 
-    @Autowired
     public MetadataService(MetadataClient metadataClient) {
+        this(metadataClient, null);
+    }
+
+    @Autowired
+    public MetadataService(MetadataClient metadataClient, MetadataSnapshotStore metadataSnapshotStore) {
         this.metadataClient = metadataClient;
+        this.metadataSnapshotStore = metadataSnapshotStore;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        metadataRefreshExecutor.shutdownNow();
+        metadataFetchExecutor.shutdownNow();
     }
 
     public Map<String,ServiceProvider> getServiceProviderMetaDataCache() {
-        return serviceProviderMetaDataCache;
+        return metadataSnapshot.getServiceProviders();
     }
 
     public void setServiceProviderMetaDataCache(Map<String,ServiceProvider> serviceProviderMetaDataCache) {
-        logger.debug("Clearing previous serviceProvider cache, content size {}", this.serviceProviderMetaDataCache.size());
-        this.serviceProviderMetaDataCache = serviceProviderMetaDataCache;
+        MetadataSnapshot current = metadataSnapshot;
+        logger.debug("Clearing previous serviceProvider cache, content size {}", current.getServiceProviders().size());
+        metadataSnapshot = new MetadataSnapshot(serviceProviderMetaDataCache,
+                current.getApprovedAuthenticationProviders(), current.getCountries());
     }
 
     public ApprovedAuthenticationProviders getApprovedAuthenticationProviders() {
-        return approvedAuthenticationProviders;
+        return metadataSnapshot.getApprovedAuthenticationProviders();
     }
 
     public void setApprovedAuthenticationProviders(ApprovedAuthenticationProviders approvedAuthenticationProviders) {
-        this.approvedAuthenticationProviders = approvedAuthenticationProviders;
+        MetadataSnapshot current = metadataSnapshot;
+        metadataSnapshot = new MetadataSnapshot(current.getServiceProviders(),
+                approvedAuthenticationProviders, current.getCountries());
     }
 
     public Map<String, Country> getCountryCache() {
-        return countryCache;
+        return metadataSnapshot.getCountries();
     }
 
     public void setCountryCache(Map<String, Country> countryCache) {
-        logger.debug("Clearing previous country cache, content size {}", this.countryCache.size());
-        this.countryCache = countryCache;
+        MetadataSnapshot current = metadataSnapshot;
+        logger.debug("Clearing previous country cache, content size {}", current.getCountries().size());
+        metadataSnapshot = new MetadataSnapshot(current.getServiceProviders(),
+                current.getApprovedAuthenticationProviders(), countryCache);
+    }
+
+    /**
+     * Proxy is ready to handle authentications once both service provider and
+     * authentication provider metadata is available.
+     */
+    public boolean isReady() {
+        MetadataSnapshot snapshot = metadataSnapshot;
+        return !snapshot.getServiceProviders().isEmpty()
+                && !snapshot.getApprovedAuthenticationProviders().getAllProviders().isEmpty();
+    }
+
+    /**
+     * True once service and authentication providers have been fetched from the metadata server.
+     */
+    public boolean isLiveLoaded() {
+        return liveLoaded;
     }
 
     public ServiceProvider getRelyingParty(String relyingPartyEntityId) throws RelyingPartyNotFoundException {
-        ServiceProvider serviceProvider = serviceProviderMetaDataCache.get(relyingPartyEntityId);
+        ServiceProvider serviceProvider = metadataSnapshot.getServiceProviders().get(relyingPartyEntityId);
         if (null == serviceProvider) {
             throw new RelyingPartyNotFoundException("relyingParty not found: " + relyingPartyEntityId);
         }
@@ -97,7 +152,7 @@ public class MetadataService {
     }
 
     public AuthenticationProvider getAuthenticationProvider(String authContextUrl) throws AuthenticationProviderNotFoundException {
-        AuthenticationProvider authenticationProvider = approvedAuthenticationProviders.getAuthenticationProviderByAuthContextUrl(authContextUrl);
+        AuthenticationProvider authenticationProvider = metadataSnapshot.getApprovedAuthenticationProviders().getAuthenticationProviderByAuthContextUrl(authContextUrl);
         if (authenticationProvider == null) {
             throw new AuthenticationProviderNotFoundException("authentication provider not found: " + authContextUrl);
         }
@@ -105,7 +160,7 @@ public class MetadataService {
     }
 
     public AuthenticationProvider getAuthenticationProviderByEntityId(String entityId) throws AuthenticationProviderNotFoundException {
-        AuthenticationProvider authenticationProvider = approvedAuthenticationProviders.getAuthenticationProviderByEntityId(entityId);
+        AuthenticationProvider authenticationProvider = metadataSnapshot.getApprovedAuthenticationProviders().getAuthenticationProviderByEntityId(entityId);
         if (authenticationProvider == null) {
             throw new AuthenticationProviderNotFoundException("authentication provider not found by entityId: " + entityId);
         }
@@ -113,38 +168,248 @@ public class MetadataService {
     }
 
     public Country getCountry(String countryCode) throws CountryNotFoundException {
-        Country country = countryCache.get(countryCode);
+        Country country = metadataSnapshot.getCountries().get(countryCode);
         if (null == country) {
             throw new CountryNotFoundException("Country not found: " + countryCode);
         }
         return country;
     }
 
-    public void updateMetadataCache() {
+    /**
+     * Fetches authentication providers, service providers and countries concurrently and
+     * publishes them as one snapshot. A section that fails or comes back empty keeps its
+     * previous content while the other sections are still updated.
+     */
+    public synchronized void updateMetadataCache() {
         try {
-            MetadataService.ApprovedAuthenticationProviders newAuthenticationProviders =
-                    getAuthenticationProviders();
-            Map<String,ServiceProvider> newServiceProviders = metadataClient.getServiceProviders();
+            Future<ApprovedAuthenticationProviders> authenticationProvidersFetch =
+                    metadataFetchExecutor.submit(() -> getAuthenticationProviders());
+            Future<Map<String,ServiceProvider>> serviceProvidersFetch =
+                    metadataFetchExecutor.submit(() -> metadataClient.getServiceProviders());
+            Future<Map<String, Country>> countriesFetch =
+                    metadataFetchExecutor.submit(() -> metadataClient.getCountries());
 
-            if (!newServiceProviders.isEmpty() && !newAuthenticationProviders.allProviders.isEmpty()) {
-                setServiceProviderMetaDataCache(newServiceProviders); // when done replace old with new
-                setApprovedAuthenticationProviders(newAuthenticationProviders);
-            }
+            ApprovedAuthenticationProviders newAuthenticationProviders = awaitFetch(authenticationProvidersFetch, "authentication providers");
+            Map<String,ServiceProvider> newServiceProviders = awaitFetch(serviceProvidersFetch, "service providers");
+            Map<String, Country> newCountries = awaitFetch(countriesFetch, "countries");
 
-            Map<String, Country> newCountries = metadataClient.getCountries();
-            if ( !newCountries.isEmpty() ) {
-                setCountryCache(newCountries); // when done replace old with new
+            MetadataSnapshot current = metadataSnapshot;
+            boolean serviceProvidersFetched = newServiceProviders != null && !newServiceProviders.isEmpty();
+            boolean authenticationProvidersFetched = newAuthenticationProviders != null && !newAuthenticationProviders.getAllProviders().isEmpty();
+            boolean countriesFetched = newCountries != null && !newCountries.isEmpty();
+            MetadataSnapshot updated = new MetadataSnapshot(
+                    selectSection("service providers", serviceProvidersFetched,
+                            () -> applyDelta("service providers", current.getServiceProviders(), newServiceProviders, ServiceProvider::hasSameContent),
+                            current.getServiceProviders()),
+                    selectSection("authentication providers", authenticationProvidersFetched,
+                            () -> applyDelta(current.getApprovedAuthenticationProviders(), newAuthenticationProviders),
+                            current.getApprovedAuthenticationProviders()),
+                    selectSection("countries", countriesFetched,
+                            () -> applyDelta("countries", current.getCountries(), newCountries, Country::hasSameContent),
+                            current.getCountries()));
+            metadataSnapshot = updated;
+            if (serviceProvidersFetched && authenticationProvidersFetched) {
+                liveLoaded = true;
+            }
+            if (updated.getServiceProviders() != current.getServiceProviders()
+                    || updated.getApprovedAuthenticationProviders() != current.getApprovedAuthenticationProviders()
+                    || updated.getCountries() != current.getCountries()) {
+                persistMetadata(updated);
             }
         } catch (Exception e) {
             logger.error("Error updating proxy metadata", e);
         }
     }
 
+    /**
+     * Starts the first live metadata load on a background thread so that startup does not
+     * wait for the metadata server. The load is retried with increasing delay until live
+     * metadata has been fetched, also when a persisted snapshot already made the proxy ready.
+     * Requests are rejected until isReady() holds.
+     */
+    public void loadMetadataInBackground() {
+        scheduleInitialLoad(0, INITIAL_LOAD_RETRY_MIN_SECONDS);
+    }
+
+    private void scheduleInitialLoad(long delaySeconds, long nextDelaySeconds) {
+        metadataRefreshExecutor.schedule(() -> {
+            updateMetadataCache();
+            if (liveLoaded) {
+                logger.info("Metadata available, proxy is ready");
+            } else {
+                if (isReady()) {
+                    logger.warn("Live metadata not available yet, using persisted metadata, retrying in {} seconds", nextDelaySeconds);
+                } else {
+                    logger.warn("Metadata not available yet, retrying in {} seconds", nextDelaySeconds);
+                }
+                scheduleInitialLoad(nextDelaySeconds, Math.min(nextDelaySeconds * 2, INITIAL_LOAD_RETRY_MAX_SECONDS));
+            }
+        }, delaySeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Fills the cache from the snapshot persisted by a previous update.
+     *
+     * @return true if a usable snapshot was found and published
+     */
+    public synchronized boolean loadPersistedMetadata() {
+        if (metadataSnapshotStore == null) {
+            return false;
+        }
+        StoredMetadata storedMetadata = metadataSnapshotStore.load();
+        if (storedMetadata == null
+                || storedMetadata.getServiceProviders() == null || storedMetadata.getServiceProviders().isEmpty()
+                || storedMetadata.getAuthenticationProviders() == null || storedMetadata.getAuthenticationProviders().isEmpty()) {
+            return false;
+        }
+        Map<String, Country> countries = storedMetadata.getCountries() != null ? storedMetadata.getCountries() : new HashMap<>();
+        metadataSnapshot = new MetadataSnapshot(new HashMap<>(storedMetadata.getServiceProviders()),
+                new ApprovedAuthenticationProviders(new ArrayList<>(storedMetadata.getAuthenticationProviders())),
+                new HashMap<>(countries));
+        logger.info("Loaded persisted metadata snapshot from {}: {} service providers, {} authentication providers, {} countries",
+                new Date(storedMetadata.getSavedAt()), storedMetadata.getServiceProviders().size(),
+                storedMetadata.getAuthenticationProviders().size(), countries.size());
+        return true;
+    }
+
     public ApprovedAuthenticationProviders getAuthenticationProviders() {
         List<AuthenticationProvider> providerDTOs = metadataClient.getAuthenticationProviders();
         return new MetadataService.ApprovedAuthenticationProviders(providerDTOs);
     }
 
+    private void persistMetadata(MetadataSnapshot snapshot) {
+        if (metadataSnapshotStore != null) {
+            metadataSnapshotStore.save(snapshot.getServiceProviders(),
+                    snapshot.getApprovedAuthenticationProviders().getAllProviders(), snapshot.getCountries());
+        }
+    }
+
+    private <T> T awaitFetch(Future<T> fetch, String section) {
+        try {
+            return fetch.get(METADATA_FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while fetching {} from metadata server", section);
+        } catch (ExecutionException | TimeoutException e) {
+            fetch.cancel(true);
+            logger.error("Error fetching " + section + " from metadata server", e);
+        }
+        return null;
+    }
+
+    /**
+     * Keeps the previous instance of every entry whose content did not change, so unchanged
+     * metadata stays shared between snapshots. Returns the previous map itself when nothing
+     * changed, which also lets updateMetadataCache() skip persisting an unchanged snapshot.
+     */
+    <V> Map<String, V> applyDelta(String section, Map<String, V> previous, Map<String, V> fetched,
+                                  BiPredicate<V, V> sameContent) {
+        Map<String, V> merged = new HashMap<>(fetched.size() * 4 / 3 + 1);
+        int changed = 0;
+        for (Map.Entry<String, V> entry : fetched.entrySet()) {
+            V previousValue = previous.get(entry.getKey());
+            if (previousValue != null && sameContent.test(previousValue, entry.getValue())) {
+                merged.put(entry.getKey(), previousValue);
+            } else {
+                merged.put(entry.getKey(), entry.getValue());
+                changed++;
+            }
+        }
+        if (changed == 0 && merged.size() == previous.size()) {
+            logger.debug("No changes in {}", section);
+            return previous;
+        }
+        logger.info("Metadata update changed {}: {} new or modified, {} in total, {} before", section, changed, merged.size(), previous.size());
+        return merged;
+    }
+
+    ApprovedAuthenticationProviders applyDelta(ApprovedAuthenticationProviders previous, ApprovedAuthenticationProviders fetched) {
+        Map<String, AuthenticationProvider> previousByEntityId = new HashMap<>();
+        previous.getAllProviders().forEach(provider -> previousByEntityId.put(provider.getDbEntityIdAuthContextUrl(), provider));
+        // provider order is kept as fetched because lookups return the first match
+        List<AuthenticationProvider> merged = new ArrayList<>(fetched.getAllProviders().size());
+        int changed = 0;
+        for (AuthenticationProvider provider : fetched.getAllProviders()) {
+            AuthenticationProvider previousProvider = previousByEntityId.get(provider.getDbEntityIdAuthContextUrl());
+            if (previousProvider != null && previousProvider.hasSameContent(provider)) {
+                merged.add(previousProvider);
+            } else {
+                merged.add(provider);
+                changed++;
+            }
+        }
+        if (changed == 0 && sameInstances(merged, previous.getAllProviders())) {
+            logger.debug("No changes in authentication providers");
+            return previous;
+        }
+        logger.info("Metadata update changed authentication providers: {} new or modified, {} in total, {} before",
+                changed, merged.size(), previous.getAllProviders().size());
+        return new ApprovedAuthenticationProviders(merged);
+    }
+
+    private static <T> boolean sameInstances(List<T> first, List<T> second) {
+        if (first.size() != second.size()) {
+            return false;
+        }
+        for (int i = 0; i < first.size(); i++) {
+            if (first.get(i) != second.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private <T> T selectSection(String section, boolean usable, Supplier<T> fetched, T previous) {
+        if (usable) {
+            return fetched.get();
+        }
+        logger.warn("Metadata update did not return {}, keeping previous data", section);
+        return previous;
+    }
+
+    private static ExecutorService newMetadataFetchExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("metadata-fetch-");
+        threadFactory.setDaemon(true);
+        return Executors.newFixedThreadPool(METADATA_FETCH_THREADS, threadFactory);
+    }
+
+    private static ScheduledExecutorService newMetadataRefreshExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("metadata-refresh-");
+        threadFactory.setDaemon(true);
+        return Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * All cached metadata sections. Replaced as a whole so that readers never see
+     * sections from different updates mixed halfway through an update.
+     */
+    public static class MetadataSnapshot {
+
+        private final Map<String,ServiceProvider> serviceProviders;
+        private final ApprovedAuthenticationProviders approvedAuthenticationProviders;
+        private final Map<String, Country> countries;
+
+        public MetadataSnapshot(Map<String,ServiceProvider> serviceProviders,
+                                ApprovedAuthenticationProviders approvedAuthenticationProviders,
+                                Map<String, Country> countries) {
+            this.serviceProviders = serviceProviders;
+            this.approvedAuthenticationProviders = approvedAuthenticationProviders;
+            this.countries = countries;
+        }
+
+        public Map<String,ServiceProvider> getServiceProviders() {
+            return serviceProviders;
+        }
+
+        public ApprovedAuthenticationProviders getApprovedAuthenticationProviders() {
+            return approvedAuthenticationProviders;
+        }
+
+        public Map<String, Country> getCountries() {
+            return countries;
+        }
+    }
+
     public static class ApprovedAuthenticationProviders {
 
         private final List<AuthenticationProvider> allProviders;
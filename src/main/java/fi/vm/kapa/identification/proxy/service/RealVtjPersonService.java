@@ -26,36 +26,57 @@ import fi.vm.kapa.identification.proxy.exception.InvalidVtjDataException;
 import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
 import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
 import fi.vm.kapa.identification.proxy.person.VtjPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPersonRecord;
 import fi.vm.kapa.identification.proxy.session.Identity;
 import fi.vm.kapa.identification.proxy.vtj.VtjClient;
-import fi.vm.kapa.identification.vtj.model.Person;
-import fi.vm.kapa.identification.vtj.model.VTJResponse;
 import fi.vm.kapa.identification.vtj.model.VtjIssue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class RealVtjPersonService implements VtjPersonService {
     private static final Logger logger = LoggerFactory.getLogger(RealVtjPersonService.class);
 
-    @Autowired
     VtjClient vtjClient;
 
-    VTJResponse getVtjResponse(Identity identity, VtjIssue vtjIssue) throws VtjServiceException, InvalidVtjDataException {
-        VTJResponse response = vtjClient.fetchVtjData(identity, vtjIssue);
-        if (response == null || response.getPerson() == null) {
+    public RealVtjPersonService(VtjClient vtjClient) {
+        this.vtjClient = vtjClient;
+    }
+
+    VtjPersonRecord getVtjPersonRecord(Identity identity, VtjIssue vtjIssue) throws VtjServiceException, InvalidVtjDataException {
+        VtjPersonRecord person = vtjClient.fetchVtjData(identity, vtjIssue);
+        if (person == null) {
             logger.error("VTJ response null or empty");
             throw new VtjServiceException("VTJ response null or empty");
         } else {
-            return response;
+            return person;
         }
     }
 
     @Override
     public VtjPerson getVtjPerson(IdentifiedPerson identifiedPerson, VtjIssue vtjIssue) throws VtjServiceException, InvalidVtjDataException {
         Identity identity = identifiedPerson.getIdentity();
-        Person person = getVtjResponse(identity, vtjIssue).getPerson();
-        return new VtjPerson(identity, person);
+        return new VtjPerson(identity, getVtjPersonRecord(identity, vtjIssue));
+    }
+
+    /**
+     * Uses the VTJ batch endpoint when one is configured, otherwise queries one person at a time.
+     */
+    @Override
+    public Map<Identity,VtjPerson> getVtjPersons(Collection<IdentifiedPerson> identifiedPersons, VtjIssue vtjIssue) throws VtjServiceException {
+        if (!vtjClient.isBatchEnabled()) {
+            return VtjPersonService.super.getVtjPersons(identifiedPersons, vtjIssue);
+        }
+        List<Identity> identities = new ArrayList<>(identifiedPersons.size());
+        identifiedPersons.forEach(identifiedPerson -> identities.add(identifiedPerson.getIdentity()));
+        Map<Identity,VtjPerson> vtjPersons = new HashMap<>();
+        vtjClient.fetchVtjDataBatch(identities, vtjIssue).forEach((identity, person) -> vtjPersons.put(identity, new VtjPerson(identity, person)));
+        return vtjPersons;
     }
 
 }
@@ -24,12 +24,16 @@ package fi.vm.kapa.identification.proxy.service;
 
 import fi.vm.kapa.identification.dto.ProxyMessageDTO;
 import fi.vm.kapa.identification.dto.SessionAttributeDTO;
+import fi.vm.kapa.identification.proxy.background.VtjPreVerifier;
 import fi.vm.kapa.identification.proxy.exception.*;
 import fi.vm.kapa.identification.proxy.metadata.AuthenticationProvider;
 import fi.vm.kapa.identification.proxy.metadata.Country;
 import fi.vm.kapa.identification.proxy.metadata.ServiceProvider;
 import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
 import fi.vm.kapa.identification.proxy.person.IdentifiedPersonBuilder;
+import fi.vm.kapa.identification.proxy.person.SamlAttribute;
+import fi.vm.kapa.identification.proxy.person.SamlAttributes;
+import fi.vm.kapa.identification.proxy.person.SpSessionData;
 import fi.vm.kapa.identification.proxy.person.VtjPerson;
 import fi.vm.kapa.identification.proxy.session.*;
 import fi.vm.kapa.identification.proxy.utils.SessionHandlingUtils;
@@ -50,6 +54,8 @@ import org.springframework.stereotype.Service;
 import javax.annotation.PostConstruct;
 import javax.inject.Named;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static fi.vm.kapa.identification.proxy.session.VtjVerificationRequirement.*;
 
@@ -93,6 +99,9 @@ public class SessionHandlingService {
     @Autowired
     private TokenCreator tokenCreator;
 
+    @Autowired
+    private VtjPreVerifier vtjPreVerifier;
+
     @Autowired
     public SessionHandlingService(MetadataService metadataService,
                                   VtjPersonService vtjPersonService,
@@ -119,8 +128,10 @@ public class SessionHandlingService {
     @PostConstruct
     public void initSessionHandlingService() {
         try {
-            // This must be done in order to guarantee that Proxy is immediately able to work properly
-            metadataService.updateMetadataCache();
+            // Proxy can work with the persisted snapshot until live metadata is fetched,
+            // without one requests are rejected until the background load succeeds
+            metadataService.loadPersistedMetadata();
+            metadataService.loadMetadataInBackground();
         } catch (Exception e) {
             logger.error("Error initializing session handler", e);
         }
@@ -259,8 +270,10 @@ public class SessionHandlingService {
 
                 Session session = uidToUserSessionsCache.getSessionByKeyAndAuthMethod(tokenId, AuthMethod.INIT);
                 logger.debug("Session with token ID " + tokenId + " exists: " + (session != null ? "YES" : "NO"));
+                // SP data is parsed once for the context URL, the person and the legacy version
+                SpSessionData spData = SpSessionData.of(spSessionData);
                 //Check which authentication context (method) is in use
-                String spProvidedEndIdPAuthContextUrl = sessionHandlingUtils.getSpProvidedEndIdPAuthContextUrl(spSessionData);
+                String spProvidedEndIdPAuthContextUrl = sessionHandlingUtils.getSpProvidedEndIdPAuthContextUrl(spData);
 
                 AuthenticationProvider authenticationProvider = metadataService.getAuthenticationProvider(spProvidedEndIdPAuthContextUrl);
                 AuthMethod authMethod = authenticationProvider.getAuthenticationMethod();
@@ -293,11 +306,11 @@ public class SessionHandlingService {
                     }
                 }
 
-                IdentifiedPerson identifiedPerson = sessionPersonBuilder.build(spSessionData, authMethod);
+                IdentifiedPerson identifiedPerson = sessionPersonBuilder.build(spData, authMethod);
                 if (session != null && identifiedPerson.getIdentity().getIdentifierType() != null) {
 
                     if ( identifiedPerson.getIdentity().getIdentifierType().equals(Identifier.Types.EIDAS_ID) ) {
-                        String countryCode = identifiedPerson.getAttributes().get("samlPersonIdentifier").substring(0, 2);
+                        String countryCode = identifiedPerson.getAttributes().get(SamlAttribute.PERSON_IDENTIFIER).substring(0, 2);
                         if ( !countryCode.equalsIgnoreCase(session.getCountryCode()) ) {
                             throw new Exception("Returned country code '" + countryCode + "' does not match initially selected country code '" + session.getCountryCode() + "'");
                         }
@@ -311,7 +324,7 @@ public class SessionHandlingService {
                     session.setIdentifiedPerson(identifiedPerson);
 
                     if (session.getSessionProfile() == SessionProfile.TUNNISTUSFI_LEGACY) {
-                        session.setLegacyVersion(sessionHandlingUtils.getLegacyVersion(spSessionData));
+                        session.setLegacyVersion(sessionHandlingUtils.getLegacyVersion(spData));
                     }
 
                      /* This uid value is a session reference between Proxy sessions and the IdP session.
@@ -357,6 +370,7 @@ public class SessionHandlingService {
                             if (vtjVerification == MUST_SUCCEED) {
                                 throw e;
                             }
+                            session.setVtjLookupFailed(true);
                         }
                     }
 
@@ -386,6 +400,13 @@ public class SessionHandlingService {
                     message.setErrorType(ErrorType.NO_ERROR);
                     message.setUid(session.getUid());
                     message.setLevelOfAssurance(authMethod.getOidValue());
+
+                    /* VTJ failed but was allowed to, retry in the background so that the
+                     * attribute request doesn't have to
+                     */
+                    if (!session.isVtjVerified() && vtjVerification == MAY_FAIL && vtjPreVerifier != null) {
+                        vtjPreVerifier.submit(session);
+                    }
                 } else {
                     logger.warn("<<" + logTag + ">> Building session failed, identifier type missing - tid: "
                             + tokenId + ", pid: " + phaseId + ", identifierType: " + identifiedPerson.getIdentity().getIdentifierType());
@@ -545,6 +566,7 @@ public class SessionHandlingService {
                             uidToUserSessionsCache.invalidateCachedSessionsByKey(uid);
                         } catch (VtjServiceException e) {
                             logger.warn("VTJ re-query failed to complete. Updating session accordingly");
+                            session.setVtjLookupFailed(true);
                         }
                     }
 
@@ -571,61 +593,77 @@ public class SessionHandlingService {
                 logger.error("Error in session attribute VTJ re-query");
                 return null;
             }
-            /* Add VTJ attributes to session data for use by IdP
+            /* Add VTJ attributes to session data for use by IdP.
+             * The collected attributes of the session are returned as they are, only the
+             * token needs a copy of its own.
              */
-            attributes.getAttributeMap().putAll(sessionAttributeCollector.getAttributes(session));
-
+            SamlAttributes sessionAttributes = sessionAttributeCollector.getAttributes(session);
             if (tokenRequired) {
-                String authenticationToken = getJWT(attributes, requestedAuthMethod, authnRequestId, session);
+                String authenticationToken = getJWT(sessionAttributes, requestedAuthMethod, authnRequestId, session);
                 if ( authenticationToken != null ) {
-                    attributes.getAttributeMap().put("samlAuthenticationToken", authenticationToken);
+                    SamlAttributes tokenAttributes = new SamlAttributes();
+                    tokenAttributes.overlay(sessionAttributes);
+                    tokenAttributes.set(SamlAttribute.AUTHENTICATION_TOKEN, authenticationToken);
+                    sessionAttributes = tokenAttributes.readOnly();
                 }
             }
+            attributes = new SamlAttributeDTO(sessionAttributes);
         }
 
         return attributes;
     }
 
-    private String getJWT(SessionAttributeDTO attributes, AuthMethod authMethod, String authnRequestId, Session session) {
-        String authenticationToken = null;
+    /**
+     * Signs the token on the bounded signing pool of TokenCreator and waits for it, so that
+     * concurrent signing is limited to the pool; when its queue is full the token is signed
+     * on this thread.
+     */
+    private String getJWT(SamlAttributes attributes, AuthMethod authMethod, String authnRequestId, Session session) {
+        CompletableFuture<String> authenticationToken;
         // Generate JWT authentication token
+        if ( eidasMethods.contains(authMethod) ) {
+            authenticationToken = tokenCreator.getEidasAuthenticationTokenAsync(
+                    attributes.get(SamlAttribute.PERSON_IDENTIFIER),
+                    authMethod.getOidValue(),
+                    session.getRelyingPartyEntityId(), // relyingParty.getEntityId()
+                    session.getUid(),
+                    authnRequestId,
+                    new Date() // "issued at" timestamp
+            );
+        }
+        else if ( authMethod.equals(AuthMethod.FFI) ) {
+            authenticationToken = tokenCreator.getForeignPersonAuthenticationTokenAsync(
+                    attributes.get(SamlAttribute.FOREIGN_PERSON_IDENTIFIER),
+                    authMethod.getOidValue(),
+                    session.getRelyingPartyEntityId(), // relyingParty.getEntityId()
+                    session.getUid(),
+                    authnRequestId,
+                    new Date() // "issued at" timestamp
+            );
+        }
+        else {
+            authenticationToken = tokenCreator.getAuthenticationTokenAsync(
+                    attributes.get(SamlAttribute.NATIONAL_IDENTIFICATION_NUMBER),
+                    authMethod.getOidValue(),
+                    session.getRelyingPartyEntityId(), // relyingParty.getEntityId()
+                    session.getUid(),
+                    authnRequestId,
+                    new Date() // "issued at" timestamp
+            );
+        }
         try {
-            if ( eidasMethods.contains(authMethod) ) {
-                authenticationToken = tokenCreator.getEidasAuthenticationToken(
-                        attributes.getAttributeMap().get("samlPersonIdentifier"),
-                        authMethod.getOidValue(),
-                        session.getRelyingPartyEntityId(), // relyingParty.getEntityId()
-                        session.getUid(),
-                        authnRequestId,
-                        new Date() // "issued at" timestamp
-                );
-            }
-            else if ( authMethod.equals(AuthMethod.FFI) ) {
-                authenticationToken = tokenCreator.getForeignPersonAuthenticationToken(
-                        attributes.getAttributeMap().get("samlForeignPersonIdentifier"),
-                        authMethod.getOidValue(),
-                        session.getRelyingPartyEntityId(), // relyingParty.getEntityId()
-                        session.getUid(),
-                        authnRequestId,
-                        new Date() // "issued at" timestamp
-                );
-            }
-            else {
-                authenticationToken = tokenCreator.getAuthenticationToken(
-                        attributes.getAttributeMap().get("samlNationalIdentificationNumber"),
-                        authMethod.getOidValue(),
-                        session.getRelyingPartyEntityId(), // relyingParty.getEntityId()
-                        session.getUid(),
-                        authnRequestId,
-                        new Date() // "issued at" timestamp
-                );
+            String token = authenticationToken.join();
+            logger.debug("JWT: " + token);
+            return token;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TokenCreatorException) {
+                logger.error("Unable to create JWT token: " + e.getCause().getMessage());
+                return null;
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            logger.debug("JWT: " + authenticationToken);
-
-        } catch (TokenCreatorException e) {
-            logger.error("Unable to create JWT token: " + e.getMessage());
+            throw e;
         }
-        return authenticationToken;
     }
 
     AuthMethod resolveAuthMethodFromOid(String authMethodOid) {
@@ -641,15 +679,14 @@ public class SessionHandlingService {
         }
     }
 
-    VtjVerificationRequirement getVtjVerificationRequirement(ServiceProvider relyingParty, Session session, AuthMethod requestedAuthMethod) throws AttributeGenerationException {
+    VtjVerificationRequirement getVtjVerificationRequirement(ServiceProvider relyingParty, Session session, AuthMethod requestedAuthMethod) {
         if ( ArrayUtils.contains(forbiddenVtjMethods, requestedAuthMethod) ) {
             // authmethod forbidden for vtj query
             return FORBIDDEN;
         }
-        Map<String, String> attributes = sessionAttributeCollector.getAttributes(session);
-        String hetu = (String)attributes.get("samlNationalIdentificationNumber");
-        String satu = (String)attributes.get("samlElectronicIdentificationNumber");
-        String cn = (String)attributes.get("samlCn");
+        String hetu = session.nationalId();
+        String satu = session.electronicId();
+        String cn = session.commonName();
         if ( StringUtils.isBlank(hetu) && StringUtils.isBlank(satu) ) {
             // no satu and hetu in data -> no vtj-query
             return FORBIDDEN;
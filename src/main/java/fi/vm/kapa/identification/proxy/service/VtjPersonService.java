@@ -26,10 +26,32 @@ import fi.vm.kapa.identification.proxy.exception.InvalidVtjDataException;
 import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
 import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
 import fi.vm.kapa.identification.proxy.person.VtjPerson;
+import fi.vm.kapa.identification.proxy.session.Identity;
 import fi.vm.kapa.identification.vtj.model.VtjIssue;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 @Service
 public interface VtjPersonService {
     VtjPerson getVtjPerson(IdentifiedPerson identifiedPerson, VtjIssue vtjIssue) throws VtjServiceException, InvalidVtjDataException;
+
+    /**
+     * Fetches the VTJ data of several persons. Persons not found from VTJ are missing
+     * from the result, VtjServiceException fails the whole batch. By default the persons
+     * are queried one at a time.
+     */
+    default Map<Identity,VtjPerson> getVtjPersons(Collection<IdentifiedPerson> identifiedPersons, VtjIssue vtjIssue) throws VtjServiceException {
+        Map<Identity,VtjPerson> vtjPersons = new HashMap<>();
+        for (IdentifiedPerson identifiedPerson : identifiedPersons) {
+            try {
+                vtjPersons.put(identifiedPerson.getIdentity(), getVtjPerson(identifiedPerson, vtjIssue));
+            } catch (InvalidVtjDataException e) {
+                // not found, left out of the result
+            }
+        }
+        return vtjPersons;
+    }
 }
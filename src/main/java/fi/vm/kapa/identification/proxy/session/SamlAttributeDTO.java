@@ -0,0 +1,46 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.session;
+
+import fi.vm.kapa.identification.dto.SessionAttributeDTO;
+import fi.vm.kapa.identification.proxy.person.SamlAttributes;
+
+import java.util.Map;
+
+/**
+ * SessionAttributeDTO backed by the collected attributes of a session, the attributes
+ * are handed out as they are instead of being copied into the map of the DTO.
+ */
+public class SamlAttributeDTO extends SessionAttributeDTO {
+
+    private final SamlAttributes attributes;
+
+    public SamlAttributeDTO(SamlAttributes attributes) {
+        this.attributes = attributes;
+    }
+
+    @Override
+    public Map<String,String> getAttributeMap() {
+        return attributes;
+    }
+}
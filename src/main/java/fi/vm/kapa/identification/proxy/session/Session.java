@@ -24,9 +24,13 @@ package fi.vm.kapa.identification.proxy.session;
 
 import fi.vm.kapa.identification.proxy.metadata.AuthenticationProvider;
 import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
+import fi.vm.kapa.identification.proxy.person.SamlAttributes;
 import fi.vm.kapa.identification.proxy.person.VtjPerson;
 import fi.vm.kapa.identification.type.SessionProfile;
 
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * This class is used to store any session related data. This class is mainly used
  * by Proxy Server but this can be used by other components as well. The raw session
@@ -41,9 +45,13 @@ public class Session {
 
     private boolean validated;
 
-    private boolean vtjDataInvalid;
+    private volatile boolean vtjDataInvalid;
+
+    private volatile boolean vtjVerified;
 
-    private boolean vtjVerified;
+    private volatile long vtjVerifiedTimestamp;
+
+    private volatile boolean vtjLookupFailed;
 
     private boolean vtjVerificationRequired;
 
@@ -58,7 +66,14 @@ public class Session {
     private String countryCode;
 
     private IdentifiedPerson identifiedPerson;
-    private VtjPerson vtjPerson;
+    private volatile VtjPerson vtjPerson;
+
+    /* Attribute view built by SessionAttributeCollector. Every setter of a field the
+     * attributes are built from increments attributeVersion, a view built from an older
+     * version is not used.
+     */
+    private final AtomicInteger attributeVersion = new AtomicInteger();
+    private volatile AttributeView attributeView;
 
     // Setters and getters
 
@@ -91,7 +106,10 @@ public class Session {
     }
 
     public void setVtjDataInvalid(boolean vtjDataInvalid) {
-        this.vtjDataInvalid = vtjDataInvalid;
+        if (this.vtjDataInvalid != vtjDataInvalid) {
+            this.vtjDataInvalid = vtjDataInvalid;
+            attributeVersion.incrementAndGet();
+        }
     }
 
     public boolean isVtjVerified() {
@@ -99,7 +117,28 @@ public class Session {
     }
 
     public void setVtjVerified(boolean vtjVerified) {
-        this.vtjVerified = vtjVerified;
+        if (vtjVerified) {
+            this.vtjVerifiedTimestamp = System.currentTimeMillis();
+        }
+        if (this.vtjVerified != vtjVerified) {
+            this.vtjVerified = vtjVerified;
+            attributeVersion.incrementAndGet();
+        }
+    }
+
+    public long getVtjVerifiedTimestamp() {
+        return vtjVerifiedTimestamp;
+    }
+
+    /**
+     * @return true if a VTJ lookup of this session has failed and the session was accepted without VTJ data
+     */
+    public boolean isVtjLookupFailed() {
+        return vtjLookupFailed;
+    }
+
+    public void setVtjLookupFailed(boolean vtjLookupFailed) {
+        this.vtjLookupFailed = vtjLookupFailed;
     }
 
     public boolean isVtjVerificationRequired() {
@@ -107,7 +146,10 @@ public class Session {
     }
 
     public void setVtjVerificationRequired(boolean vtjVerificationRequired) {
-        this.vtjVerificationRequired = vtjVerificationRequired;
+        if (this.vtjVerificationRequired != vtjVerificationRequired) {
+            this.vtjVerificationRequired = vtjVerificationRequired;
+            attributeVersion.incrementAndGet();
+        }
     }
 
     public long getTimestamp() {
@@ -123,7 +165,10 @@ public class Session {
     }
 
     public void setSessionProfile(SessionProfile sessionProfile) {
-        this.sessionProfile = sessionProfile;
+        if (this.sessionProfile != sessionProfile) {
+            this.sessionProfile = sessionProfile;
+            attributeVersion.incrementAndGet();
+        }
     }
 
     public AuthenticationProvider getSelectedAuthenticationProvider() {
@@ -151,7 +196,10 @@ public class Session {
     }
 
     public void setIdentifiedPerson(IdentifiedPerson identifiedPerson) {
-        this.identifiedPerson = identifiedPerson;
+        if (this.identifiedPerson != identifiedPerson) {
+            this.identifiedPerson = identifiedPerson;
+            attributeVersion.incrementAndGet();
+        }
     }
 
     public IdentifiedPerson getIdentifiedPerson() {
@@ -159,7 +207,10 @@ public class Session {
     }
 
     public void setVtjPerson(VtjPerson vtjPerson) {
-        this.vtjPerson = vtjPerson;
+        if (this.vtjPerson != vtjPerson) {
+            this.vtjPerson = vtjPerson;
+            attributeVersion.incrementAndGet();
+        }
     }
 
     public VtjPerson getVtjPerson() {
@@ -171,6 +222,64 @@ public class Session {
     }
 
     public void setLegacyVersion(String legacyVersion) {
-        this.legacyVersion = legacyVersion;
+        if (!Objects.equals(this.legacyVersion, legacyVersion)) {
+            this.legacyVersion = legacyVersion;
+            attributeVersion.incrementAndGet();
+        }
+    }
+
+    /* Typed views of the merged person attributes: VTJ data, when verified, is used
+     * before the data of the identified person, like in SessionAttributeCollector.
+     */
+
+    public String nationalId() {
+        VtjPerson verified = getVerifiedVtjPerson();
+        String value = verified != null ? verified.nationalId() : null;
+        return value != null || identifiedPerson == null ? value : identifiedPerson.nationalId();
+    }
+
+    public String electronicId() {
+        VtjPerson verified = getVerifiedVtjPerson();
+        String value = verified != null ? verified.electronicId() : null;
+        return value != null || identifiedPerson == null ? value : identifiedPerson.electronicId();
+    }
+
+    public String commonName() {
+        VtjPerson verified = getVerifiedVtjPerson();
+        String value = verified != null ? verified.commonName() : null;
+        return value != null || identifiedPerson == null ? value : identifiedPerson.commonName();
+    }
+
+    private VtjPerson getVerifiedVtjPerson() {
+        return vtjVerified ? vtjPerson : null;
+    }
+
+    /**
+     * @return attributes built for the current state of this session, null if none
+     */
+    SamlAttributes getAttributeView() {
+        AttributeView view = attributeView;
+        return view != null && view.version == attributeVersion.get() ? view.attributes : null;
+    }
+
+    int getAttributeVersion() {
+        return attributeVersion.get();
+    }
+
+    /**
+     * @param version attribute version read before the attributes were built
+     */
+    void setAttributeView(SamlAttributes attributes, int version) {
+        attributeView = new AttributeView(attributes, version);
+    }
+
+    private static class AttributeView {
+        private final SamlAttributes attributes;
+        private final int version;
+
+        AttributeView(SamlAttributes attributes, int version) {
+            this.attributes = attributes;
+            this.version = version;
+        }
     }
 }
@@ -23,14 +23,13 @@
 package fi.vm.kapa.identification.proxy.session;
 
 import fi.vm.kapa.identification.proxy.exception.AttributeGenerationException;
+import fi.vm.kapa.identification.proxy.person.SamlAttribute;
+import fi.vm.kapa.identification.proxy.person.SamlAttributes;
 import fi.vm.kapa.identification.type.SessionProfile;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
-import java.util.Map;
-
 @Component
 public class SessionAttributeCollector {
 
@@ -54,37 +53,40 @@ public class SessionAttributeCollector {
         this.legacyVersionValue = legacyVersionValue;
     }
 
-    public Map<String,String> getAttributes(Session session) throws AttributeGenerationException {
-        Map<String,String> attributes = new HashMap<>();
-        attributes.put(vtjVerifiedKey, Boolean.toString(session.isVtjVerified()));
-        attributes.put(vtjRequiredKey, Boolean.toString(session.isVtjVerificationRequired()));
-        attributes.put(vtjDataInvalidKey, Boolean.toString(session.isVtjDataInvalid()));
-        if (session.getSessionProfile() == SessionProfile.TUNNISTUSFI_LEGACY) {
-            attributes.putAll(getLegacySessionAttributes(session));
-            attributes.putAll(session.getIdentifiedPerson().getLegacyAttributes());
+    /**
+     * @return read only attributes of the session, built once and reused until the
+     * VTJ state, the persons or the legacy data of the session change
+     */
+    public SamlAttributes getAttributes(Session session) throws AttributeGenerationException {
+        SamlAttributes attributes = session.getAttributeView();
+        if (attributes == null) {
+            int version = session.getAttributeVersion();
+            attributes = buildAttributes(session).readOnly();
+            session.setAttributeView(attributes, version);
         }
-
-        attributes.putAll(getMergedPersonAttributes(session));
         return attributes;
     }
 
-    Map<String,String> getMergedPersonAttributes(Session session) throws AttributeGenerationException {
-        Map<String,String> personAttributes = new HashMap<>();
+    private SamlAttributes buildAttributes(Session session) throws AttributeGenerationException {
+        SamlAttributes attributes = new SamlAttributes();
+        attributes.set(vtjVerifiedKey, Boolean.toString(session.isVtjVerified()));
+        attributes.set(vtjRequiredKey, Boolean.toString(session.isVtjVerificationRequired()));
+        attributes.set(vtjDataInvalidKey, Boolean.toString(session.isVtjDataInvalid()));
+        if (session.getSessionProfile() == SessionProfile.TUNNISTUSFI_LEGACY) {
+            attributes.set(legacyVersionKey, legacyVersionValue);
+            if (null != session.getLegacyVersion()) {
+                attributes.set(SamlAttribute.LEGACY_VERSION, session.getLegacyVersion());
+            }
+            attributes.overlay(session.getIdentifiedPerson().getLegacyAttributes());
+        }
+
+        // VTJ data, when verified, overrides the data of the identified person
         if (null != session.getIdentifiedPerson()) {
-            personAttributes.putAll(session.getIdentifiedPerson().getAttributes());
+            attributes.overlay(session.getIdentifiedPerson().getAttributes());
         }
         if (session.isVtjVerified() && null != session.getVtjPerson()) {
-            personAttributes.putAll(session.getVtjPerson().getAttributes());
+            attributes.overlay(session.getVtjPerson().getAttributes());
         }
-        return personAttributes;
-    }
-
-    private Map<String,String> getLegacySessionAttributes(Session session) {
-        Map<String,String> legacyAttributes = new HashMap<>();
-        legacyAttributes.put(legacyVersionKey, legacyVersionValue);
-        if (null != session.getLegacyVersion()) {
-            legacyAttributes.put("legacyVersion", session.getLegacyVersion());
-        }
-        return legacyAttributes;
+        return attributes;
     }
 }
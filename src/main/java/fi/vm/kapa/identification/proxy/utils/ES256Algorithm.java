@@ -0,0 +1,166 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.utils;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.SignatureGenerationException;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * ES256 (ECDSA using P-256 and SHA-256) for authentication tokens. The JCA signature
+ * is DER encoded, JWS (RFC 7518, 3.4) expects the raw R and S values concatenated,
+ * so signatures are transcoded in both directions.
+ */
+public class ES256Algorithm extends Algorithm {
+
+    public static final String NAME = "ES256";
+
+    static final int COORDINATE_LENGTH = 32;
+
+    private static final String JCA_ALGORITHM = "SHA256withECDSA";
+    private static final int DER_SEQUENCE = 0x30;
+    private static final int DER_INTEGER = 0x02;
+
+    private final ECPublicKey publicKey;
+    private final ECPrivateKey privateKey;
+
+    /**
+     * @param publicKey  used for verification, may be null when only signing
+     * @param privateKey used for signing, may be null when only verifying
+     */
+    public ES256Algorithm(ECPublicKey publicKey, ECPrivateKey privateKey) {
+        super(NAME, JCA_ALGORITHM);
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+    }
+
+    @Override
+    public void verify(DecodedJWT jwt) throws SignatureVerificationException {
+        if (publicKey == null) {
+            throw new SignatureVerificationException(this);
+        }
+        try {
+            byte[] content = (jwt.getHeader() + "." + jwt.getPayload()).getBytes(StandardCharsets.UTF_8);
+            byte[] signature = Base64.getUrlDecoder().decode(jwt.getSignature());
+            if (signature.length != 2 * COORDINATE_LENGTH) {
+                throw new SignatureVerificationException(this);
+            }
+            Signature verifier = Signature.getInstance(JCA_ALGORITHM);
+            verifier.initVerify(publicKey);
+            verifier.update(content);
+            if (!verifier.verify(joseToDer(signature))) {
+                throw new SignatureVerificationException(this);
+            }
+        } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException | IllegalArgumentException e) {
+            throw new SignatureVerificationException(this, e);
+        }
+    }
+
+    @Override
+    public byte[] sign(byte[] contentBytes) throws SignatureGenerationException {
+        if (privateKey == null) {
+            throw new SignatureGenerationException(this, new IllegalStateException("No private key"));
+        }
+        try {
+            Signature signer = Signature.getInstance(JCA_ALGORITHM);
+            signer.initSign(privateKey);
+            signer.update(contentBytes);
+            return derToJose(signer.sign());
+        } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
+            throw new SignatureGenerationException(this, e);
+        }
+    }
+
+    static byte[] derToJose(byte[] der) throws SignatureException {
+        if (der.length < 8 || der[0] != DER_SEQUENCE) {
+            throw new SignatureException("Invalid ECDSA signature");
+        }
+        // sequence length is at most 2 + 33 + 2 + 33 for P-256, long form only if larger than 127
+        int offset = (der[1] & 0x80) != 0 ? 2 + (der[1] & 0x7F) : 2;
+        byte[] jose = new byte[2 * COORDINATE_LENGTH];
+        offset = readInteger(der, offset, jose, 0);
+        readInteger(der, offset, jose, COORDINATE_LENGTH);
+        return jose;
+    }
+
+    private static int readInteger(byte[] der, int offset, byte[] jose, int joseOffset) throws SignatureException {
+        if (offset + 2 > der.length || der[offset] != DER_INTEGER) {
+            throw new SignatureException("Invalid ECDSA signature");
+        }
+        int length = der[offset + 1] & 0xFF;
+        int start = offset + 2;
+        int end = start + length;
+        if (end > der.length) {
+            throw new SignatureException("Invalid ECDSA signature");
+        }
+        while (start < end && der[start] == 0) {
+            start++;
+        }
+        int valueLength = end - start;
+        if (valueLength > COORDINATE_LENGTH) {
+            throw new SignatureException("Invalid ECDSA signature");
+        }
+        System.arraycopy(der, start, jose, joseOffset + COORDINATE_LENGTH - valueLength, valueLength);
+        return end;
+    }
+
+    static byte[] joseToDer(byte[] jose) {
+        byte[] r = toDerInteger(Arrays.copyOfRange(jose, 0, COORDINATE_LENGTH));
+        byte[] s = toDerInteger(Arrays.copyOfRange(jose, COORDINATE_LENGTH, 2 * COORDINATE_LENGTH));
+        int sequenceLength = 2 + r.length + 2 + s.length;
+        byte[] der = new byte[2 + sequenceLength];
+        int offset = 0;
+        der[offset++] = DER_SEQUENCE;
+        der[offset++] = (byte) sequenceLength;
+        der[offset++] = DER_INTEGER;
+        der[offset++] = (byte) r.length;
+        System.arraycopy(r, 0, der, offset, r.length);
+        offset += r.length;
+        der[offset++] = DER_INTEGER;
+        der[offset++] = (byte) s.length;
+        System.arraycopy(s, 0, der, offset, s.length);
+        return der;
+    }
+
+    private static byte[] toDerInteger(byte[] value) {
+        int start = 0;
+        while (start < value.length - 1 && value[start] == 0) {
+            start++;
+        }
+        boolean padding = (value[start] & 0x80) != 0;
+        byte[] integer = new byte[value.length - start + (padding ? 1 : 0)];
+        System.arraycopy(value, start, integer, padding ? 1 : 0, value.length - start);
+        return integer;
+    }
+}
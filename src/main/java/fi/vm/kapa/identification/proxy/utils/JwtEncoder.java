@@ -0,0 +1,311 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.utils;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTCreationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes authentication tokens without the java-jwt builder. The header segment and the
+ * claim names are encoded once, per token only the claim values are written into a per
+ * thread buffer that is then Base64URL encoded and signed.
+ * The output is byte for byte what JWT.create() produces for the same claims: the header
+ * is {"alg":..,"kid":..}, payload claims are in the iteration order of the HashMap java-jwt
+ * collects them into, null claims are left out and dates are seconds since the epoch.
+ */
+final class JwtEncoder {
+
+    enum Claim {
+        ISS("iss"), IAT("iat"), EXP("exp"), AUTH_METHOD(TokenCreator.AUTHMETHOD_CLAIM_KEY),
+        PERSON(null), RP(TokenCreator.RP_CLAIM_KEY), SFI_ID(TokenCreator.SFI_ID_CLAIM_KEY),
+        REQ_ID(TokenCreator.REQ_ID_CLAIM_KEY);
+
+        private final String name;
+
+        Claim(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final byte[] BASE64_URL = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private final Algorithm algorithm;
+    private final String personClaimName;
+    // Base64URL encoded header followed by '.'
+    private final byte[] headerSegment;
+    private final byte[] issuerValue;
+    private final Claim[] claimOrder;
+    // '"name":' of each claim, indexed by ordinal
+    private final byte[][] claimPrefixes;
+
+    JwtEncoder(Algorithm algorithm, String issuer, String kid, String personClaimName) {
+        this.algorithm = algorithm;
+        this.personClaimName = personClaimName;
+
+        Buffers buffers = new Buffers();
+        buffers.json.put((byte) '{');
+        writeMember(buffers.json, "alg", algorithm.getName());
+        buffers.json.put((byte) ',');
+        writeMember(buffers.json, TokenCreator.KID_HEADERCLAIM_KEY, kid);
+        buffers.json.put((byte) '}');
+        buffers.content.ensureCapacity(base64Length(buffers.json.length) + 1);
+        int length = base64(buffers.json.bytes, buffers.json.length, buffers.content.bytes, 0);
+        buffers.content.bytes[length] = '.';
+        this.headerSegment = Arrays.copyOf(buffers.content.bytes, length + 1);
+
+        ByteBuffer value = new ByteBuffer(64);
+        writeString(value, issuer);
+        this.issuerValue = Arrays.copyOf(value.bytes, value.length);
+
+        this.claimPrefixes = new byte[Claim.values().length][];
+        Map<String,Claim> claims = new HashMap<>();
+        for (Claim claim : Claim.values()) {
+            String name = claim == Claim.PERSON ? personClaimName : claim.name;
+            claims.put(name, claim);
+            ByteBuffer prefix = new ByteBuffer(16);
+            writeString(prefix, name);
+            prefix.put((byte) ':');
+            claimPrefixes[claim.ordinal()] = Arrays.copyOf(prefix.bytes, prefix.length);
+        }
+        // java-jwt serializes the payload claims from a default sized HashMap
+        this.claimOrder = claims.values().toArray(new Claim[claims.size()]);
+    }
+
+    String getPersonClaimName() {
+        return personClaimName;
+    }
+
+    String encode(String person, String method, String rp, String sfiId, String reqId, long iatSeconds, long expSeconds) throws JWTCreationException {
+        Buffers buffers = BUFFERS.get();
+        ByteBuffer json = buffers.json;
+        json.reset();
+        json.put((byte) '{');
+        boolean first = true;
+        for (Claim claim : claimOrder) {
+            String value;
+            switch (claim) {
+                case AUTH_METHOD:
+                    value = method;
+                    break;
+                case PERSON:
+                    value = person;
+                    break;
+                case RP:
+                    value = rp;
+                    break;
+                case SFI_ID:
+                    value = sfiId;
+                    break;
+                case REQ_ID:
+                    value = reqId;
+                    break;
+                default:
+                    value = "";
+            }
+            if (value == null) {
+                continue;
+            }
+            if (!first) {
+                json.put((byte) ',');
+            }
+            first = false;
+            json.put(claimPrefixes[claim.ordinal()]);
+            if (claim == Claim.ISS) {
+                json.put(issuerValue);
+            } else if (claim == Claim.IAT) {
+                json.putLong(iatSeconds);
+            } else if (claim == Claim.EXP) {
+                json.putLong(expSeconds);
+            } else {
+                writeString(json, value);
+            }
+        }
+        json.put((byte) '}');
+
+        ByteBuffer content = buffers.content;
+        int contentLength = headerSegment.length + base64Length(json.length);
+        content.ensureCapacity(contentLength);
+        System.arraycopy(headerSegment, 0, content.bytes, 0, headerSegment.length);
+        base64(json.bytes, json.length, content.bytes, headerSegment.length);
+
+        byte[] signature = algorithm.sign(Arrays.copyOf(content.bytes, contentLength));
+
+        byte[] token = new byte[contentLength + 1 + base64Length(signature.length)];
+        System.arraycopy(content.bytes, 0, token, 0, contentLength);
+        token[contentLength] = '.';
+        base64(signature, signature.length, token, contentLength + 1);
+        return new String(token, StandardCharsets.US_ASCII);
+    }
+
+    private static void writeMember(ByteBuffer json, String name, String value) {
+        writeString(json, name);
+        json.put((byte) ':');
+        writeString(json, value);
+    }
+
+    /**
+     * Writes a JSON string the way Jackson does: quote, backslash and control
+     * characters are escaped, everything else is written as UTF-8.
+     */
+    static void writeString(ByteBuffer json, String value) {
+        json.put((byte) '"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                json.put((byte) c);
+            } else if (c == '"' || c == '\\') {
+                json.put((byte) '\\');
+                json.put((byte) c);
+            } else if (c < 0x20) {
+                writeControlCharacter(json, c);
+            } else {
+                int codePoint = Character.codePointAt(value, i);
+                i += Character.charCount(codePoint) - 1;
+                writeUtf8(json, codePoint);
+            }
+        }
+        json.put((byte) '"');
+    }
+
+    private static void writeUtf8(ByteBuffer json, int codePoint) {
+        if (codePoint < 0x800) {
+            json.put((byte) (0xC0 | codePoint >> 6));
+        } else if (codePoint < 0x10000) {
+            json.put((byte) (0xE0 | codePoint >> 12));
+            json.put((byte) (0x80 | (codePoint >> 6) & 0x3F));
+        } else {
+            json.put((byte) (0xF0 | codePoint >> 18));
+            json.put((byte) (0x80 | (codePoint >> 12) & 0x3F));
+            json.put((byte) (0x80 | (codePoint >> 6) & 0x3F));
+        }
+        json.put((byte) (0x80 | codePoint & 0x3F));
+    }
+
+    private static void writeControlCharacter(ByteBuffer json, char c) {
+        json.put((byte) '\\');
+        switch (c) {
+            case '\b':
+                json.put((byte) 'b');
+                break;
+            case '\t':
+                json.put((byte) 't');
+                break;
+            case '\n':
+                json.put((byte) 'n');
+                break;
+            case '\f':
+                json.put((byte) 'f');
+                break;
+            case '\r':
+                json.put((byte) 'r');
+                break;
+            default:
+                json.put((byte) 'u');
+                json.put((byte) '0');
+                json.put((byte) '0');
+                json.put(HEX[c >> 4]);
+                json.put(HEX[c & 0xF]);
+        }
+    }
+
+    static int base64Length(int length) {
+        return (length * 4 + 2) / 3;
+    }
+
+    /**
+     * Base64URL encodes without padding.
+     *
+     * @return index in dst after the encoded bytes
+     */
+    static int base64(byte[] src, int length, byte[] dst, int offset) {
+        int d = offset;
+        int s = 0;
+        for (; s + 2 < length; s += 3) {
+            int bits = (src[s] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8 | (src[s + 2] & 0xFF);
+            dst[d++] = BASE64_URL[bits >>> 18];
+            dst[d++] = BASE64_URL[(bits >>> 12) & 0x3F];
+            dst[d++] = BASE64_URL[(bits >>> 6) & 0x3F];
+            dst[d++] = BASE64_URL[bits & 0x3F];
+        }
+        int remaining = length - s;
+        if (remaining == 1) {
+            int bits = (src[s] & 0xFF) << 16;
+            dst[d++] = BASE64_URL[bits >>> 18];
+            dst[d++] = BASE64_URL[(bits >>> 12) & 0x3F];
+        } else if (remaining == 2) {
+            int bits = (src[s] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8;
+            dst[d++] = BASE64_URL[bits >>> 18];
+            dst[d++] = BASE64_URL[(bits >>> 12) & 0x3F];
+            dst[d++] = BASE64_URL[(bits >>> 6) & 0x3F];
+        }
+        return d;
+    }
+
+    static final class ByteBuffer {
+        private byte[] bytes;
+        private int length;
+
+        ByteBuffer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (bytes.length < capacity) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        void put(byte b) {
+            ensureCapacity(length + 1);
+            bytes[length++] = b;
+        }
+
+        void put(byte[] b) {
+            ensureCapacity(length + b.length);
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+        }
+
+        void putLong(long value) {
+            put(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private static final class Buffers {
+        private final ByteBuffer json = new ByteBuffer(512);
+        private final ByteBuffer content = new ByteBuffer(1024);
+    }
+}
@@ -23,6 +23,7 @@
 package fi.vm.kapa.identification.proxy.utils;
 
 import fi.vm.kapa.identification.proxy.exception.AuthContextUrlMissingException;
+import fi.vm.kapa.identification.proxy.person.SpSessionData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -36,11 +37,12 @@ public class SessionHandlingUtils {
     private static final Logger logger = LoggerFactory.getLogger(SessionHandlingUtils.class);
 
     public String getSpProvidedEndIdPAuthContextUrl(Map<String,String> spSessionData) throws AuthContextUrlMissingException {
+        SpSessionData spData = SpSessionData.of(spSessionData);
         String spProvidedEndIdPAuthContextUrl;
-        if (spSessionData.get("AJP_Shib-AuthnContext-Class") != null) {
-            spProvidedEndIdPAuthContextUrl = spSessionData.get("AJP_Shib-AuthnContext-Class");
-        } else if (spSessionData.get("AJP_Shib-AuthnContext-Decl") != null) {
-            spProvidedEndIdPAuthContextUrl = spSessionData.get("AJP_Shib-AuthnContext-Decl");
+        if (spData.get(SpSessionData.Key.AUTHN_CONTEXT_CLASS) != null) {
+            spProvidedEndIdPAuthContextUrl = spData.get(SpSessionData.Key.AUTHN_CONTEXT_CLASS);
+        } else if (spData.get(SpSessionData.Key.AUTHN_CONTEXT_DECL) != null) {
+            spProvidedEndIdPAuthContextUrl = spData.get(SpSessionData.Key.AUTHN_CONTEXT_DECL);
         } else {
             logger.error("Error building new session: used authentication method does not exist ");
             throw new AuthContextUrlMissingException("Error building new session: used authentication method does not exist ");
@@ -49,7 +51,7 @@ public class SessionHandlingUtils {
     }
 
     public String getLegacyVersion(Map<String,String> spSessionData) {
-        return spSessionData.get("AJP_tfiVersion");
+        return SpSessionData.of(spSessionData).get(SpSessionData.Key.LEGACY_VERSION);
     }
 
 }
@@ -0,0 +1,150 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers signed tokens by their claims, iat excluded, so that repeated attribute
+ * requests for the same authentication get the token already signed as long as it was
+ * issued less than maxAgeMillis earlier.
+ */
+final class TokenCache {
+
+    private final long maxAgeMillis;
+    private final int maxSize;
+
+    // access ordered, the least recently used entry is evicted when maxSize is exceeded
+    private final LinkedHashMap<Key,CacheEntry> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    TokenCache(long maxAgeMillis, int maxSize) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<Key,CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key,CacheEntry> eldest) {
+                return size() > TokenCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the token signed for the key less than maxAgeMillis before iatMillis, null if none
+     */
+    String get(Key key, long iatMillis) {
+        synchronized (cache) {
+            CacheEntry entry = cache.get(key);
+            if (entry != null) {
+                long age = iatMillis - entry.iatMillis;
+                if (age >= 0 && age < maxAgeMillis) {
+                    hits.incrementAndGet();
+                    return entry.token;
+                }
+                if (age >= maxAgeMillis) {
+                    cache.remove(key);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    void put(Key key, long iatMillis, String token) {
+        synchronized (cache) {
+            CacheEntry entry = cache.get(key);
+            if (entry == null || entry.iatMillis < iatMillis) {
+                cache.put(key, new CacheEntry(token, iatMillis));
+            }
+        }
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    int getSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    static final class Key {
+        private final String personClaim;
+        private final String person;
+        private final String method;
+        private final String rp;
+        private final String sfiId;
+        private final String reqId;
+
+        Key(String personClaim, String person, String method, String rp, String sfiId, String reqId) {
+            this.personClaim = personClaim;
+            this.person = person;
+            this.method = method;
+            this.rp = rp;
+            this.sfiId = sfiId;
+            this.reqId = reqId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(personClaim, key.personClaim)
+                    && Objects.equals(person, key.person)
+                    && Objects.equals(method, key.method)
+                    && Objects.equals(rp, key.rp)
+                    && Objects.equals(sfiId, key.sfiId)
+                    && Objects.equals(reqId, key.reqId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(personClaim, person, method, rp, sfiId, reqId);
+        }
+    }
+
+    private static class CacheEntry {
+        private final String token;
+        private final long iatMillis;
+
+        CacheEntry(String token, long iatMillis) {
+            this.token = token;
+            this.iatMillis = iatMillis;
+        }
+    }
+}
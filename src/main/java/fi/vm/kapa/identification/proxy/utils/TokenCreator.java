@@ -22,15 +22,34 @@
  */
 package fi.vm.kapa.identification.proxy.utils;
 
-import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTCreationException;
 import fi.vm.kapa.identification.proxy.exception.TokenCreatorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
-import java.util.*;
+import javax.annotation.PreDestroy;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Creates the signed authentication tokens. The asynchronous variants sign on a pool sized
+ * to the processor count so signing bursts don't occupy request threads; when the pool's
+ * queue is full the token is signed on the calling thread, which slows down the callers
+ * instead of letting the queue grow.
+ * Tokens can be reused: a token with the same claims issued less than reuseMaxAgeFraction
+ * of the expiration time earlier is returned instead of signing a new one.
+ */
+@ManagedResource(objectName = "fi.vm.kapa.identification.proxy:name=TokenSigning",
+        description = "Authentication token signing")
 public class TokenCreator {
 
     public static final String KID_HEADERCLAIM_KEY = "kid";
@@ -44,83 +63,192 @@ public class TokenCreator {
 
     private static final Logger logger = LoggerFactory.getLogger(TokenCreator.class);
 
-    private final Algorithm algorithm;
-    private final String issuer;
-    private final Map<String, Object> headers;
+    static final int DEFAULT_QUEUE_CAPACITY = 200;
+
+    private final JwtEncoder hetuEncoder;
+    private final JwtEncoder pidEncoder;
+    private final JwtEncoder foreignPidEncoder;
     private final int expirationTime;
 
+    private final ThreadPoolExecutor signingExecutor;
+    // null when token reuse is disabled
+    private final TokenCache tokenCache;
+
+    private final AtomicLong signedTokens = new AtomicLong();
+    private final AtomicLong signingNanos = new AtomicLong();
+    private final AtomicLong maxSigningNanos = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+
     public TokenCreator(Algorithm algorithm, final String issuer, String tokenHeaderKid, int expirationTime) {
-        this.algorithm = algorithm;
-        this.issuer = issuer;
-        Map<String, Object> original = new HashMap<>();
-        original.put(KID_HEADERCLAIM_KEY, tokenHeaderKid);
-        headers = Collections.unmodifiableMap(original);
+        this(algorithm, issuer, tokenHeaderKid, expirationTime, 0, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public TokenCreator(Algorithm algorithm, final String issuer, String tokenHeaderKid, int expirationTime,
+                        int signingThreads, int signingQueueCapacity) {
+        this(algorithm, issuer, tokenHeaderKid, expirationTime, signingThreads, signingQueueCapacity, 0, 0);
+    }
+
+    /**
+     * @param signingThreads       size of the signing pool, processor count if not positive
+     * @param signingQueueCapacity tokens waiting for a signing thread before callers sign themselves
+     * @param reuseMaxSize         signed tokens remembered for reuse, 0 disables reuse
+     * @param reuseMaxAgeFraction  share of the expiration time a token is reused for
+     */
+    public TokenCreator(Algorithm algorithm, final String issuer, String tokenHeaderKid, int expirationTime,
+                        int signingThreads, int signingQueueCapacity, int reuseMaxSize, double reuseMaxAgeFraction) {
+        this.hetuEncoder = new JwtEncoder(algorithm, issuer, tokenHeaderKid, HETU_CLAIM_KEY);
+        this.pidEncoder = new JwtEncoder(algorithm, issuer, tokenHeaderKid, PID_CLAIM_KEY);
+        this.foreignPidEncoder = new JwtEncoder(algorithm, issuer, tokenHeaderKid, FOREIGN_PID_CLAIM_KEY);
         this.expirationTime = expirationTime;
+
+        int threads = signingThreads > 0 ? signingThreads : Runtime.getRuntime().availableProcessors();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("token-signing-");
+        threadFactory.setDaemon(true);
+        // CallerRunsPolicy would drop the task after shutdown and leave its future incomplete
+        this.signingExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(signingQueueCapacity), threadFactory, (task, executor) -> {
+                    callerRuns.incrementAndGet();
+                    task.run();
+                });
+        long reuseMaxAgeMillis = (long) (expirationTime * 60000L * reuseMaxAgeFraction);
+        this.tokenCache = reuseMaxSize > 0 && reuseMaxAgeMillis > 0 ? new TokenCache(reuseMaxAgeMillis, reuseMaxSize) : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        signingExecutor.shutdownNow();
     }
 
     public String getAuthenticationToken(String hetu, String method, String rp, String sfi_id, String req_id, Date iat) throws TokenCreatorException {
+        return createToken(hetuEncoder, hetu, method, rp, sfi_id, req_id, iat);
+    }
 
-        try {
-            return  JWT.create()
-                    .withIssuer(issuer)
-                    .withHeader(headers)
-                    .withIssuedAt(iat)
-                    .withExpiresAt(getExpiresAt(iat))
-                    .withClaim(AUTHMETHOD_CLAIM_KEY, method)
-                    .withClaim(HETU_CLAIM_KEY, hetu)
-                    .withClaim(RP_CLAIM_KEY, rp)
-                    .withClaim(SFI_ID_CLAIM_KEY, sfi_id)
-                    .withClaim(REQ_ID_CLAIM_KEY, req_id)
-                    .sign(algorithm);
-        } catch (JWTCreationException e) {
-            logger.error("Unable to create JWT: " + e.getMessage());
-            throw new TokenCreatorException("JWT creation failed: " + e.getMessage());
+    public String getEidasAuthenticationToken(String pid, String method, String rp, String sfi_id, String req_id, Date iat) throws TokenCreatorException {
+        return createToken(pidEncoder, pid, method, rp, sfi_id, req_id, iat);
+    }
+
+    public String getForeignPersonAuthenticationToken(String fpid, String method, String rp, String sfi_id, String req_id, Date iat) throws TokenCreatorException {
+        return createToken(foreignPidEncoder, fpid, method, rp, sfi_id, req_id, iat);
+    }
+
+    /**
+     * Signs the token on the signing pool. The future fails with a CompletionException
+     * wrapping TokenCreatorException if the token can't be created.
+     */
+    public CompletableFuture<String> getAuthenticationTokenAsync(String hetu, String method, String rp, String sfi_id, String req_id, Date iat) {
+        return createTokenAsync(hetuEncoder, hetu, method, rp, sfi_id, req_id, iat);
+    }
+
+    public CompletableFuture<String> getEidasAuthenticationTokenAsync(String pid, String method, String rp, String sfi_id, String req_id, Date iat) {
+        return createTokenAsync(pidEncoder, pid, method, rp, sfi_id, req_id, iat);
+    }
+
+    public CompletableFuture<String> getForeignPersonAuthenticationTokenAsync(String fpid, String method, String rp, String sfi_id, String req_id, Date iat) {
+        return createTokenAsync(foreignPidEncoder, fpid, method, rp, sfi_id, req_id, iat);
+    }
+
+    private CompletableFuture<String> createTokenAsync(JwtEncoder encoder, String person, String method, String rp, String sfi_id, String req_id, Date iat) {
+        TokenCache.Key key = getCacheKey(encoder, person, method, rp, sfi_id, req_id);
+        String cached = key != null ? tokenCache.get(key, iat.getTime()) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
         }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return signToken(encoder, key, person, method, rp, sfi_id, req_id, iat);
+            } catch (TokenCreatorException e) {
+                throw new CompletionException(e);
+            }
+        }, signingExecutor);
     }
 
-    public String getEidasAuthenticationToken(String pid, String method, String rp, String sfi_id, String req_id, Date iat) throws TokenCreatorException {
-        try {
-            return  JWT.create()
-                    .withIssuer(issuer)
-                    .withHeader(headers)
-                    .withIssuedAt(iat)
-                    .withExpiresAt(getExpiresAt(iat))
-                    .withClaim(AUTHMETHOD_CLAIM_KEY, method)
-                    .withClaim(PID_CLAIM_KEY, pid)
-                    .withClaim(RP_CLAIM_KEY, rp)
-                    .withClaim(SFI_ID_CLAIM_KEY, sfi_id)
-                    .withClaim(REQ_ID_CLAIM_KEY, req_id)
-                    .sign(algorithm);
-        } catch (JWTCreationException e) {
-            logger.error("Unable to create JWT: " + e.getMessage());
-            throw new TokenCreatorException("JWT creation failed: " + e.getMessage());
+    private String createToken(JwtEncoder encoder, String person, String method, String rp, String sfi_id, String req_id, Date iat) throws TokenCreatorException {
+        TokenCache.Key key = getCacheKey(encoder, person, method, rp, sfi_id, req_id);
+        String cached = key != null ? tokenCache.get(key, iat.getTime()) : null;
+        if (cached != null) {
+            return cached;
         }
+        return signToken(encoder, key, person, method, rp, sfi_id, req_id, iat);
     }
 
-    public String getForeignPersonAuthenticationToken(String fpid, String method, String rp, String sfi_id, String req_id, Date iat) throws TokenCreatorException {
+    private TokenCache.Key getCacheKey(JwtEncoder encoder, String person, String method, String rp, String sfi_id, String req_id) {
+        return tokenCache != null ? new TokenCache.Key(encoder.getPersonClaimName(), person, method, rp, sfi_id, req_id) : null;
+    }
+
+    private String signToken(JwtEncoder encoder, TokenCache.Key key, String person, String method, String rp, String sfi_id, String req_id, Date iat) throws TokenCreatorException {
+        long start = System.nanoTime();
         try {
-            return  JWT.create()
-                    .withIssuer(issuer)
-                    .withHeader(headers)
-                    .withIssuedAt(iat)
-                    .withExpiresAt(getExpiresAt(iat))
-                    .withClaim(AUTHMETHOD_CLAIM_KEY, method)
-                    .withClaim(FOREIGN_PID_CLAIM_KEY, fpid)
-                    .withClaim(RP_CLAIM_KEY, rp)
-                    .withClaim(SFI_ID_CLAIM_KEY, sfi_id)
-                    .withClaim(REQ_ID_CLAIM_KEY, req_id)
-                    .sign(algorithm);
+            long issuedAt = iat.getTime();
+            String token = encoder.encode(person, method, rp, sfi_id, req_id, issuedAt / 1000, getExpiresAt(issuedAt) / 1000);
+            if (key != null) {
+                tokenCache.put(key, issuedAt, token);
+            }
+            return token;
         } catch (JWTCreationException e) {
             logger.error("Unable to create JWT: " + e.getMessage());
             throw new TokenCreatorException("JWT creation failed: " + e.getMessage());
+        } finally {
+            recordSigningTime(System.nanoTime() - start);
         }
     }
 
-    private Date getExpiresAt(Date iat) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(iat);
-        cal.add(Calendar.MINUTE, expirationTime);
-        return cal.getTime();
+    private void recordSigningTime(long nanos) {
+        signedTokens.incrementAndGet();
+        signingNanos.addAndGet(nanos);
+        long max = maxSigningNanos.get();
+        while (nanos > max && !maxSigningNanos.compareAndSet(max, nanos)) {
+            max = maxSigningNanos.get();
+        }
+    }
+
+    @ManagedAttribute(description = "Tokens waiting for a signing thread")
+    public int getSigningQueueDepth() {
+        return signingExecutor.getQueue().size();
+    }
+
+    @ManagedAttribute(description = "Signing threads busy")
+    public int getActiveSigningThreads() {
+        return signingExecutor.getActiveCount();
+    }
+
+    @ManagedAttribute(description = "Tokens signed")
+    public long getSignedTokens() {
+        return signedTokens.get();
+    }
+
+    @ManagedAttribute(description = "Average token signing time in microseconds")
+    public long getAverageSigningMicros() {
+        long count = signedTokens.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(signingNanos.get() / count);
+    }
+
+    @ManagedAttribute(description = "Longest token signing time in microseconds")
+    public long getMaxSigningMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxSigningNanos.get());
+    }
+
+    @ManagedAttribute(description = "Tokens signed on the calling thread because the signing queue was full")
+    public long getCallerRuns() {
+        return callerRuns.get();
+    }
+
+    @ManagedAttribute(description = "Requests answered with an already signed token")
+    public long getReuseHits() {
+        return tokenCache != null ? tokenCache.getHits() : 0;
+    }
+
+    @ManagedAttribute(description = "Requests that needed a new token while reuse is enabled")
+    public long getReuseMisses() {
+        return tokenCache != null ? tokenCache.getMisses() : 0;
+    }
+
+    @ManagedAttribute(description = "Signed tokens remembered for reuse")
+    public int getReuseCacheSize() {
+        return tokenCache != null ? tokenCache.getSize() : 0;
+    }
+
+    private long getExpiresAt(long iat) {
+        return iat + expirationTime * 60000L;
     }
 
     int getExpirationTime() {
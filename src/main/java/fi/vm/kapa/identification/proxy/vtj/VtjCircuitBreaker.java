@@ -0,0 +1,185 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.vtj;
+
+import fi.vm.kapa.identification.proxy.exception.VtjCallNotPermittedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker and concurrency limit for VTJ requests. After failureThreshold consecutive
+ * failures the circuit opens and VTJ requests fail immediately. After openMillis one probe
+ * request is let through (half open), its outcome closes or reopens the circuit.
+ * Every permitted request must be followed by exactly one onSuccess() or onFailure() call.
+ */
+@Component
+@ManagedResource(objectName = "fi.vm.kapa.identification.proxy:name=VtjCircuitBreaker",
+        description = "VTJ circuit breaker")
+public class VtjCircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(VtjCircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final int maxConcurrentRequests;
+
+    private final Semaphore bulkhead;
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong halfOpenedCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong bulkheadRejectedCount = new AtomicLong();
+
+    @Autowired
+    public VtjCircuitBreaker(@Value("${vtj.circuit.failure.threshold}") int failureThreshold,
+                             @Value("${vtj.circuit.open.millis}") long openMillis,
+                             @Value("${vtj.bulkhead.max.concurrent}") int maxConcurrentRequests) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.bulkhead = new Semaphore(maxConcurrentRequests);
+    }
+
+    /**
+     * @return a circuit of its own with the same failure limits, for requests whose failures
+     * must not open this circuit
+     */
+    public VtjCircuitBreaker newSeparateCircuit(int maxConcurrentRequests) {
+        return new VtjCircuitBreaker(failureThreshold, openMillis, maxConcurrentRequests);
+    }
+
+    public void acquirePermission() throws VtjCallNotPermittedException {
+        if (!bulkhead.tryAcquire()) {
+            bulkheadRejectedCount.incrementAndGet();
+            throw new VtjCallNotPermittedException("Too many concurrent VTJ requests");
+        }
+        synchronized (this) {
+            if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+                transitionTo(State.HALF_OPEN);
+            }
+            if (state == State.OPEN || (state == State.HALF_OPEN && probeInFlight)) {
+                bulkhead.release();
+                rejectedCount.incrementAndGet();
+                throw new VtjCallNotPermittedException("VTJ circuit breaker is open");
+            }
+            if (state == State.HALF_OPEN) {
+                probeInFlight = true;
+            }
+        }
+    }
+
+    public void onSuccess() {
+        bulkhead.release();
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                consecutiveFailures = 0;
+            } else if (state == State.HALF_OPEN && probeInFlight) {
+                // only the probe closes the circuit, not a slow request let through before it opened
+                consecutiveFailures = 0;
+                probeInFlight = false;
+                transitionTo(State.CLOSED);
+            }
+        }
+    }
+
+    public void onFailure() {
+        bulkhead.release();
+        synchronized (this) {
+            probeInFlight = false;
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                openedAt = System.currentTimeMillis();
+                transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    private void transitionTo(State newState) {
+        logger.warn("VTJ circuit breaker state changes from {} to {}", state, newState);
+        state = newState;
+        switch (newState) {
+            case OPEN:
+                openedCount.incrementAndGet();
+                break;
+            case HALF_OPEN:
+                halfOpenedCount.incrementAndGet();
+                break;
+            case CLOSED:
+                closedCount.incrementAndGet();
+                break;
+        }
+    }
+
+    @ManagedAttribute(description = "Current state")
+    public synchronized String getState() {
+        return state.name();
+    }
+
+    @ManagedAttribute(description = "Transitions to open state")
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    @ManagedAttribute(description = "Transitions to half open state")
+    public long getHalfOpenedCount() {
+        return halfOpenedCount.get();
+    }
+
+    @ManagedAttribute(description = "Transitions back to closed state")
+    public long getClosedCount() {
+        return closedCount.get();
+    }
+
+    @ManagedAttribute(description = "Requests rejected while the circuit was open")
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @ManagedAttribute(description = "Requests rejected because of too many concurrent requests")
+    public long getBulkheadRejectedCount() {
+        return bulkheadRejectedCount.get();
+    }
+
+    @ManagedAttribute(description = "VTJ requests currently in progress")
+    public int getRequestsInProgress() {
+        return maxConcurrentRequests - bulkhead.availablePermits();
+    }
+}
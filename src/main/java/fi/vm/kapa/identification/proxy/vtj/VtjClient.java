@@ -24,9 +24,14 @@ package fi.vm.kapa.identification.proxy.vtj;
 
 import fi.vm.kapa.identification.proxy.exception.InvalidVtjDataException;
 import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
+import fi.vm.kapa.identification.proxy.person.VtjPersonRecord;
 import fi.vm.kapa.identification.proxy.session.Identity;
-import fi.vm.kapa.identification.vtj.model.VTJResponse;
+import fi.vm.kapa.identification.proxy.utils.RequestDeadline;
 import fi.vm.kapa.identification.vtj.model.VtjIssue;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.lang.StringUtils;
+import org.glassfish.jersey.client.ClientProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,11 +39,23 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.ws.rs.client.*;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 @Component
@@ -47,56 +64,351 @@ public class VtjClient {
     @Value("${vtj.client.url}")
     private String vtjClientEndpoint;
 
+    // batch requests are disabled when empty
+    @Value("${vtj.client.batch.url}")
+    private String vtjClientBatchEndpoint;
+
+    @Value("${vtj.client.read.timeout.millis}")
+    private int readTimeoutMillis;
+
     @Autowired
     private Client client;
 
+    @Autowired
+    private VtjCircuitBreaker vtjCircuitBreaker;
+
+    @Autowired
+    private VtjHedgingPolicy vtjHedgingPolicy;
+
+    // batch requests have a circuit and concurrency limit of their own so that a broken
+    // batch endpoint doesn't make interactive VTJ lookups fail fast
+    private VtjCircuitBreaker vtjBatchCircuitBreaker;
+
+    // revalidation sends one batch at a time
+    private static final int MAX_CONCURRENT_BATCH_REQUESTS = 2;
+
+    // appended to the request identifier of a duplicate request
+    static final String HEDGE_SUFFIX = "-hedge";
+
     private static final Logger logger = LoggerFactory.getLogger(VtjClient.class);
 
-    public VTJResponse fetchVtjData(Identity identity, VtjIssue vtjIssue) throws VtjServiceException, InvalidVtjDataException {
-        VTJResponse vtjResponse = getVtjResponseForUser(identity, vtjIssue);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final VtjResponseParser vtjResponseParser = new VtjResponseParser();
+
+    public VtjPersonRecord fetchVtjData(Identity identity, VtjIssue vtjIssue) throws VtjServiceException, InvalidVtjDataException {
+        if (vtjHedgingPolicy != null && vtjHedgingPolicy.isEnabled()) {
+            return fetchVtjDataHedged(identity, vtjIssue);
+        }
+        checkRequestDeadline();
+        vtjCircuitBreaker.acquirePermission();
+        VtjPersonRecord vtjResponse;
+        long start = System.currentTimeMillis();
+        try {
+            vtjResponse = getVtjResponseForUser(identity, vtjIssue);
+            vtjCircuitBreaker.onSuccess();
+            recordLatency(start);
+        } catch (InvalidVtjDataException e) {
+            // person not found is a valid answer from a working VTJ
+            vtjCircuitBreaker.onSuccess();
+            recordLatency(start);
+            throw e;
+        } catch (VtjServiceException | RuntimeException e) {
+            vtjCircuitBreaker.onFailure();
+            throw e;
+        }
         if (vtjResponse == null) {
             logger.debug("VTJ returned no data for user " + identity.getIdentifier());
         }
         return vtjResponse;
     }
 
-    VTJResponse getVtjResponseForUser(Identity identity, VtjIssue vtjIssue) throws VtjServiceException, InvalidVtjDataException {
-        try (Response response = getVtjHttpResponse(identity, vtjIssue)) {
-            if (Status.NOT_FOUND.getStatusCode() == response.getStatus()) {
-                throw new InvalidVtjDataException("Person not found in VTJ");
+    /**
+     * Sends the VTJ request and, if enabled and no answer has arrived within the hedge delay,
+     * a duplicate of it with its own request identifier. The first answer is used. The whole
+     * lookup is limited by the configured deadline and the deadline of the incoming request.
+     */
+    VtjPersonRecord fetchVtjDataHedged(Identity identity, VtjIssue vtjIssue) throws VtjServiceException, InvalidVtjDataException {
+        long deadline = System.currentTimeMillis() + Math.min(vtjHedgingPolicy.getDeadlineMillis(), RequestDeadline.remainingMillis());
+        String requestIdentifier = vtjIssue.toString();
+        vtjHedgingPolicy.onRequest();
+        CompletableFuture<VtjPersonRecord> primary = fetchVtjDataAsync(identity, requestIdentifier);
+        CompletableFuture<VtjPersonRecord> result = primary;
+        try {
+            long hedgeDelay = vtjHedgingPolicy.getHedgeDelayMillis();
+            if (hedgeDelay >= 0 && hedgeDelay < remainingMillis(deadline)) {
+                try {
+                    return primary.get(hedgeDelay, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (vtjHedgingPolicy.tryAcquireHedge()) {
+                        logger.debug("No VTJ answer in {} ms, sending duplicate request", hedgeDelay);
+                        CompletableFuture<VtjPersonRecord> hedge = fetchVtjDataAsync(identity, requestIdentifier + HEDGE_SUFFIX);
+                        result = firstAnswer(primary, hedge);
+                    }
+                }
             }
+            return result.get(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.error("VTJ request deadline exceeded");
+            throw new VtjServiceException("VTJ request deadline exceeded", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VtjServiceException("Interrupted while waiting for VTJ", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InvalidVtjDataException) {
+                throw (InvalidVtjDataException) cause;
+            } else if (cause instanceof VtjServiceException) {
+                throw (VtjServiceException) cause;
+            }
+            throw new VtjServiceException("VTJ request failed", cause);
+        }
+    }
 
-            if (response.getStatus() == HttpStatus.OK.value()) {
-                return response.readEntity(VTJResponse.class);
+    /**
+     * Completes with the first answer of the two requests. A VTJ service failure of one
+     * request is only reported if the other one fails as well, person not found is an answer.
+     */
+    private CompletableFuture<VtjPersonRecord> firstAnswer(CompletableFuture<VtjPersonRecord> primary, CompletableFuture<VtjPersonRecord> hedge) {
+        CompletableFuture<VtjPersonRecord> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        primary.whenComplete((vtjResponse, failure) -> completeWithAnswer(result, vtjResponse, failure, failures));
+        hedge.whenComplete((vtjResponse, failure) -> {
+            if (completeWithAnswer(result, vtjResponse, failure, failures)) {
+                vtjHedgingPolicy.onHedgeWon();
+            }
+        });
+        return result;
+    }
+
+    private boolean completeWithAnswer(CompletableFuture<VtjPersonRecord> result, VtjPersonRecord vtjResponse, Throwable failure, AtomicInteger failures) {
+        if (failure == null) {
+            return result.complete(vtjResponse);
+        } else if (failure instanceof InvalidVtjDataException || failures.incrementAndGet() == 2) {
+            return result.completeExceptionally(failure);
+        }
+        return false;
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    CompletableFuture<VtjPersonRecord> fetchVtjDataAsync(Identity identity, String requestIdentifier) {
+        CompletableFuture<VtjPersonRecord> result = new CompletableFuture<>();
+        try {
+            checkRequestDeadline();
+            vtjCircuitBreaker.acquirePermission();
+        } catch (VtjServiceException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        long start = System.currentTimeMillis();
+        result.whenComplete((vtjResponse, failure) -> {
+            if (failure == null || failure instanceof InvalidVtjDataException) {
+                vtjCircuitBreaker.onSuccess();
+                recordLatency(start);
             } else {
-                logger.error("Vtj connection error: " + response.getStatus());
-                throw new VtjServiceException("Vtj connection error: " + response.getStatus());
+                vtjCircuitBreaker.onFailure();
             }
+        });
+        try {
+            buildVtjRequest(requestIdentifier).async().post(buildVtjRequestEntity(identity), new InvocationCallback<Response>() {
+                @Override
+                public void completed(Response response) {
+                    try (Response vtjResponse = response) {
+                        if (!isRequestIdentifierEchoed(vtjResponse, requestIdentifier)) {
+                            logger.error("Vtj responded wrong vtjIssue");
+                            throw new VtjServiceException("Vtj responded wrong vtjIssue");
+                        }
+                        result.complete(readVtjResponse(vtjResponse));
+                    } catch (Exception e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable throwable) {
+                    logger.error("Vtj connection not established. Service request failed.");
+                    result.completeExceptionally(new VtjServiceException("Vtj connection not established. Service request failed.", throwable));
+                }
+            });
+        } catch (Exception e) {
+            logger.error("Vtj connection not established. Service request failed.");
+            result.completeExceptionally(new VtjServiceException("Vtj connection not established. Service request failed.", e));
         }
+        return result;
     }
 
-    Response getVtjHttpResponse(Identity identity, VtjIssue vtjIssue) throws VtjServiceException {
+    @PostConstruct
+    void initBatchCircuitBreaker() {
+        vtjBatchCircuitBreaker = vtjCircuitBreaker.newSeparateCircuit(MAX_CONCURRENT_BATCH_REQUESTS);
+    }
+
+    public boolean isBatchEnabled() {
+        return StringUtils.isNotBlank(vtjClientBatchEndpoint);
+    }
+
+    /**
+     * Fetches several persons with one request to the VTJ batch endpoint.
+     * The batch endpoint answers with one entry per requested identity, a null entry
+     * means VTJ has no such person, the same answer the single person endpoint gives
+     * with 404. The single person endpoint has no null answer, there an empty body is a
+     * service failure. Any failure of the batch request itself, including 404 for the
+     * endpoint, fails the whole batch with VtjServiceException and says nothing about
+     * the persons.
+     *
+     * @return persons found from VTJ by identity, identities VTJ doesn't know are missing
+     */
+    public Map<Identity,VtjPersonRecord> fetchVtjDataBatch(List<Identity> identities, VtjIssue vtjIssue) throws VtjServiceException {
+        vtjBatchCircuitBreaker.acquirePermission();
+        try {
+            Map<Identity,VtjPersonRecord> persons = getVtjBatchResponse(identities, vtjIssue);
+            vtjBatchCircuitBreaker.onSuccess();
+            return persons;
+        } catch (VtjServiceException | RuntimeException e) {
+            vtjBatchCircuitBreaker.onFailure();
+            throw e;
+        }
+    }
+
+    private Map<Identity,VtjPersonRecord> getVtjBatchResponse(List<Identity> identities, VtjIssue vtjIssue) throws VtjServiceException {
+        String requestIdentifier = vtjIssue.toString();
+        Invocation.Builder invocationBuilder = client.target(vtjClientBatchEndpoint).request(MediaType.APPLICATION_JSON);
+        invocationBuilder.header(VtjIssue.REQUEST_IDENTIFIER_HEADER, requestIdentifier);
         Response response;
         try {
-            WebTarget webTarget = client.target(vtjClientEndpoint);
+            response = invocationBuilder.post(Entity.entity(buildVtjBatchRequestBody(identities), MediaType.APPLICATION_JSON));
+        } catch (Exception e) {
+            logger.error("Vtj connection not established. Batch request failed.");
+            throw new VtjServiceException("Vtj connection not established. Batch request failed.", e);
+        }
+        try (Response vtjResponse = response) {
+            if (!isRequestIdentifierEchoed(vtjResponse, requestIdentifier)) {
+                logger.error("Vtj responded wrong vtjIssue");
+                throw new VtjServiceException("Vtj responded wrong vtjIssue");
+            }
+            if (vtjResponse.getStatus() != HttpStatus.OK.value()) {
+                logger.error("Vtj connection error: " + vtjResponse.getStatus());
+                throw new VtjServiceException("Vtj connection error: " + vtjResponse.getStatus());
+            }
+            List<VtjPersonRecord> records;
+            try (InputStream in = vtjResponse.readEntity(InputStream.class)) {
+                records = vtjResponseParser.parseBatch(in);
+            } catch (IOException e) {
+                logger.error("Invalid VTJ batch response: " + e.getMessage());
+                throw new VtjServiceException("Invalid VTJ batch response", e);
+            }
+            if (records.size() != identities.size()) {
+                logger.error("VTJ batch response has {} persons for {} identities", records.size(), identities.size());
+                throw new VtjServiceException("VTJ batch response does not match the request");
+            }
+            Map<Identity,VtjPersonRecord> persons = new HashMap<>();
+            for (int i = 0; i < identities.size(); i++) {
+                if (records.get(i) != null) {
+                    persons.put(identities.get(i), records.get(i));
+                }
+            }
+            return persons;
+        }
+    }
 
-            Form form = new Form();
-            form.param("identifier", identity.getIdentifier());
-            form.param("identifierType", identity.getIdentifierType().name());
-            form.param("issuerDn", identity.getIssuerDn());
+    private String buildVtjBatchRequestBody(List<Identity> identities) throws IOException {
+        StringWriter body = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(body)) {
+            generator.writeStartArray();
+            for (Identity identity : identities) {
+                generator.writeStartObject();
+                generator.writeStringField("identifier", identity.getIdentifier());
+                generator.writeStringField("identifierType", identity.getIdentifierType().name());
+                generator.writeStringField("issuerDn", identity.getIssuerDn());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        return body.toString();
+    }
 
-            Invocation.Builder invocationBuilder = webTarget.request(MediaType.APPLICATION_JSON);
-            invocationBuilder.header(VtjIssue.REQUEST_IDENTIFIER_HEADER, vtjIssue.toString());
-            response = invocationBuilder.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED));
-            if ( !vtjIssue.toString().equals(response.getHeaderString(VtjIssue.REQUEST_IDENTIFIER_HEADER)) ) {
-                logger.error("Vtj responded wrong vtjIssue");
-                throw new InvalidVtjDataException("Vtj responded wrong vtjIssue");
+    VtjPersonRecord getVtjResponseForUser(Identity identity, VtjIssue vtjIssue) throws VtjServiceException, InvalidVtjDataException {
+        try (Response response = getVtjHttpResponse(identity, vtjIssue)) {
+            return readVtjResponse(response);
+        }
+    }
+
+    VtjPersonRecord readVtjResponse(Response response) throws VtjServiceException, InvalidVtjDataException {
+        if (Status.NOT_FOUND.getStatusCode() == response.getStatus()) {
+            throw new InvalidVtjDataException("Person not found in VTJ");
+        }
+
+        if (response.getStatus() == HttpStatus.OK.value()) {
+            try (InputStream in = response.readEntity(InputStream.class)) {
+                return vtjResponseParser.parse(in);
+            } catch (IOException e) {
+                logger.error("Invalid VTJ response: " + e.getMessage());
+                throw new VtjServiceException("Invalid VTJ response", e);
             }
+        } else {
+            logger.error("Vtj connection error: " + response.getStatus());
+            throw new VtjServiceException("Vtj connection error: " + response.getStatus());
+        }
+    }
+
+    Response getVtjHttpResponse(Identity identity, VtjIssue vtjIssue) throws VtjServiceException {
+        Response response;
+        try {
+            response = buildVtjRequest(vtjIssue.toString()).post(buildVtjRequestEntity(identity));
         } catch (Exception e) {
             logger.error("Vtj connection not established. Service request failed.");
             throw new VtjServiceException("Vtj connection not established. Service request failed.");
         }
+        if (!isRequestIdentifierEchoed(response, vtjIssue.toString())) {
+            // release the pooled connection before giving up on the response
+            response.close();
+            logger.error("Vtj responded wrong vtjIssue");
+            throw new VtjServiceException("Vtj responded wrong vtjIssue");
+        }
         return response;
     }
 
+    /**
+     * Fails fast when the incoming request has already run out of time, there is
+     * no point in calling VTJ for an answer nobody waits for.
+     */
+    private void checkRequestDeadline() throws VtjServiceException {
+        if (RequestDeadline.isSet() && RequestDeadline.remainingMillis() == 0) {
+            logger.warn("Request deadline passed, VTJ request not sent");
+            throw new VtjServiceException("Request deadline passed, VTJ request not sent");
+        }
+    }
+
+    private void recordLatency(long start) {
+        if (vtjHedgingPolicy != null) {
+            vtjHedgingPolicy.recordLatency(System.currentTimeMillis() - start);
+        }
+    }
+
+    private Invocation.Builder buildVtjRequest(String requestIdentifier) {
+        WebTarget webTarget = client.target(vtjClientEndpoint);
+        Invocation.Builder invocationBuilder = webTarget.request(MediaType.APPLICATION_JSON);
+        invocationBuilder.header(VtjIssue.REQUEST_IDENTIFIER_HEADER, requestIdentifier);
+        if (RequestDeadline.isSet()) {
+            long remainingMillis = RequestDeadline.remainingMillis();
+            long timeoutMillis = readTimeoutMillis > 0 ? Math.min(readTimeoutMillis, remainingMillis) : remainingMillis;
+            invocationBuilder.property(ClientProperties.READ_TIMEOUT, (int) Math.max(1, timeoutMillis));
+        }
+        return invocationBuilder;
+    }
+
+    private Entity<Form> buildVtjRequestEntity(Identity identity) {
+        Form form = new Form();
+        form.param("identifier", identity.getIdentifier());
+        form.param("identifierType", identity.getIdentifierType().name());
+        form.param("issuerDn", identity.getIssuerDn());
+        return Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED);
+    }
+
+    private boolean isRequestIdentifierEchoed(Response response, String requestIdentifier) {
+        return requestIdentifier.equals(response.getHeaderString(VtjIssue.REQUEST_IDENTIFIER_HEADER));
+    }
+
 }
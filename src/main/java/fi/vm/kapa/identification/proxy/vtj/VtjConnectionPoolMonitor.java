@@ -0,0 +1,74 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.vtj;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the state of the HTTP connection pool used for VTJ requests.
+ */
+@Component
+@ManagedResource(objectName = "fi.vm.kapa.identification.proxy:name=VtjConnectionPool",
+        description = "VTJ HTTP connection pool")
+public class VtjConnectionPoolMonitor {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    @Autowired
+    public VtjConnectionPoolMonitor(@Qualifier("jerseyConnectionManager") PoolingHttpClientConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    @ManagedAttribute(description = "Connections currently used by requests")
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    @ManagedAttribute(description = "Idle connections kept alive for reuse")
+    public int getAvailableConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    @ManagedAttribute(description = "Requests waiting for a free connection")
+    public int getPendingRequests() {
+        return connectionManager.getTotalStats().getPending();
+    }
+
+    @ManagedAttribute(description = "Maximum number of connections")
+    public int getMaxConnections() {
+        return connectionManager.getTotalStats().getMax();
+    }
+
+    @Override
+    public String toString() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return "VtjConnectionPool[leased=" + stats.getLeased() + ", available=" + stats.getAvailable()
+                + ", pending=" + stats.getPending() + ", max=" + stats.getMax() + "]";
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.vtj;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a duplicate VTJ request is sent. A hedge is sent when the first request
+ * has not been answered within the configured latency percentile of recent responses.
+ * Hedges are limited with a token bucket: each request adds maxHedgePercent / 100
+ * tokens and each hedge takes one, so at most that share of requests is duplicated.
+ */
+@Component
+@ManagedResource(objectName = "fi.vm.kapa.identification.proxy:name=VtjHedging",
+        description = "VTJ request hedging")
+public class VtjHedgingPolicy {
+
+    static final int MIN_SAMPLES = 100;
+    private static final double MAX_TOKENS = 10;
+
+    private final boolean enabled;
+    private final long deadlineMillis;
+    private final long minHedgeDelayMillis;
+    private final double tokensPerRequest;
+
+    private final VtjLatencyTracker latencyTracker;
+
+    // guarded by this
+    private double tokens = MAX_TOKENS;
+
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong hedgesDenied = new AtomicLong();
+
+    @Autowired
+    public VtjHedgingPolicy(@Value("${vtj.hedge.enabled}") boolean enabled,
+                            @Value("${vtj.hedge.percentile}") double percentile,
+                            @Value("${vtj.hedge.min.delay.millis}") long minHedgeDelayMillis,
+                            @Value("${vtj.hedge.max.percent}") double maxHedgePercent,
+                            @Value("${vtj.request.deadline.millis}") long deadlineMillis) {
+        this.enabled = enabled;
+        this.minHedgeDelayMillis = minHedgeDelayMillis;
+        this.tokensPerRequest = maxHedgePercent / 100;
+        this.deadlineMillis = deadlineMillis;
+        this.latencyTracker = new VtjLatencyTracker(percentile, MIN_SAMPLES);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return overall time allowed for one VTJ lookup including a possible hedge
+     */
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public void recordLatency(long latencyMillis) {
+        latencyTracker.record(latencyMillis);
+    }
+
+    /**
+     * @return how long to wait for the first request before hedging, -1 if there is not enough latency data yet
+     */
+    @ManagedAttribute(description = "Current hedge delay in milliseconds, -1 if not known yet")
+    public long getHedgeDelayMillis() {
+        long percentileMillis = latencyTracker.getPercentileMillis();
+        return percentileMillis < 0 ? -1 : Math.max(minHedgeDelayMillis, percentileMillis);
+    }
+
+    public synchronized void onRequest() {
+        tokens = Math.min(MAX_TOKENS, tokens + tokensPerRequest);
+    }
+
+    public boolean tryAcquireHedge() {
+        synchronized (this) {
+            if (tokens >= 1) {
+                tokens -= 1;
+                hedgesSent.incrementAndGet();
+                return true;
+            }
+        }
+        hedgesDenied.incrementAndGet();
+        return false;
+    }
+
+    public void onHedgeWon() {
+        hedgesWon.incrementAndGet();
+    }
+
+    @ManagedAttribute(description = "Duplicate requests sent")
+    public long getHedgesSent() {
+        return hedgesSent.get();
+    }
+
+    @ManagedAttribute(description = "Duplicate requests that answered before the original one")
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    @ManagedAttribute(description = "Duplicate requests not sent because of the rate limit")
+    public long getHedgesDenied() {
+        return hedgesDenied.get();
+    }
+}
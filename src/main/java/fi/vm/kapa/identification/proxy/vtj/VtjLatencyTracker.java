@@ -0,0 +1,76 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.vtj;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the most recent VTJ responses. The percentile is recomputed
+ * every RECOMPUTE_INTERVAL samples instead of on each query.
+ */
+class VtjLatencyTracker {
+
+    static final int WINDOW_SIZE = 1024;
+    static final int RECOMPUTE_INTERVAL = 64;
+
+    private final double percentile;
+    private final int minSamples;
+
+    // guarded by this
+    private final long[] window = new long[WINDOW_SIZE];
+    private int samples;
+    private int next;
+    private int sinceRecompute;
+    private long percentileMillis = -1;
+
+    VtjLatencyTracker(double percentile, int minSamples) {
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+    }
+
+    synchronized void record(long latencyMillis) {
+        window[next] = latencyMillis;
+        next = (next + 1) % WINDOW_SIZE;
+        if (samples < WINDOW_SIZE) {
+            samples++;
+        }
+        if (++sinceRecompute >= RECOMPUTE_INTERVAL || (percentileMillis < 0 && samples >= minSamples)) {
+            sinceRecompute = 0;
+            percentileMillis = computePercentile();
+        }
+    }
+
+    /**
+     * @return latency at the configured percentile, -1 until enough samples have been recorded
+     */
+    synchronized long getPercentileMillis() {
+        return samples < minSamples ? -1 : percentileMillis;
+    }
+
+    private long computePercentile() {
+        long[] sorted = Arrays.copyOf(window, samples);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * samples) - 1;
+        return sorted[Math.max(0, Math.min(samples - 1, index))];
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.vtj;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import fi.vm.kapa.identification.proxy.person.VtjPersonRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the VTJ response JSON with the Jackson streaming parser, picking only the
+ * person fields the proxy uses and skipping everything else without binding it.
+ */
+public class VtjResponseParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * @return the person of the response, null if the response has no person
+     */
+    public VtjPersonRecord parse(InputStream in) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("VTJ response is not a JSON object");
+            }
+            VtjPersonRecord person = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("person".equals(field) && value == JsonToken.START_OBJECT) {
+                    person = parsePerson(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return person;
+        }
+    }
+
+    /**
+     * Reads a batch response, a JSON array with a person object, or null for a person
+     * not found, for each requested identity in request order.
+     */
+    public List<VtjPersonRecord> parseBatch(InputStream in) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("VTJ batch response is not a JSON array");
+            }
+            List<VtjPersonRecord> persons = new ArrayList<>();
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == JsonToken.START_OBJECT) {
+                    persons.add(parsePerson(parser));
+                } else if (token == JsonToken.VALUE_NULL) {
+                    persons.add(null);
+                } else {
+                    throw new IOException("Unexpected " + token + " in VTJ batch response");
+                }
+            }
+            return persons;
+        }
+    }
+
+    private VtjPersonRecord parsePerson(JsonParser parser) throws IOException {
+        VtjPersonRecord.Builder person = VtjPersonRecord.builder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "hetu":
+                    person.hetu(parser.getValueAsString());
+                    break;
+                case "hetuValid":
+                    person.hetuValid(parser.getValueAsBoolean());
+                    break;
+                case "satu":
+                    person.satu(parser.getValueAsString());
+                    break;
+                case "satuValid":
+                    person.satuValid(parser.getValueAsBoolean());
+                    break;
+                case "deceased":
+                    person.deceased(parser.getValueAsBoolean());
+                    break;
+                case "protectionOrder":
+                    person.protectionOrder(parser.getValueAsBoolean());
+                    break;
+                case "finnishCitizenship":
+                    person.finnishCitizenship(parser.getValueAsString());
+                    break;
+                case "lastName":
+                    person.lastName(parser.getValueAsString());
+                    break;
+                case "firstNames":
+                    person.firstNames(parser.getValueAsString());
+                    break;
+                case "nickName":
+                    person.nickName(parser.getValueAsString());
+                    break;
+                case "emailAddress":
+                    person.emailAddress(parser.getValueAsString());
+                    break;
+                case "municipalityCode":
+                    person.municipalityCode(parser.getValueAsString());
+                    break;
+                case "municipalityS":
+                    person.municipalityS(parser.getValueAsString());
+                    break;
+                case "municipalityR":
+                    person.municipalityR(parser.getValueAsString());
+                    break;
+                case "domesticAddressS":
+                    person.domesticAddressS(parser.getValueAsString());
+                    break;
+                case "domesticAddressR":
+                    person.domesticAddressR(parser.getValueAsString());
+                    break;
+                case "postalCode":
+                    person.postalCode(parser.getValueAsString());
+                    break;
+                case "cityS":
+                    person.cityS(parser.getValueAsString());
+                    break;
+                case "cityR":
+                    person.cityR(parser.getValueAsString());
+                    break;
+                case "foreignAddress":
+                    person.foreignAddress(parser.getValueAsString());
+                    break;
+                case "foreignLocalityAndStateS":
+                    person.foreignLocalityAndStateS(parser.getValueAsString());
+                    break;
+                case "foreignLocalityAndStateR":
+                    person.foreignLocalityAndStateR(parser.getValueAsString());
+                    break;
+                case "foreignLocalityAndStateClearText":
+                    person.foreignLocalityAndStateClearText(parser.getValueAsString());
+                    break;
+                case "stateCode":
+                    person.stateCode(parser.getValueAsString());
+                    break;
+                case "temporaryDomesticAddressS":
+                    person.temporaryDomesticAddressS(parser.getValueAsString());
+                    break;
+                case "temporaryDomesticAddressR":
+                    person.temporaryDomesticAddressR(parser.getValueAsString());
+                    break;
+                case "temporaryPostalCode":
+                    person.temporaryPostalCode(parser.getValueAsString());
+                    break;
+                case "temporaryCityS":
+                    person.temporaryCityS(parser.getValueAsString());
+                    break;
+                case "temporaryCityR":
+                    person.temporaryCityR(parser.getValueAsString());
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return person.build();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.background;
+
+import fi.vm.kapa.identification.proxy.service.MetadataService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class MetadataUpdaterTest {
+
+    private MetadataService metadataService;
+
+    private MetadataUpdater metadataUpdater;
+
+    @Before
+    public void setUp() throws Exception {
+        metadataService = mock(MetadataService.class);
+        metadataUpdater = new MetadataUpdater(metadataService, 100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        metadataUpdater.shutdown();
+    }
+
+    @Test
+    public void burstOfRequestsCausesOneUpdate() throws Exception {
+        assertTrue(metadataUpdater.requestUpdate());
+        for (int i = 0; i < 10; i++) {
+            assertFalse(metadataUpdater.requestUpdate());
+        }
+        verify(metadataService, timeout(2000).times(1)).updateMetadataCache();
+        Thread.sleep(300);
+        verify(metadataService, times(1)).updateMetadataCache();
+    }
+
+    @Test
+    public void requestAfterUpdateSchedulesNewUpdate() throws Exception {
+        assertTrue(metadataUpdater.requestUpdate());
+        verify(metadataService, timeout(2000).times(1)).updateMetadataCache();
+        assertTrue(metadataUpdater.requestUpdate());
+        verify(metadataService, timeout(2000).times(2)).updateMetadataCache();
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.background;
+
+import fi.vm.kapa.identification.proxy.exception.InvalidVtjDataException;
+import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
+import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPerson;
+import fi.vm.kapa.identification.proxy.service.VtjPersonService;
+import fi.vm.kapa.identification.proxy.session.Session;
+import fi.vm.kapa.identification.proxy.session.UidToUserSessionsCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class VtjPreVerifierTest {
+
+    private VtjPersonService vtjPersonService;
+
+    private UidToUserSessionsCache uidToUserSessionsCache;
+
+    private VtjPreVerifier vtjPreVerifier;
+
+    @Before
+    public void setUp() throws Exception {
+        vtjPersonService = mock(VtjPersonService.class);
+        uidToUserSessionsCache = mock(UidToUserSessionsCache.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (vtjPreVerifier != null) {
+            vtjPreVerifier.shutdown();
+        }
+    }
+
+    @Test
+    public void submitDoesNothingWhenDisabled() throws Exception {
+        vtjPreVerifier = new VtjPreVerifier(vtjPersonService, uidToUserSessionsCache, false, 10, 1, 3);
+        assertFalse(vtjPreVerifier.submit(newSession()));
+        verifyZeroInteractions(vtjPersonService);
+    }
+
+    @Test
+    public void sessionIsVerifiedInBackground() throws Exception {
+        VtjPerson vtjPerson = mock(VtjPerson.class);
+        when(vtjPersonService.getVtjPerson(any(), any())).thenReturn(vtjPerson);
+        vtjPreVerifier = new VtjPreVerifier(vtjPersonService, uidToUserSessionsCache, true, 10, 1, 3);
+        Session session = newSession();
+
+        assertTrue(vtjPreVerifier.submit(session));
+
+        verify(vtjPersonService, timeout(2000).times(1)).getVtjPerson(any(), any());
+        waitUntilQueueEmpty();
+        assertTrue(session.isVtjVerified());
+        assertSame(vtjPerson, session.getVtjPerson());
+        assertEquals(1, vtjPreVerifier.getVerifiedCount());
+    }
+
+    @Test
+    public void failedVtjRequestIsRetriedUntilMaxAttempts() throws Exception {
+        when(vtjPersonService.getVtjPerson(any(), any())).thenThrow(new VtjServiceException("VTJ down"));
+        vtjPreVerifier = new VtjPreVerifier(vtjPersonService, uidToUserSessionsCache, true, 10, 1, 3);
+        Session session = newSession();
+
+        assertTrue(vtjPreVerifier.submit(session));
+
+        verify(vtjPersonService, timeout(2000).times(3)).getVtjPerson(any(), any());
+        waitUntilQueueEmpty();
+        Thread.sleep(100);
+        verify(vtjPersonService, times(3)).getVtjPerson(any(), any());
+        assertFalse(session.isVtjVerified());
+    }
+
+    @Test
+    public void invalidVtjDataInvalidatesSessions() throws Exception {
+        when(vtjPersonService.getVtjPerson(any(), any())).thenThrow(new InvalidVtjDataException("Person not found"));
+        vtjPreVerifier = new VtjPreVerifier(vtjPersonService, uidToUserSessionsCache, true, 10, 1, 3);
+        Session session = newSession();
+
+        assertTrue(vtjPreVerifier.submit(session));
+
+        verify(uidToUserSessionsCache, timeout(2000)).invalidateCachedSessionsByKey("UID");
+        assertTrue(session.isVtjDataInvalid());
+        verify(vtjPersonService, times(1)).getVtjPerson(any(), any());
+    }
+
+    @Test
+    public void submitIsRejectedWhenQueueIsFull() throws Exception {
+        vtjPreVerifier = new VtjPreVerifier(vtjPersonService, uidToUserSessionsCache, true, 1, 10000, 3);
+        assertTrue(vtjPreVerifier.submit(newSession()));
+        assertFalse(vtjPreVerifier.submit(newSession()));
+        assertEquals(1, vtjPreVerifier.getQueuedSessions());
+        assertEquals(1, vtjPreVerifier.getRejectedCount());
+    }
+
+    private Session newSession() {
+        Session session = new Session();
+        session.setUid("UID");
+        session.setConversationKey("CONVERSATION_KEY");
+        session.setIdentifiedPerson(mock(IdentifiedPerson.class));
+        return session;
+    }
+
+    private void waitUntilQueueEmpty() throws InterruptedException {
+        for (int i = 0; i < 200 && vtjPreVerifier.getQueuedSessions() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, vtjPreVerifier.getQueuedSessions());
+    }
+}
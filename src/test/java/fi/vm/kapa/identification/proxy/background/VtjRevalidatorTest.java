@@ -0,0 +1,209 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.background;
+
+import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
+import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPersonRecord;
+import fi.vm.kapa.identification.proxy.service.RealVtjPersonService;
+import fi.vm.kapa.identification.proxy.service.VtjPersonService;
+import fi.vm.kapa.identification.proxy.session.Identity;
+import fi.vm.kapa.identification.proxy.session.Session;
+import fi.vm.kapa.identification.proxy.session.UidToUserSessionsCache;
+import fi.vm.kapa.identification.proxy.vtj.StubVtjBatchServer;
+import fi.vm.kapa.identification.proxy.vtj.VtjCircuitBreaker;
+import fi.vm.kapa.identification.proxy.vtj.VtjClient;
+import fi.vm.kapa.identification.type.AuthMethod;
+import fi.vm.kapa.identification.type.Identifier;
+import fi.vm.kapa.identification.vtj.model.VtjIssue;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class VtjRevalidatorTest {
+
+    private VtjPersonService vtjPersonService;
+
+    private UidToUserSessionsCache uidToUserSessionsCache;
+
+    private Map<String,Map<AuthMethod,Session>> sessionsCache;
+
+    @Before
+    public void setUp() throws Exception {
+        vtjPersonService = mock(VtjPersonService.class);
+        uidToUserSessionsCache = mock(UidToUserSessionsCache.class);
+        sessionsCache = new ConcurrentHashMap<>();
+        when(uidToUserSessionsCache.getSessionsCache()).thenReturn(sessionsCache);
+    }
+
+    @Test
+    public void failedAndStaleSessionsAreSelected() throws Exception {
+        Session failed = addSession("UID1", "010191-9641");
+        failed.setVtjLookupFailed(true);
+        Session stale = addSession("UID2", "010191-9614");
+        stale.setVtjVerified(true);
+        addSession("UID3", "010191-9630");
+        Thread.sleep(5);
+        long staleBefore = System.currentTimeMillis();
+        Thread.sleep(5);
+        addSession("UID4", "010191-9696").setVtjVerified(true);
+        VtjRevalidator vtjRevalidator = new VtjRevalidator(vtjPersonService, uidToUserSessionsCache, true, 10, 100, 60);
+
+        Map<Identity,List<Session>> sessions = vtjRevalidator.getSessionsToRevalidate(staleBefore);
+
+        assertEquals(2, sessions.size());
+        assertSame(failed, sessions.get(failed.getIdentifiedPerson().getIdentity()).get(0));
+        assertSame(stale, sessions.get(stale.getIdentifiedPerson().getIdentity()).get(0));
+    }
+
+    @Test
+    public void sessionsAreRevalidatedInBatches() throws Exception {
+        Session first = addSession("UID1", "010191-9641");
+        first.setVtjLookupFailed(true);
+        Session second = addSession("UID2", "010191-9696");
+        second.setVtjLookupFailed(true);
+        when(vtjPersonService.getVtjPersons(anyCollection(), any())).thenAnswer(invocation -> {
+            Map<Identity,VtjPerson> vtjPersons = new HashMap<>();
+            for (Object person : (Collection<?>) invocation.getArguments()[0]) {
+                Identity identity = ((IdentifiedPerson) person).getIdentity();
+                vtjPersons.put(identity, new VtjPerson(identity, validRecord(identity.getIdentifier())));
+            }
+            return vtjPersons;
+        });
+        VtjRevalidator vtjRevalidator = new VtjRevalidator(vtjPersonService, uidToUserSessionsCache, true, 1, 100, 60);
+
+        vtjRevalidator.runRevalidation();
+
+        ArgumentCaptor<Collection> batches = ArgumentCaptor.forClass(Collection.class);
+        verify(vtjPersonService, times(2)).getVtjPersons(batches.capture(), any());
+        batches.getAllValues().forEach(batch -> assertEquals(1, batch.size()));
+        assertTrue(first.isVtjVerified());
+        assertTrue(second.isVtjVerified());
+        assertEquals("010191-9641", first.getVtjPerson().getAttributes().get("samlNationalIdentificationNumber"));
+    }
+
+    @Test
+    public void batchRequestCarriesRevalidationIssue() throws Exception {
+        Session first = addSession("UID1", "010191-9641");
+        first.setVtjLookupFailed(true);
+        Session second = addSession("UID2", "010191-9696");
+        second.setVtjLookupFailed(true);
+        Client client = ClientBuilder.newClient();
+        try (StubVtjBatchServer stubVtjBatchServer = new StubVtjBatchServer()) {
+            stubVtjBatchServer.addPerson("010191-9641");
+            stubVtjBatchServer.addPerson("010191-9696");
+            VtjClient vtjClient = new VtjClient();
+            ReflectionTestUtils.setField(vtjClient, "client", client);
+            ReflectionTestUtils.setField(vtjClient, "vtjClientBatchEndpoint", stubVtjBatchServer.getUrl());
+            ReflectionTestUtils.setField(vtjClient, "vtjBatchCircuitBreaker", new VtjCircuitBreaker(1, 30000, 2));
+            VtjPersonService realVtjPersonService = spy(new RealVtjPersonService(vtjClient));
+            VtjRevalidator vtjRevalidator = new VtjRevalidator(realVtjPersonService, uidToUserSessionsCache, true, 1, 100, 60);
+
+            vtjRevalidator.runRevalidation();
+
+            ArgumentCaptor<VtjIssue> vtjIssues = ArgumentCaptor.forClass(VtjIssue.class);
+            verify(realVtjPersonService, times(2)).getVtjPersons(anyCollection(), vtjIssues.capture());
+            List<String> requestIdentifiers = stubVtjBatchServer.getRequestIdentifiers();
+            assertEquals(2, requestIdentifiers.size());
+            for (int i = 0; i < 2; i++) {
+                assertEquals(vtjIssues.getAllValues().get(i).toString(), requestIdentifiers.get(i));
+                assertNotNull(requestIdentifiers.get(i));
+                assertNotEquals(new VtjIssue().toString(), requestIdentifiers.get(i));
+            }
+            assertNotEquals("each batch has its own id", requestIdentifiers.get(0), requestIdentifiers.get(1));
+            assertTrue(first.isVtjVerified());
+            assertTrue(second.isVtjVerified());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void personNotFoundInvalidatesSessions() throws Exception {
+        Session failed = addSession("UID1", "010191-9641");
+        failed.setVtjLookupFailed(true);
+        when(vtjPersonService.getVtjPersons(anyCollection(), any())).thenReturn(Collections.emptyMap());
+        VtjRevalidator vtjRevalidator = new VtjRevalidator(vtjPersonService, uidToUserSessionsCache, true, 10, 100, 60);
+
+        vtjRevalidator.runRevalidation();
+
+        assertTrue(failed.isVtjDataInvalid());
+        verify(uidToUserSessionsCache).invalidateCachedSessionsByKey("UID1");
+    }
+
+    @Test
+    public void vtjFailureKeepsSessionsUnchanged() throws Exception {
+        Session failed = addSession("UID1", "010191-9641");
+        failed.setVtjLookupFailed(true);
+        when(vtjPersonService.getVtjPersons(anyCollection(), any())).thenThrow(new VtjServiceException("VTJ down"));
+        VtjRevalidator vtjRevalidator = new VtjRevalidator(vtjPersonService, uidToUserSessionsCache, true, 10, 100, 60);
+
+        vtjRevalidator.runRevalidation();
+
+        assertFalse(failed.isVtjVerified());
+        assertFalse(failed.isVtjDataInvalid());
+    }
+
+    @Test
+    public void disabledRevalidatorDoesNothing() throws Exception {
+        addSession("UID1", "010191-9641").setVtjLookupFailed(true);
+        new VtjRevalidator(vtjPersonService, uidToUserSessionsCache, false, 10, 100, 60).runRevalidation();
+        verifyZeroInteractions(vtjPersonService);
+    }
+
+    private Session addSession(String uid, String hetu) {
+        Identity identity = new Identity(null, Identifier.Types.HETU, hetu);
+        IdentifiedPerson identifiedPerson = mock(IdentifiedPerson.class);
+        when(identifiedPerson.getIdentity()).thenReturn(identity);
+        Session session = new Session();
+        session.setUid(uid);
+        session.setIdentifiedPerson(identifiedPerson);
+        Map<AuthMethod,Session> userSessions = new HashMap<>();
+        userSessions.put(AuthMethod.fLoA2, session);
+        sessionsCache.put(uid, userSessions);
+        return session;
+    }
+
+    private VtjPersonRecord validRecord(String hetu) {
+        return VtjPersonRecord.builder().hetu(hetu).hetuValid(true).build();
+    }
+}
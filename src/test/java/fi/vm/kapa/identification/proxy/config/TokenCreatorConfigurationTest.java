@@ -0,0 +1,83 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.config;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import fi.vm.kapa.identification.proxy.exception.TokenCreatorException;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenCreatorConfigurationTest {
+
+    @Test
+    public void algorithmIsDetectedFromRsaKey() throws Exception {
+        KeyPair keyPair = generate("RSA", 2048);
+        Algorithm algorithm = TokenCreatorConfiguration.createAlgorithm("auto", keyPair.getPrivate(), keyPair.getPublic());
+        assertEquals("RS256", algorithm.getName());
+    }
+
+    @Test
+    public void algorithmIsDetectedFromEcKey() throws Exception {
+        KeyPair keyPair = generate("EC", 256);
+        Algorithm algorithm = TokenCreatorConfiguration.createAlgorithm("auto", keyPair.getPrivate(), keyPair.getPublic());
+        assertEquals("ES256", algorithm.getName());
+    }
+
+    @Test
+    public void configuredAlgorithmIsUsedForMatchingKey() throws Exception {
+        KeyPair keyPair = generate("EC", 256);
+        Algorithm algorithm = TokenCreatorConfiguration.createAlgorithm("ES256", keyPair.getPrivate(), null);
+        assertEquals("ES256", algorithm.getName());
+    }
+
+    @Test(expected = TokenCreatorException.class)
+    public void configuredAlgorithmMustMatchKey() throws Exception {
+        KeyPair keyPair = generate("EC", 256);
+        TokenCreatorConfiguration.createAlgorithm("RS256", keyPair.getPrivate(), keyPair.getPublic());
+    }
+
+    @Test(expected = TokenCreatorException.class)
+    public void es256RequiresP256Key() throws Exception {
+        KeyPair keyPair = generate("EC", 384);
+        TokenCreatorConfiguration.createAlgorithm("auto", keyPair.getPrivate(), keyPair.getPublic());
+    }
+
+    @Test(expected = TokenCreatorException.class)
+    public void es256RejectsOther256BitCurve() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256k1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        TokenCreatorConfiguration.createAlgorithm("auto", keyPair.getPrivate(), keyPair.getPublic());
+    }
+
+    private KeyPair generate(String algorithm, int size) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        generator.initialize(size);
+        return generator.generateKeyPair();
+    }
+}
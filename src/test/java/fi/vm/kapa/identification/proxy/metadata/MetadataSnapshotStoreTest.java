@@ -0,0 +1,91 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.metadata;
+
+import fi.vm.kapa.identification.type.AuthMethod;
+import fi.vm.kapa.identification.type.SessionProfile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MetadataSnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void savedSnapshotCanBeLoaded() throws Exception {
+        File snapshotFile = new File(temporaryFolder.getRoot(), "metadata.json.gz");
+        MetadataSnapshotStore store = new MetadataSnapshotStore();
+        ReflectionTestUtils.setField(store, "snapshotFile", snapshotFile.getPath());
+
+        Map<String,ServiceProvider> serviceProviders = new HashMap<>();
+        serviceProviders.put("TEST_SP_ENTITY_ID", new ServiceProvider("TEST_SP_ENTITY_ID", "TEST_SP_LOS", "TEST_SP_ALOS",
+                SessionProfile.TUNNISTUSFI_LEGACY, true, null, null, null));
+        List<AuthenticationProvider> authenticationProviders = new ArrayList<>();
+        authenticationProviders.add(new AuthenticationProvider("TEST_AUTH_PROVIDER", "TEST_AUTH_PROVIDER_DOMAINNAME", "TUPAS",
+                AuthMethod.fLoA2, "TEST_CONTEXT_URL", "TEST_ENTITY_ID", "LOGINCONTEXT_TUPAS"));
+        Map<String,Country> countries = new HashMap<>();
+        countries.put("SE", new Country("SE", "TEST_EIDAS_ENTITY_ID", "LOGINCONTEXT_EIDAS"));
+
+        store.save(serviceProviders, authenticationProviders, countries);
+        MetadataSnapshotStore.StoredMetadata loaded = store.load();
+
+        assertNotNull(loaded);
+        ServiceProvider serviceProvider = loaded.getServiceProviders().get("TEST_SP_ENTITY_ID");
+        assertEquals("TEST_SP_LOS", serviceProvider.getLevelOfAssurance());
+        assertEquals(SessionProfile.TUNNISTUSFI_LEGACY, serviceProvider.getSessionProfile());
+        assertTrue(serviceProvider.isVtjVerificationRequired());
+        assertEquals(1, loaded.getAuthenticationProviders().size());
+        assertEquals(AuthMethod.fLoA2, loaded.getAuthenticationProviders().get(0).getAuthenticationMethod());
+        assertEquals("TEST_CONTEXT_URL", loaded.getAuthenticationProviders().get(0).getAuthProviderAuthContextUrl());
+        assertEquals("LOGINCONTEXT_EIDAS", loaded.getCountries().get("SE").getEidasLoginContext());
+    }
+
+    @Test
+    public void missingOrCorruptSnapshotIsIgnored() throws Exception {
+        File snapshotFile = new File(temporaryFolder.getRoot(), "metadata.json.gz");
+        MetadataSnapshotStore store = new MetadataSnapshotStore();
+        ReflectionTestUtils.setField(store, "snapshotFile", snapshotFile.getPath());
+        assertNull(store.load());
+
+        Files.write(snapshotFile.toPath(), "not a snapshot".getBytes("UTF-8"));
+        assertNull(store.load());
+    }
+
+    @Test
+    public void storeIsDisabledWithoutFile() throws Exception {
+        MetadataSnapshotStore store = new MetadataSnapshotStore();
+        ReflectionTestUtils.setField(store, "snapshotFile", "");
+        assertFalse(store.isEnabled());
+        store.save(new HashMap<>(), new ArrayList<>(), new HashMap<>());
+        assertNull(store.load());
+    }
+}
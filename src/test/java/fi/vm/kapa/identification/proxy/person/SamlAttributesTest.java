@@ -0,0 +1,116 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.person;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SamlAttributesTest {
+
+    @Test
+    public void attributesAreReadByEnumAndByName() {
+        SamlAttributes attributes = new SamlAttributes();
+        attributes.set(SamlAttribute.CN, "Testi Teppo");
+        assertEquals("Testi Teppo", attributes.get(SamlAttribute.CN));
+        assertEquals("Testi Teppo", attributes.get("samlCn"));
+        assertTrue(attributes.containsKey("samlCn"));
+        assertFalse(attributes.containsKey("samlSn"));
+        assertEquals(1, attributes.size());
+    }
+
+    @Test
+    public void namesOutsideRegistryAreKept() {
+        SamlAttributes attributes = new SamlAttributes();
+        attributes.set("vtjVerified", "true");
+        attributes.set("samlSn", "Testi");
+        assertEquals("true", attributes.get("vtjVerified"));
+        assertEquals("Testi", attributes.get(SamlAttribute.SN));
+        assertEquals(2, attributes.size());
+    }
+
+    @Test
+    public void nullValueRemovesAttribute() {
+        SamlAttributes attributes = new SamlAttributes();
+        attributes.set(SamlAttribute.SN, "Testi");
+        attributes.set("vtjVerified", "true");
+        attributes.set(SamlAttribute.SN, null);
+        attributes.remove("vtjVerified");
+        assertTrue(attributes.isEmpty());
+        assertNull(attributes.get("samlSn"));
+        assertFalse(attributes.entrySet().iterator().hasNext());
+    }
+
+    @Test
+    public void setIfNotEmptySkipsEmptyValues() {
+        SamlAttributes attributes = new SamlAttributes();
+        attributes.setIfNotEmpty(SamlAttribute.MAIL, "");
+        attributes.setIfNotEmpty(SamlAttribute.CITY, null);
+        assertTrue(attributes.isEmpty());
+    }
+
+    @Test
+    public void overlayOverridesPresentValuesOnly() {
+        SamlAttributes base = new SamlAttributes();
+        base.set(SamlAttribute.SN, "Identified");
+        base.set(SamlAttribute.MAIL, "teppo@example.com");
+        base.set("vtjVerified", "false");
+        SamlAttributes vtj = new SamlAttributes();
+        vtj.set(SamlAttribute.SN, "Vtj");
+        vtj.set("vtjVerified", "true");
+
+        base.overlay(vtj);
+
+        assertEquals("Vtj", base.get(SamlAttribute.SN));
+        assertEquals("teppo@example.com", base.get(SamlAttribute.MAIL));
+        assertEquals("true", base.get("vtjVerified"));
+        assertEquals(3, base.size());
+    }
+
+    @Test
+    public void mapViewEqualsHashMapWithSameEntries() {
+        SamlAttributes attributes = new SamlAttributes();
+        attributes.set(SamlAttribute.NATIONAL_IDENTIFICATION_NUMBER, "010101-0101");
+        attributes.set(SamlAttribute.LEGACY_VERSION, "1");
+        attributes.set("vtjRequired", "true");
+
+        Map<String,String> expected = new HashMap<>();
+        expected.put("samlNationalIdentificationNumber", "010101-0101");
+        expected.put("legacyVersion", "1");
+        expected.put("vtjRequired", "true");
+
+        assertEquals(expected, attributes);
+        assertEquals(expected, new HashMap<>(attributes));
+        assertEquals(expected.hashCode(), attributes.hashCode());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void readOnlyAttributesCantBeChanged() {
+        SamlAttributes attributes = new SamlAttributes();
+        attributes.set(SamlAttribute.SN, "Testi");
+        attributes.readOnly().put("samlSn", "Other");
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.person;
+
+import fi.vm.kapa.identification.proxy.exception.InitializationException;
+import fi.vm.kapa.identification.proxy.session.Identity;
+import fi.vm.kapa.identification.type.AuthMethod;
+import fi.vm.kapa.identification.type.Identifier;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static fi.vm.kapa.identification.type.Identifier.Types.HETU;
+import static org.junit.Assert.*;
+
+public class SpAttributeMappingTest {
+
+    @Test
+    public void emptyDefinitionMapsNothing() throws Exception {
+        SpAttributeMapping mapping = SpAttributeMapping.compile("");
+        assertFalse(mapping.isMapped(AuthMethod.fLoA2));
+        assertTrue(mapping.extract(getSpData(), AuthMethod.fLoA2).isEmpty());
+    }
+
+    @Test
+    public void mappedAttributesAreExtractedForTheirMethodOnly() throws Exception {
+        SpAttributeMapping mapping = SpAttributeMapping.compile("fLoA2:AJP_mail=samlMail; AJP_mobile=samlMobile, eLoA3:AJP_eidasBirthName=samlBirthName");
+        assertTrue(mapping.isMapped(AuthMethod.fLoA2));
+        assertTrue(mapping.isMapped(AuthMethod.eLoA3));
+        assertFalse(mapping.isMapped(AuthMethod.fLoA3));
+
+        SamlAttributes attributes = mapping.extract(getSpData(), AuthMethod.fLoA2);
+        assertEquals(2, attributes.size());
+        assertEquals("teppo@example.com", attributes.get(SamlAttribute.MAIL));
+        assertEquals("0401234567", attributes.get("samlMobile"));
+    }
+
+    @Test
+    public void emptyValuesAreNotMapped() throws Exception {
+        Map<String,String> spData = getSpData();
+        spData.put("AJP_mail", "");
+        SamlAttributes attributes = SpAttributeMapping.compile("fLoA2:AJP_mail=samlMail;AJP_missing=samlCity").extract(spData, AuthMethod.fLoA2);
+        assertTrue(attributes.isEmpty());
+    }
+
+    @Test(expected = InitializationException.class)
+    public void unknownMethodIsRejected() throws Exception {
+        SpAttributeMapping.compile("nosuchmethod:AJP_mail=samlMail");
+    }
+
+    @Test(expected = InitializationException.class)
+    public void attributeWithoutTargetIsRejected() throws Exception {
+        SpAttributeMapping.compile("fLoA2:AJP_mail");
+    }
+
+    @Test(expected = InitializationException.class)
+    public void identifierTargetIsRejected() throws Exception {
+        SpAttributeMapping.compile("fLoA2:AJP_mail=samlMail;AJP_hetu=samlNationalIdentificationNumber");
+    }
+
+    @Test(expected = InitializationException.class)
+    public void authenticationTokenTargetIsRejected() throws Exception {
+        SpAttributeMapping.compile("eLoA3:AJP_token=samlAuthenticationToken");
+    }
+
+    @Test(expected = InitializationException.class)
+    public void reservedNameTargetIsRejected() throws Exception {
+        SpAttributeMapping.compile("fLoA2:AJP_x=samlVtjVerified", Arrays.asList("samlVtjRequired", "samlVtjVerified"));
+    }
+
+    @Test
+    public void attributesOfPersonOverrideMappedAttributes() throws Exception {
+        Map<Identifier.Types,String> identifiers = new HashMap<>();
+        identifiers.put(HETU, "111190-123B");
+        GenericPerson person = new GenericPerson(new Identity(null, HETU, "111190-123B"), "Testinen Teppo", identifiers);
+        SpAttributeMapping mapping = SpAttributeMapping.compile("fLoA2:AJP_mail=samlMail;AJP_cn=samlCn");
+        Map<String,String> spData = getSpData();
+        spData.put("AJP_cn", "Mapped Name");
+
+        IdentifiedPerson mappedPerson = new MappedAttributesPerson(person, mapping.extract(spData, AuthMethod.fLoA2));
+
+        assertEquals("Testinen Teppo", mappedPerson.getAttributes().get(SamlAttribute.CN));
+        assertEquals("teppo@example.com", mappedPerson.getAttributes().get(SamlAttribute.MAIL));
+        assertEquals("111190-123B", mappedPerson.getAttributes().get(SamlAttribute.NATIONAL_IDENTIFICATION_NUMBER));
+        assertEquals("111190-123B", mappedPerson.nationalId());
+        assertEquals(person.getLegacyAttributes(), mappedPerson.getLegacyAttributes());
+    }
+
+    private Map<String,String> getSpData() {
+        Map<String,String> spData = new HashMap<>();
+        spData.put("AJP_hetu", "111190-123B");
+        spData.put("AJP_mail", "teppo@example.com");
+        spData.put("AJP_mobile", "0401234567");
+        return spData;
+    }
+}
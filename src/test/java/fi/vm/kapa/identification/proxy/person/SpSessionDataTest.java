@@ -0,0 +1,86 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.person;
+
+import fi.vm.kapa.identification.type.Identifier;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static fi.vm.kapa.identification.type.Identifier.Types.HETU;
+import static fi.vm.kapa.identification.type.Identifier.Types.SATU;
+import static org.junit.Assert.*;
+
+public class SpSessionDataTest {
+
+    @Test
+    public void knownAttributesAreParsedToSlots() {
+        Map<String,String> spData = getSpData();
+        SpSessionData data = SpSessionData.of(spData);
+        assertEquals("TEST_HETU", data.get(SpSessionData.Key.HETU));
+        assertEquals(HETU.name(), data.get(SpSessionData.Key.IDENTIFIER_TYPE));
+        assertEquals("TEST_DECL", data.get(SpSessionData.Key.AUTHN_CONTEXT_DECL));
+        assertEquals("Testinen", data.get(SpSessionData.Key.SN));
+        assertNull(data.get(SpSessionData.Key.AUTHN_CONTEXT_CLASS));
+    }
+
+    @Test
+    public void mapViewContainsAllAttributes() {
+        Map<String,String> spData = getSpData();
+        SpSessionData data = SpSessionData.of(spData);
+        assertEquals(spData, data);
+        assertEquals("TEST_VALUE", data.get("AJP_unknown"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mapViewIsReadOnly() {
+        SpSessionData.of(getSpData()).put("AJP_hetu", "OTHER");
+    }
+
+    @Test
+    public void parsedDataIsNotParsedAgain() {
+        SpSessionData data = SpSessionData.of(getSpData());
+        assertSame(data, SpSessionData.of(data));
+    }
+
+    @Test
+    public void identifiersContainPresentIdentifiersOnly() {
+        Map<String,String> spData = getSpData();
+        spData.put("AJP_satu", "TEST_SATU");
+        Map<Identifier.Types,String> expected = new HashMap<>();
+        expected.put(HETU, "TEST_HETU");
+        expected.put(SATU, "TEST_SATU");
+        assertEquals(expected, SpSessionData.of(spData).getIdentifiers());
+    }
+
+    private Map<String,String> getSpData() {
+        Map<String,String> spData = new HashMap<>();
+        spData.put("AJP_hetu", "TEST_HETU");
+        spData.put(Identifier.typeKey, HETU.name());
+        spData.put("AJP_Shib-AuthnContext-Decl", "TEST_DECL");
+        spData.put("AJP_sn", "Testinen");
+        spData.put("AJP_unknown", "TEST_VALUE");
+        return spData;
+    }
+}
@@ -241,6 +241,20 @@ public class VtjPersonAttributesTest {
         assertEquals("TEST_SATU", person.get("samlElectronicIdentificationNumber"));
     }
 
+    @Test
+    public void getPersonAttributesReturnsSameMapAfterValidation() throws Exception {
+        VtjPerson vtjPerson = new VtjPerson(hetuIdentity, getPersonWithLastnameAndFirstNames());
+        vtjPerson.validate();
+        Map<String, String> attributes = vtjPerson.getAttributes();
+        assertSame(attributes, vtjPerson.getAttributes());
+        assertEquals("TEST", attributes.get("samlGivenName"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getPersonAttributesReturnsUnmodifiableMap() throws Exception {
+        new VtjPerson(hetuIdentity, getMinimalValidPerson("TESTHETU")).getAttributes().put("samlMail", "changed");
+    }
+
     private Person getMinimalValidPerson(String hetu) {
         Person person = new Person();
         person.setHetu(hetu);
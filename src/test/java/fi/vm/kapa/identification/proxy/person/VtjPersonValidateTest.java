@@ -59,7 +59,7 @@ public class VtjPersonValidateTest {
 
     @Test(expected = InvalidVtjDataException.class)
     public void validateThrowsInvalidVtjDataExceptionWhenNullPerson() throws Exception {
-        VtjPerson vtjPerson = new VtjPerson(identity, null);
+        VtjPerson vtjPerson = new VtjPerson(identity, (Person) null);
         vtjPerson.validate();
     }
 
@@ -0,0 +1,83 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.rest;
+
+import fi.vm.kapa.identification.proxy.background.MetadataUpdater;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+public class MetadataResourceImplTest {
+
+    @Mock
+    MetadataUpdater metadataUpdater;
+
+    @InjectMocks
+    private MetadataResourceImpl metadataResource;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(metadataResource, "refreshSecret", "refreshsecret");
+    }
+
+    @Test
+    public void refreshMetadataRequestsUpdateWithValidSecret() throws Exception {
+        Response response = metadataResource.refreshMetadata("refreshsecret");
+        assertEquals(202, response.getStatus());
+        verify(metadataUpdater, times(1)).requestUpdate();
+    }
+
+    @Test
+    public void refreshMetadataThrows403WithInvalidSecret() throws Exception {
+        try {
+            metadataResource.refreshMetadata("wrongsecret");
+            fail("Should have thrown");
+        } catch (WebApplicationException e) {
+            assertEquals(403, e.getResponse().getStatus());
+        }
+        verifyZeroInteractions(metadataUpdater);
+    }
+
+    @Test
+    public void refreshMetadataThrows403WhenSecretNotConfigured() throws Exception {
+        ReflectionTestUtils.setField(metadataResource, "refreshSecret", "");
+        try {
+            metadataResource.refreshMetadata("");
+            fail("Should have thrown");
+        } catch (WebApplicationException e) {
+            assertEquals(403, e.getResponse().getStatus());
+        }
+        verifyZeroInteractions(metadataUpdater);
+    }
+}
@@ -24,6 +24,7 @@ package fi.vm.kapa.identification.proxy.rest;
 
 import fi.vm.kapa.identification.dto.ProxyMessageDTO;
 import fi.vm.kapa.identification.dto.SessionAttributeDTO;
+import fi.vm.kapa.identification.proxy.service.MetadataService;
 import fi.vm.kapa.identification.proxy.service.SessionHandlingService;
 import fi.vm.kapa.identification.type.ErrorType;
 import org.junit.Before;
@@ -43,6 +44,7 @@ import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 public class ProxyResourceImplTest {
@@ -50,6 +52,9 @@ public class ProxyResourceImplTest {
     @Mock
     SessionHandlingService sessionHandlingService;
 
+    @Mock
+    MetadataService metadataService;
+
     @Autowired
     @InjectMocks
     private ProxyResourceImpl proxyApiController;
@@ -57,6 +62,19 @@ public class ProxyResourceImplTest {
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
+        when(metadataService.isReady()).thenReturn(true);
+    }
+
+    @Test
+    public void fromIdPInitSessionThrows503WhenMetadataNotReady() throws Exception {
+        when(metadataService.isReady()).thenReturn(false);
+        try {
+            proxyApiController.fromIdPInitSession("relyingParty", "", "","0", "key", "TEST_AUTH_METHOD", "0");
+            fail("Should have thrown");
+        } catch (WebApplicationException e) {
+            assertEquals(503, e.getResponse().getStatus());
+        }
+        verifyZeroInteractions(sessionHandlingService);
     }
 
     @Test
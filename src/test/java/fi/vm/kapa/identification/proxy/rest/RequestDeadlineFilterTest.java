@@ -0,0 +1,70 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.rest;
+
+import fi.vm.kapa.identification.proxy.utils.RequestDeadline;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class RequestDeadlineFilterTest {
+
+    private final RequestDeadlineFilter filter = new RequestDeadlineFilter(5000);
+
+    @After
+    public void tearDown() {
+        RequestDeadline.clear();
+    }
+
+    @Test
+    public void deadlineIsStartedOnRequestAndClearedOnResponse() {
+        ContainerRequestContext requestContext = mock(ContainerRequestContext.class);
+        filter.filter(requestContext);
+        assertTrue(RequestDeadline.isSet());
+        assertTrue(RequestDeadline.remainingMillis() <= 5000);
+        assertTrue(RequestDeadline.remainingMillis() > 0);
+        filter.filter(requestContext, mock(ContainerResponseContext.class));
+        assertFalse(RequestDeadline.isSet());
+        assertEquals(Long.MAX_VALUE, RequestDeadline.remainingMillis());
+    }
+
+    @Test
+    public void zeroBudgetSetsNoDeadline() {
+        new RequestDeadlineFilter(0).filter(mock(ContainerRequestContext.class));
+        assertFalse(RequestDeadline.isSet());
+    }
+
+    @Test
+    public void deadlineLeftOverFromPreviousRequestIsCleared() {
+        RequestDeadline.start(1000);
+        new RequestDeadlineFilter(0).filter(mock(ContainerRequestContext.class));
+        assertFalse(RequestDeadline.isSet());
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.kapa.identification.dto.SessionAttributeDTO;
+import fi.vm.kapa.identification.proxy.person.SamlAttributes;
+import fi.vm.kapa.identification.proxy.session.SamlAttributeDTO;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compares writing the collected attributes straight to the stream against copying them
+ * into a SessionAttributeDTO and serializing it with the ObjectMapper. Not run as a test,
+ * timings depend on the machine; run the main method and compare the printed results.
+ */
+public class SessionAttributeDTOWriterBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int WRITES_PER_ROUND = 20000;
+
+    public static void main(String[] args) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        SamlAttributes attributes = SessionAttributeDTOWriterTest.getAttributes().readOnly();
+        long bestStreamed = Long.MAX_VALUE;
+        long bestSerialized = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < WRITES_PER_ROUND; i++) {
+                SessionAttributeDTOWriter.write(new SamlAttributeDTO(attributes), new ByteArrayOutputStream(1024));
+            }
+            bestStreamed = Math.min(bestStreamed, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < WRITES_PER_ROUND; i++) {
+                SessionAttributeDTO dto = new SessionAttributeDTO();
+                dto.getAttributeMap().putAll(attributes);
+                objectMapper.writeValue(new ByteArrayOutputStream(1024), dto);
+            }
+            bestSerialized = Math.min(bestSerialized, System.nanoTime() - start);
+        }
+        System.out.println("streamed: " + bestStreamed / WRITES_PER_ROUND + " ns per write");
+        System.out.println("copied and serialized: " + bestSerialized / WRITES_PER_ROUND + " ns per write");
+    }
+}
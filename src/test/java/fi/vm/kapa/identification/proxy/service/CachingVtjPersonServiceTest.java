@@ -0,0 +1,132 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.service;
+
+import fi.vm.kapa.identification.proxy.exception.InvalidVtjDataException;
+import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
+import fi.vm.kapa.identification.proxy.person.GenericPerson;
+import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPerson;
+import fi.vm.kapa.identification.proxy.session.Identity;
+import fi.vm.kapa.identification.type.Identifier;
+import fi.vm.kapa.identification.vtj.model.Person;
+import fi.vm.kapa.identification.vtj.model.VtjIssue;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class CachingVtjPersonServiceTest {
+
+    private VtjPersonService vtjPersonService;
+
+    private CachingVtjPersonService cachingVtjPersonService;
+
+    @Before
+    public void setUp() throws Exception {
+        vtjPersonService = mock(VtjPersonService.class);
+        cachingVtjPersonService = new CachingVtjPersonService(vtjPersonService, 60, 60, 2);
+    }
+
+    @Test
+    public void getVtjPersonReturnsCachedPersonForSameIdentity() throws Exception {
+        IdentifiedPerson identifiedPerson = getIdentifiedPerson("010191-9696");
+        VtjPerson vtjPerson = new VtjPerson(identifiedPerson.getIdentity(), new Person());
+        when(vtjPersonService.getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class))).thenReturn(vtjPerson);
+
+        assertSame(vtjPerson, cachingVtjPersonService.getVtjPerson(identifiedPerson, new VtjIssue()));
+        assertSame(vtjPerson, cachingVtjPersonService.getVtjPerson(getIdentifiedPerson("010191-9696"), new VtjIssue()));
+        verify(vtjPersonService, times(1)).getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class));
+        assertEquals(1, cachingVtjPersonService.getHits());
+        assertEquals(1, cachingVtjPersonService.getMisses());
+        assertEquals(0.5, cachingVtjPersonService.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void getVtjPersonCachesInvalidVtjData() throws Exception {
+        IdentifiedPerson identifiedPerson = getIdentifiedPerson("010191-9696");
+        when(vtjPersonService.getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class))).thenThrow(new InvalidVtjDataException("not found"));
+        for (int i = 0; i < 2; i++) {
+            try {
+                cachingVtjPersonService.getVtjPerson(identifiedPerson, new VtjIssue());
+                fail("Should have thrown");
+            } catch (InvalidVtjDataException e) {
+                assertEquals("not found", e.getMessage());
+            }
+        }
+        verify(vtjPersonService, times(1)).getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class));
+        assertEquals(1, cachingVtjPersonService.getNegativeHits());
+    }
+
+    @Test
+    public void getVtjPersonDoesNotCacheVtjServiceException() throws Exception {
+        IdentifiedPerson identifiedPerson = getIdentifiedPerson("010191-9696");
+        when(vtjPersonService.getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class))).thenThrow(new VtjServiceException("VTJ down"));
+        for (int i = 0; i < 2; i++) {
+            try {
+                cachingVtjPersonService.getVtjPerson(identifiedPerson, new VtjIssue());
+                fail("Should have thrown");
+            } catch (VtjServiceException e) {
+                // expected
+            }
+        }
+        verify(vtjPersonService, times(2)).getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class));
+        assertEquals(0, cachingVtjPersonService.getSize());
+    }
+
+    @Test
+    public void getVtjPersonEvictsLeastRecentlyUsed() throws Exception {
+        when(vtjPersonService.getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class)))
+                .thenAnswer(invocation -> new VtjPerson(((IdentifiedPerson) invocation.getArguments()[0]).getIdentity(), new Person()));
+        cachingVtjPersonService.getVtjPerson(getIdentifiedPerson("1"), new VtjIssue());
+        cachingVtjPersonService.getVtjPerson(getIdentifiedPerson("2"), new VtjIssue());
+        cachingVtjPersonService.getVtjPerson(getIdentifiedPerson("1"), new VtjIssue());
+        cachingVtjPersonService.getVtjPerson(getIdentifiedPerson("3"), new VtjIssue());
+        assertEquals(2, cachingVtjPersonService.getSize());
+        cachingVtjPersonService.getVtjPerson(getIdentifiedPerson("1"), new VtjIssue());
+        verify(vtjPersonService, times(3)).getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class));
+    }
+
+    @Test
+    public void getVtjPersonQueriesAgainAfterTtl() throws Exception {
+        cachingVtjPersonService = new CachingVtjPersonService(vtjPersonService, 0, 0, 2);
+        IdentifiedPerson identifiedPerson = getIdentifiedPerson("010191-9696");
+        when(vtjPersonService.getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class)))
+                .thenReturn(new VtjPerson(identifiedPerson.getIdentity(), new Person()));
+        cachingVtjPersonService.getVtjPerson(identifiedPerson, new VtjIssue());
+        cachingVtjPersonService.getVtjPerson(identifiedPerson, new VtjIssue());
+        verify(vtjPersonService, times(2)).getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class));
+    }
+
+    private IdentifiedPerson getIdentifiedPerson(String hetu) {
+        Identity identity = new Identity("issuer", Identifier.Types.HETU, hetu);
+        Map<Identifier.Types,String> identifiers = new HashMap<>();
+        identifiers.put(Identifier.Types.HETU, hetu);
+        return new GenericPerson(identity, null, identifiers);
+    }
+}
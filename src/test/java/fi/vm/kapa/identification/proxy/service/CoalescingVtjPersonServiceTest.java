@@ -0,0 +1,147 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.service;
+
+import fi.vm.kapa.identification.proxy.exception.InvalidVtjDataException;
+import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
+import fi.vm.kapa.identification.proxy.person.GenericPerson;
+import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPerson;
+import fi.vm.kapa.identification.proxy.session.Identity;
+import fi.vm.kapa.identification.type.Identifier;
+import fi.vm.kapa.identification.vtj.model.Person;
+import fi.vm.kapa.identification.vtj.model.VtjIssue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class CoalescingVtjPersonServiceTest {
+
+    private VtjPersonService vtjPersonService;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        vtjPersonService = mock(VtjPersonService.class);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentRequestsForSameIdentityShareOneFetch() throws Exception {
+        CoalescingVtjPersonService coalescingVtjPersonService = new CoalescingVtjPersonService(vtjPersonService, 5000);
+        IdentifiedPerson identifiedPerson = getIdentifiedPerson("010191-9696");
+        VtjPerson vtjPerson = new VtjPerson(identifiedPerson.getIdentity(), new Person());
+        CountDownLatch fetchStarted = new CountDownLatch(1);
+        CountDownLatch releaseFetch = new CountDownLatch(1);
+        when(vtjPersonService.getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class))).thenAnswer(invocation -> {
+            fetchStarted.countDown();
+            releaseFetch.await();
+            return vtjPerson;
+        });
+
+        Future<VtjPerson> first = executor.submit(() -> coalescingVtjPersonService.getVtjPerson(identifiedPerson, new VtjIssue()));
+        assertTrue(fetchStarted.await(5, TimeUnit.SECONDS));
+        Future<VtjPerson> second = executor.submit(() -> coalescingVtjPersonService.getVtjPerson(getIdentifiedPerson("010191-9696"), new VtjIssue()));
+        while (coalescingVtjPersonService.getCoalescedRequests() == 0) {
+            Thread.sleep(10);
+        }
+        releaseFetch.countDown();
+
+        assertSame(vtjPerson, first.get(5, TimeUnit.SECONDS));
+        assertSame(vtjPerson, second.get(5, TimeUnit.SECONDS));
+        verify(vtjPersonService, times(1)).getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class));
+        assertEquals(0, coalescingVtjPersonService.getInFlightRequests());
+    }
+
+    @Test
+    public void waitingRequestGetsExceptionOfInFlightFetch() throws Exception {
+        CoalescingVtjPersonService coalescingVtjPersonService = new CoalescingVtjPersonService(vtjPersonService, 5000);
+        IdentifiedPerson identifiedPerson = getIdentifiedPerson("010191-9696");
+        CountDownLatch fetchStarted = new CountDownLatch(1);
+        CountDownLatch releaseFetch = new CountDownLatch(1);
+        when(vtjPersonService.getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class))).thenAnswer(invocation -> {
+            fetchStarted.countDown();
+            releaseFetch.await();
+            throw new InvalidVtjDataException("not found");
+        });
+
+        executor.submit(() -> coalescingVtjPersonService.getVtjPerson(identifiedPerson, new VtjIssue()));
+        assertTrue(fetchStarted.await(5, TimeUnit.SECONDS));
+        Future<VtjPerson> second = executor.submit(() -> coalescingVtjPersonService.getVtjPerson(identifiedPerson, new VtjIssue()));
+        while (coalescingVtjPersonService.getCoalescedRequests() == 0) {
+            Thread.sleep(10);
+        }
+        releaseFetch.countDown();
+        try {
+            second.get(5, TimeUnit.SECONDS);
+            fail("Should have thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InvalidVtjDataException);
+        }
+    }
+
+    @Test
+    public void waitingRequestTimesOut() throws Exception {
+        CoalescingVtjPersonService coalescingVtjPersonService = new CoalescingVtjPersonService(vtjPersonService, 50);
+        IdentifiedPerson identifiedPerson = getIdentifiedPerson("010191-9696");
+        CountDownLatch fetchStarted = new CountDownLatch(1);
+        CountDownLatch releaseFetch = new CountDownLatch(1);
+        when(vtjPersonService.getVtjPerson(any(IdentifiedPerson.class), any(VtjIssue.class))).thenAnswer(invocation -> {
+            fetchStarted.countDown();
+            releaseFetch.await();
+            return new VtjPerson(identifiedPerson.getIdentity(), new Person());
+        });
+
+        executor.submit(() -> coalescingVtjPersonService.getVtjPerson(identifiedPerson, new VtjIssue()));
+        assertTrue(fetchStarted.await(5, TimeUnit.SECONDS));
+        try {
+            coalescingVtjPersonService.getVtjPerson(identifiedPerson, new VtjIssue());
+            fail("Should have thrown");
+        } catch (VtjServiceException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        } finally {
+            releaseFetch.countDown();
+        }
+    }
+
+    private IdentifiedPerson getIdentifiedPerson(String hetu) {
+        Identity identity = new Identity("issuer", Identifier.Types.HETU, hetu);
+        Map<Identifier.Types,String> identifiers = new HashMap<>();
+        identifiers.put(Identifier.Types.HETU, hetu);
+        return new GenericPerson(identity, null, identifiers);
+    }
+}
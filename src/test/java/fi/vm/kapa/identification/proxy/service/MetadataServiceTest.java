@@ -24,6 +24,7 @@ package fi.vm.kapa.identification.proxy.service;
 
 import fi.vm.kapa.identification.proxy.exception.RelyingPartyNotFoundException;
 import fi.vm.kapa.identification.proxy.metadata.AuthenticationProvider;
+import fi.vm.kapa.identification.proxy.metadata.Country;
 import fi.vm.kapa.identification.proxy.metadata.MetadataClient;
 import fi.vm.kapa.identification.proxy.metadata.ServiceProvider;
 import fi.vm.kapa.identification.type.AuthMethod;
@@ -36,6 +37,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.IOException;
 import java.util.*;
 
 import static java.util.Collections.emptyList;
@@ -72,6 +74,15 @@ public class MetadataServiceTest {
         metadataService.getRelyingParty(null);
     }
 
+    @Test
+    public void isReadyOnlyWhenServiceAndAuthenticationProvidersExist() throws Exception {
+        assertFalse(metadataService.isReady());
+        metadataService.setServiceProviderMetaDataCache(getServicesProviderMapWithKeyAndEntityId("entityId", "TEST_SERVICE_PROVIDER"));
+        assertFalse(metadataService.isReady());
+        metadataService.setApprovedAuthenticationProviders(getApprovedAuthenticationProvidersWithDefaultNamedProvider("TEST_AUTHENTICATION_PROVIDER"));
+        assertTrue(metadataService.isReady());
+    }
+
     ServiceProvider getDefaultServiceProvider() {
         return new ServiceProvider("TEST_ENTITY_ID", "TEST_LOA",
                 "TEST_ATTRIBUTE_LOA",
@@ -97,6 +108,23 @@ public class MetadataServiceTest {
         assertEquals(1, metadataServiceSpy.getServiceProviderMetaDataCache().size());
     }
 
+    @Test
+    public void failedLiveFetchIsNotLiveLoadedWhenPersistedMetadataMakesReady() throws Exception {
+        initializeMetadataServiceWithMetadata("TEST_AUTHENTICATION_PROVIDER", "TEST_SERVICE_PROVIDER");
+        MetadataService metadataServiceSpy = spy(this.metadataService);
+        doThrow(new RuntimeException("metadata server down")).when(metadataServiceSpy).getAuthenticationProviders();
+        when(metadataClient.getServiceProviders()).thenThrow(new RuntimeException("metadata server down"));
+        metadataServiceSpy.updateMetadataCache();
+        assertTrue(metadataServiceSpy.isReady());
+        assertFalse(metadataServiceSpy.isLiveLoaded());
+
+        doReturn(getApprovedAuthenticationProvidersWithDefaultNamedProvider("TEST_AUTHENTICATION_PROVIDER")).when(metadataServiceSpy).getAuthenticationProviders();
+        reset(metadataClient);
+        when(metadataClient.getServiceProviders()).thenReturn(getServicesProviderMapWithKeyAndEntityId("entityId", "TEST_SERVICE_PROVIDER"));
+        metadataServiceSpy.updateMetadataCache();
+        assertTrue(metadataServiceSpy.isLiveLoaded());
+    }
+
     @Test
     public void updateMetadataReplacesWithNewServiceProviders() throws Exception {
         initializeMetadataServiceWithMetadata("TEST_AUTHENTICATION_PROVIDER", "TEST_SERVICE_PROVIDER");
@@ -166,6 +194,79 @@ public class MetadataServiceTest {
         assertEquals(1, metadataServiceSpy.getServiceProviderMetaDataCache().size());
     }
 
+    @Test
+    public void updateMetadataCacheKeepsOnlyFailedSectionWhenCountryFetchFails() throws Exception {
+        initializeMetadataServiceWithMetadata("TEST_AUTHENTICATION_PROVIDER", "TEST_SERVICE_PROVIDER");
+        Map<String, Country> countries = new HashMap<>();
+        countries.put("FI", new Country("FI", "TEST_DB_ENTITY_URL", "logincontext"));
+        metadataService.setCountryCache(countries);
+
+        MetadataService metadataServiceSpy = spy(this.metadataService);
+        doReturn(getApprovedAuthenticationProvidersWithDefaultNamedProvider("TEST_AUTHENTICATION_PROVIDER_NEW"))
+                .when(metadataServiceSpy).getAuthenticationProviders();
+        when(metadataClient.getServiceProviders()).thenReturn(getServicesProviderMapWithKeyAndEntityId("entityId", "TEST_SERVICE_PROVIDER_NEW"));
+        when(metadataClient.getCountries()).thenThrow(new IOException("country server down"));
+        // actual test
+        metadataServiceSpy.updateMetadataCache();
+        assertEquals("TEST_SERVICE_PROVIDER_NEW", metadataServiceSpy.getServiceProviderMetaDataCache().get("entityId").getEntityId());
+        assertEquals("TEST_AUTHENTICATION_PROVIDER_NEW",
+                metadataServiceSpy.getApprovedAuthenticationProviders().getAllProviders().get(0).getName());
+        assertEquals(1, metadataServiceSpy.getCountryCache().size());
+        assertNotNull(metadataServiceSpy.getCountry("FI"));
+    }
+
+    @Test
+    public void updateMetadataCacheUpdatesCountriesWhenServiceProviderFetchFails() throws Exception {
+        initializeMetadataServiceWithMetadata("TEST_AUTHENTICATION_PROVIDER", "TEST_SERVICE_PROVIDER");
+
+        MetadataService metadataServiceSpy = spy(this.metadataService);
+        doReturn(getApprovedAuthenticationProvidersWithDefaultNamedProvider("TEST_AUTHENTICATION_PROVIDER"))
+                .when(metadataServiceSpy).getAuthenticationProviders();
+        when(metadataClient.getServiceProviders()).thenThrow(new IOException("metadata server down"));
+        Map<String, Country> countries = new HashMap<>();
+        countries.put("FI", new Country("FI", "TEST_DB_ENTITY_URL", "logincontext"));
+        when(metadataClient.getCountries()).thenReturn(countries);
+        // actual test
+        metadataServiceSpy.updateMetadataCache();
+        assertEquals("TEST_SERVICE_PROVIDER", metadataServiceSpy.getServiceProviderMetaDataCache().get("entityId").getEntityId());
+        assertNotNull(metadataServiceSpy.getCountry("FI"));
+    }
+
+    @Test
+    public void updateMetadataCacheKeepsUnchangedInstances() throws Exception {
+        initializeMetadataServiceWithMetadata("TEST_AUTHENTICATION_PROVIDER", "TEST_SERVICE_PROVIDER");
+        Map<String, ServiceProvider> previousServiceProviders = metadataService.getServiceProviderMetaDataCache();
+        ServiceProvider previousServiceProvider = previousServiceProviders.get("entityId");
+        MetadataService.ApprovedAuthenticationProviders previousAuthenticationProviders = metadataService.getApprovedAuthenticationProviders();
+
+        MetadataService metadataServiceSpy = spy(this.metadataService);
+        doReturn(getApprovedAuthenticationProvidersWithDefaultNamedProvider("TEST_AUTHENTICATION_PROVIDER"))
+                .when(metadataServiceSpy).getAuthenticationProviders();
+        Map<String, ServiceProvider> serviceProviders = getServicesProviderMapWithKeyAndEntityId("entityId", "TEST_SERVICE_PROVIDER");
+        serviceProviders.put("newEntityId", getServiceProviderWithEntityIdAndVtjVerificationRequired("TEST_SERVICE_PROVIDER_NEW", false));
+        when(metadataClient.getServiceProviders()).thenReturn(serviceProviders);
+        // actual test
+        metadataServiceSpy.updateMetadataCache();
+        assertSame(previousAuthenticationProviders, metadataServiceSpy.getApprovedAuthenticationProviders());
+        assertNotSame(previousServiceProviders, metadataServiceSpy.getServiceProviderMetaDataCache());
+        assertEquals(2, metadataServiceSpy.getServiceProviderMetaDataCache().size());
+        assertSame(previousServiceProvider, metadataServiceSpy.getServiceProviderMetaDataCache().get("entityId"));
+    }
+
+    @Test
+    public void applyDeltaReturnsPreviousWhenNothingChanged() throws Exception {
+        Map<String, ServiceProvider> previous = getServicesProviderMapWithKeyAndEntityId("entityId", "TEST_SERVICE_PROVIDER");
+        Map<String, ServiceProvider> fetched = getServicesProviderMapWithKeyAndEntityId("entityId", "TEST_SERVICE_PROVIDER");
+        assertSame(previous, metadataService.applyDelta("service providers", previous, fetched, ServiceProvider::hasSameContent));
+
+        Map<String, ServiceProvider> changed = new HashMap<>();
+        changed.put("entityId", getServiceProviderWithEntityIdAndVtjVerificationRequired("TEST_SERVICE_PROVIDER", false));
+        Map<String, ServiceProvider> merged = metadataService.applyDelta("service providers", previous, changed, ServiceProvider::hasSameContent);
+        assertFalse(merged.get("entityId").isVtjVerificationRequired());
+
+        assertEquals(0, metadataService.applyDelta("service providers", previous, new HashMap<>(), ServiceProvider::hasSameContent).size());
+    }
+
     private void initializeMetadataServiceWithMetadata(String authenticationProviderName, String entityId) {
         MetadataService.ApprovedAuthenticationProviders authenticationProviders =
                 getApprovedAuthenticationProvidersWithDefaultNamedProvider(authenticationProviderName);
@@ -26,11 +26,11 @@ import fi.vm.kapa.identification.proxy.exception.InvalidVtjDataException;
 import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
 import fi.vm.kapa.identification.proxy.person.GenericPerson;
 import fi.vm.kapa.identification.proxy.person.IdentifiedPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPersonRecord;
 import fi.vm.kapa.identification.proxy.session.Identity;
 import fi.vm.kapa.identification.proxy.vtj.VtjClient;
 import fi.vm.kapa.identification.type.Identifier;
 import fi.vm.kapa.identification.vtj.model.Person;
-import fi.vm.kapa.identification.vtj.model.VTJResponse;
 import fi.vm.kapa.identification.vtj.model.VtjIssue;
 import org.junit.Before;
 import org.junit.Test;
@@ -67,20 +67,18 @@ public class RealVtjPersonServiceTest {
     }
 
     @Test
-    public void getVtjResponseReturnsPersonFromVtjClient() throws Exception {
-        VTJResponse response = new VTJResponse();
-        Person validPerson = getMinimalValidPerson("TESTHETU");
+    public void getVtjPersonRecordReturnsPersonFromVtjClient() throws Exception {
+        VtjPersonRecord validPerson = VtjPersonRecord.from(getMinimalValidPerson("TESTHETU"));
         VtjIssue vtjIssue = new VtjIssue();
-        response.setPerson(validPerson);
-        when(vtjClient.fetchVtjData(identity, vtjIssue)).thenReturn(response);
+        when(vtjClient.fetchVtjData(identity, vtjIssue)).thenReturn(validPerson);
 
-        VTJResponse vtjResponse = personService.getVtjResponse(identity, vtjIssue);
-        assertEquals(validPerson, vtjResponse.getPerson());
+        VtjPersonRecord person = personService.getVtjPersonRecord(identity, vtjIssue);
+        assertEquals(validPerson, person);
     }
 
     @Test(expected = VtjServiceException.class)
     public void getPersonDataFromVTJThrowsVtjServiceExceptionWhenNoPersonInfoIsReturnedFromVTJ() throws Exception {
-        when(vtjClient.fetchVtjData(any(Identity.class), any(VtjIssue.class))).thenReturn(new VTJResponse());
+        when(vtjClient.fetchVtjData(any(Identity.class), any(VtjIssue.class))).thenReturn(null);
         personService.getVtjPerson(identifiedPerson, new VtjIssue());
     }
     
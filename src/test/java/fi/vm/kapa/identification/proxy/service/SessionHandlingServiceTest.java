@@ -44,7 +44,6 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -527,19 +526,17 @@ public class SessionHandlingServiceTest {
         ServiceProvider serviceProvider = new ServiceProvider(entityId, "", "fLoA2;fLoA3", SessionProfile.TUNNISTUSFI_LEGACY, false,  "",EidasSupport.full, null);
         metadataService.getServiceProviderMetaDataCache().put(serviceProvider.getEntityId(), serviceProvider);
 
-        // attribute map needed in SessionHandlingService.getVtjVerificationRequirement()
-        Map<String,String> attrs = new HashMap<>();
-        attrs.put("samlNationalIdentificationNumber", "hetu");
-        attrs.put("samlCn", "cn");
-        Mockito.doReturn(attrs).when(sessionAttributeCollector).getAttributes(any());
         ProxyMessageDTO message = sessionHandlingService.initNewSession(entityId, tupasAuthenticationProviderEntityId, "","0", convKey, "fLoA2;fLoA3", "logtag");
 
         String tokenId = message.getTokenId();
         String nextPhaseId = phaseIdInitSession.newPhaseId(tokenId, stepSessionBuild);
         Map<String, String> sessionData = new HashMap<>();
         sessionData.put("AJP_Shib-AuthnContext-Decl", tupasAuthenticationProviderContextUrl);
+        Map<Identifier.Types,String> identifiers = new HashMap<>();
+        identifiers.put(Identifier.Types.HETU, "111190-123B");
         Identity identity = new Identity("", Identifier.Types.HETU, "111190-123B");
-        when(identifiedPersonBuilder.build(anyMapOf(String.class, String.class), any())).thenReturn(new GenericPerson(identity, null,null));
+        // hetu and common name without VTJ requirement => MAY_FAIL
+        when(identifiedPersonBuilder.build(anyMapOf(String.class, String.class), any())).thenReturn(new GenericPerson(identity, "cn", identifiers));
         when(vtjPersonServiceMock.getVtjPerson(any(), any())).thenThrow(new VtjServiceException("VTJ connection failed"));
         ProxyMessageDTO result = sessionHandlingService.buildNewSession(tokenId, nextPhaseId, sessionData, "logtag");
         Assert.assertNotNull(result);
@@ -554,11 +551,6 @@ public class SessionHandlingServiceTest {
         ServiceProvider serviceProvider = new ServiceProvider(entityId, "", "fLoA2;fLoA3", SessionProfile.VETUMA_SAML2, true,  "",EidasSupport.full, null);
         metadataService.getServiceProviderMetaDataCache().put(serviceProvider.getEntityId(), serviceProvider);
 
-        // attribute map needed in SessionHandlingService.getVtjVerificationRequirement()
-        Map<String,String> attrs = new HashMap<>();
-        attrs.put("samlNationalIdentificationNumber", "hetu");
-        Mockito.doReturn(attrs).when(sessionAttributeCollector).getAttributes(any());
-
         ProxyMessageDTO message = sessionHandlingService.initNewSession(entityId, tupasAuthenticationProviderEntityId, "","0", convKey, "fLoA2;fLoA3", "logtag");
         Assert.assertNotNull(message);
         String tokenId = message.getTokenId();
@@ -583,19 +575,16 @@ public class SessionHandlingServiceTest {
         ServiceProvider serviceProvider = new ServiceProvider(entityId, "", "fLoA2;fLoA3", SessionProfile.TUNNISTUSFI_LEGACY, false,  "",EidasSupport.full, null);
         metadataService.getServiceProviderMetaDataCache().put(serviceProvider.getEntityId(), serviceProvider);
 
-        // attribute map needed in SessionHandlingService.getVtjVerificationRequirement()
-        Map<String,String> attrs = new HashMap<>();
-        attrs.put("samlNationalIdentificationNumber", "hetu");
-        Mockito.doReturn(attrs).when(sessionAttributeCollector).getAttributes(any());
-
         ProxyMessageDTO message = sessionHandlingService.initNewSession(entityId, tupasAuthenticationProviderEntityId, "","0", convKey, "fLoA2;fLoA3", "logtag");
         Assert.assertNotNull(message);
         String tokenId = message.getTokenId();
         String nextPhaseId = phaseIdInitSession.newPhaseId(tokenId, stepSessionBuild);
         Map<String, String> sessionData = new HashMap<>();
         sessionData.put("AJP_Shib-AuthnContext-Decl", tupasAuthenticationProviderContextUrl);
+        Map<Identifier.Types,String> identifiers = new HashMap<>();
+        identifiers.put(Identifier.Types.HETU, "111190-123B");
         Identity identity = new Identity("", Identifier.Types.HETU, "111190-123B");
-        when(identifiedPersonBuilder.build(anyMapOf(String.class, String.class), any())).thenReturn(new GenericPerson(identity, null, null));
+        when(identifiedPersonBuilder.build(anyMapOf(String.class, String.class), any())).thenReturn(new GenericPerson(identity, null, identifiers));
         VtjPerson personMock = mock(VtjPerson.class);
         when(vtjPersonServiceMock.getVtjPerson(any(), any())).thenReturn(personMock);
         doThrow(InvalidVtjDataException.class).when(personMock).validate();
@@ -762,16 +751,14 @@ public class SessionHandlingServiceTest {
         ServiceProvider serviceProvider = new ServiceProvider(entityId, "", "fLoA2;fLoA3;KATSOPWD", SessionProfile.TUNNISTUSFI_LEGACY, true,  "",EidasSupport.full, null);
         metadataService.getServiceProviderMetaDataCache().put(serviceProvider.getEntityId(), serviceProvider);
 
-        // attribute map needed in SessionHandlingService.getVtjVerificationRequirement()
-        Map<String,String> attrs = new HashMap<>(); // no hetu, no satu (katso) => FORBIDDEN
-        Mockito.doReturn(attrs).when(sessionAttributeCollector).getAttributes(any());
-
         ProxyMessageDTO message = sessionHandlingService.initNewSession(entityId, katsoAuthenticationProviderEntityId, "","0", convKey, "fLoA2;fLoA3;KATSOPWD", "logtag");
         String tokenId = message.getTokenId();
         String nextPhaseId = phaseIdInitSession.newPhaseId(tokenId, stepSessionBuild);
         Map<String, String> sessionData = new HashMap<>();
         sessionData.put("AJP_Shib-AuthnContext-Decl", katsoAuthenticationProviderContextUrl);
-        when(identifiedPersonBuilder.build(anyMapOf(String.class, String.class), any())).thenReturn(new GenericPerson(new Identity(null, Identifier.Types.KID, "e12345"), null, null));
+        Map<Identifier.Types,String> identifiers = new HashMap<>(); // no hetu, no satu (katso) => FORBIDDEN
+        identifiers.put(Identifier.Types.KID, "e12345");
+        when(identifiedPersonBuilder.build(anyMapOf(String.class, String.class), any())).thenReturn(new GenericPerson(new Identity(null, Identifier.Types.KID, "e12345"), null, identifiers));
         verify(vtjPersonServiceMock, never()).getVtjPerson(any(), any());
         ProxyMessageDTO result = sessionHandlingService.buildNewSession(tokenId, nextPhaseId, sessionData, "logtag");
         Assert.assertNotNull(result);
@@ -1036,8 +1023,8 @@ public class SessionHandlingServiceTest {
     public void getVtjVerificationRequirementReturnsForbiddenForNoHetuNoSatu() throws Exception {
         ServiceProvider relyingParty = mock(ServiceProvider.class);
         Session session = new Session();
-        Map<String,String> attrs = new HashMap<>(); // no hetu, no satu
-        when(sessionAttributeCollector.getAttributes(session)).thenReturn(attrs);
+        Map<Identifier.Types,String> identifiers = new HashMap<>(); // no hetu, no satu
+        session.setIdentifiedPerson(new GenericPerson(new Identity(null, Identifier.Types.KID, "e12345"), null, identifiers));
         Assert.assertEquals(VtjVerificationRequirement.FORBIDDEN, sessionHandlingService.getVtjVerificationRequirement(relyingParty, session, AuthMethod.KATSOOTP));
     }
 
@@ -1046,9 +1033,9 @@ public class SessionHandlingServiceTest {
         ServiceProvider relyingParty = mock(ServiceProvider.class);
         when(relyingParty.isVtjVerificationRequired()).thenReturn(false);
         Session session = new Session();
-        Map<String,String> attrs = new HashMap<>();
-        attrs.put("samlElectronicIdentificationNumber", "satu");
-        when(sessionAttributeCollector.getAttributes(session)).thenReturn(attrs);
+        Map<Identifier.Types,String> identifiers = new HashMap<>();
+        identifiers.put(Identifier.Types.SATU, "satu");
+        session.setIdentifiedPerson(new GenericPerson(new Identity(null, Identifier.Types.SATU, "satu"), null, identifiers));
         Assert.assertEquals(VtjVerificationRequirement.MUST_SUCCEED, sessionHandlingService.getVtjVerificationRequirement(relyingParty, session, AuthMethod.fLoA3));
     }
 
@@ -1057,9 +1044,9 @@ public class SessionHandlingServiceTest {
         ServiceProvider relyingParty = mock(ServiceProvider.class);
         when(relyingParty.isVtjVerificationRequired()).thenReturn(false);
         Session session = new Session();
-        Map<String,String> attrs = new HashMap<>();
-        attrs.put("samlNationalIdentificationNumber", "hetu");
-        when(sessionAttributeCollector.getAttributes(session)).thenReturn(attrs);
+        Map<Identifier.Types,String> identifiers = new HashMap<>();
+        identifiers.put(Identifier.Types.HETU, "hetu");
+        session.setIdentifiedPerson(new GenericPerson(new Identity(null, Identifier.Types.HETU, "hetu"), null, identifiers));
         Assert.assertEquals(VtjVerificationRequirement.MUST_SUCCEED, sessionHandlingService.getVtjVerificationRequirement(relyingParty, session, AuthMethod.fLoA2));
     }
 
@@ -1068,10 +1055,9 @@ public class SessionHandlingServiceTest {
         ServiceProvider relyingParty = mock(ServiceProvider.class);
         when(relyingParty.isVtjVerificationRequired()).thenReturn(true);
         Session session = new Session();
-        Map<String,String> attrs = new HashMap<>();
-        attrs.put("samlNationalIdentificationNumber", "hetu");
-        attrs.put("samlCn", "cn");
-        when(sessionAttributeCollector.getAttributes(session)).thenReturn(attrs);
+        Map<Identifier.Types,String> identifiers = new HashMap<>();
+        identifiers.put(Identifier.Types.HETU, "hetu");
+        session.setIdentifiedPerson(new GenericPerson(new Identity(null, Identifier.Types.HETU, "hetu"), "cn", identifiers));
         Assert.assertEquals(VtjVerificationRequirement.MUST_SUCCEED, sessionHandlingService.getVtjVerificationRequirement(relyingParty, session, AuthMethod.fLoA2));
     }
 
@@ -1080,10 +1066,9 @@ public class SessionHandlingServiceTest {
         ServiceProvider relyingParty = mock(ServiceProvider.class);
         when(relyingParty.isVtjVerificationRequired()).thenReturn(false);
         Session session = new Session();
-        Map<String,String> attrs = new HashMap<>();
-        attrs.put("samlNationalIdentificationNumber", "hetu");
-        attrs.put("samlCn", "cn");
-        when(sessionAttributeCollector.getAttributes(session)).thenReturn(attrs);
+        Map<Identifier.Types,String> identifiers = new HashMap<>();
+        identifiers.put(Identifier.Types.HETU, "hetu");
+        session.setIdentifiedPerson(new GenericPerson(new Identity(null, Identifier.Types.HETU, "hetu"), "cn", identifiers));
         Assert.assertEquals(VtjVerificationRequirement.MAY_FAIL, sessionHandlingService.getVtjVerificationRequirement(relyingParty, session, AuthMethod.fLoA2));
     }
 
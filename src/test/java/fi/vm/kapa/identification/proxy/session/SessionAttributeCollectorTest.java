@@ -22,9 +22,17 @@
  */
 package fi.vm.kapa.identification.proxy.session;
 
+import fi.vm.kapa.identification.proxy.person.GenericPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPerson;
+import fi.vm.kapa.identification.proxy.person.VtjPersonRecord;
+import fi.vm.kapa.identification.type.Identifier;
 import fi.vm.kapa.identification.type.SessionProfile;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.*;
 
 public class SessionAttributeCollectorTest {
@@ -36,4 +44,75 @@ public class SessionAttributeCollectorTest {
         collector.getAttributes(session);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void attributesAreBuiltOncePerSessionState() throws Exception {
+        SessionAttributeCollector collector = new SessionAttributeCollector("vtjReq", "vtjVer", "vtjInv", "legacy_v", "1.1");
+        Session session = new Session();
+        session.setSessionProfile(SessionProfile.VETUMA_SAML2);
+        session.setVtjVerificationRequired(true);
+
+        Map<String,String> attributes = collector.getAttributes(session);
+        assertSame(attributes, collector.getAttributes(session));
+        assertEquals("false", attributes.get("vtjVer"));
+
+        // setting an unchanged value keeps the view
+        session.setVtjVerificationRequired(true);
+        assertSame(attributes, collector.getAttributes(session));
+
+        session.setVtjVerified(true);
+        Map<String,String> verified = collector.getAttributes(session);
+        assertNotSame(attributes, verified);
+        assertEquals("true", verified.get("vtjVer"));
+
+        session.setVtjDataInvalid(true);
+        assertEquals("true", collector.getAttributes(session).get("vtjInv"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void attributesAreUnmodifiable() throws Exception {
+        SessionAttributeCollector collector = new SessionAttributeCollector("vtjReq", "vtjVer", "vtjInv", "legacy_v", "1.1");
+        Session session = new Session();
+        session.setSessionProfile(SessionProfile.VETUMA_SAML2);
+        collector.getAttributes(session).put("vtjVer", "true");
+    }
+
+    @Test
+    public void viewBuiltBeforeChangeIsNotUsed() throws Exception {
+        Session session = new Session();
+        int version = session.getAttributeVersion();
+        session.setVtjVerified(true);
+        session.setAttributeView(Collections.singletonMap("vtjVer", "false"), version);
+        assertNull(session.getAttributeView());
+    }
+
+    @Test
+    public void typedAccessorsMatchCollectedAttributes() throws Exception {
+        SessionAttributeCollector collector = new SessionAttributeCollector("vtjReq", "vtjVer", "vtjInv", "legacy_v", "1.1");
+        Session session = new Session();
+        session.setSessionProfile(SessionProfile.VETUMA_SAML2);
+        Map<Identifier.Types,String> identifiers = new HashMap<>();
+        identifiers.put(Identifier.Types.HETU, "010191-9696");
+        Identity identity = new Identity(null, Identifier.Types.HETU, "010191-9696");
+        session.setIdentifiedPerson(new GenericPerson(identity, "Tunnistettu Henkilo", identifiers));
+        assertTypedAccessorsMatch(collector, session);
+
+        VtjPersonRecord record = VtjPersonRecord.builder().hetu("010191-9696").hetuValid(true).satu("999198786")
+                .lastName("Meikalainen").firstNames("Matti Kalevi").build();
+        session.setVtjPerson(new VtjPerson(identity, record));
+        // VTJ data is not used before verification
+        assertTypedAccessorsMatch(collector, session);
+        assertNull(session.electronicId());
+
+        session.setVtjVerified(true);
+        assertTypedAccessorsMatch(collector, session);
+        assertEquals("999198786", session.electronicId());
+        assertEquals("Meikalainen Matti Kalevi", session.commonName());
+    }
+
+    private void assertTypedAccessorsMatch(SessionAttributeCollector collector, Session session) throws Exception {
+        Map<String,String> attributes = collector.getAttributes(session);
+        assertEquals(attributes.get("samlNationalIdentificationNumber"), session.nationalId());
+        assertEquals(attributes.get("samlElectronicIdentificationNumber"), session.electronicId());
+        assertEquals(attributes.get("samlCn"), session.commonName());
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.utils;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ES256AlgorithmTest {
+
+    private ES256Algorithm algorithm;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair keyPair = generator.generateKeyPair();
+        algorithm = new ES256Algorithm((ECPublicKey) keyPair.getPublic(), (ECPrivateKey) keyPair.getPrivate());
+    }
+
+    @Test
+    public void signedTokenIsVerifiedWithPublicKey() throws Exception {
+        TokenCreator tokenCreator = new TokenCreator(algorithm, "issuer", "kid-ec", 10);
+        String token = tokenCreator.getAuthenticationToken("hetu", "method", "rp", "sid", "rid", new Date());
+
+        DecodedJWT jwt = JWT.require(algorithm).build().verify(token);
+        assertEquals("ES256", jwt.getAlgorithm());
+        assertEquals("kid-ec", jwt.getKeyId());
+        assertEquals("hetu", jwt.getClaim(TokenCreator.HETU_CLAIM_KEY).asString());
+        assertEquals(2 * ES256Algorithm.COORDINATE_LENGTH, Base64.getUrlDecoder().decode(jwt.getSignature()).length);
+    }
+
+    @Test(expected = SignatureVerificationException.class)
+    public void tamperedTokenIsRejected() throws Exception {
+        TokenCreator tokenCreator = new TokenCreator(algorithm, "issuer", "kid-ec", 10);
+        String token = tokenCreator.getAuthenticationToken("hetu", "method", "rp", "sid", "rid", new Date());
+        String[] parts = token.split("\\.");
+        String other = tokenCreator.getAuthenticationToken("other", "method", "rp", "sid", "rid", new Date());
+
+        JWT.require(algorithm).build().verify(parts[0] + "." + other.split("\\.")[1] + "." + parts[2]);
+    }
+
+    @Test
+    public void signatureIsTranscodedBetweenDerAndJose() throws Exception {
+        byte[] jose = new byte[2 * ES256Algorithm.COORDINATE_LENGTH];
+        Arrays.fill(jose, 0, ES256Algorithm.COORDINATE_LENGTH, (byte) 0x80);
+        // S with leading zeros is shortened in DER
+        jose[jose.length - 1] = 0x01;
+
+        byte[] der = ES256Algorithm.joseToDer(jose);
+        assertEquals(0x30, der[0]);
+        assertEquals(ES256Algorithm.COORDINATE_LENGTH + 1, der[3]);
+        assertEquals(1, der[der.length - 2]);
+        assertArrayEquals(jose, ES256Algorithm.derToJose(der));
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.utils;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+
+public class JwtEncoderTest {
+
+    private static final String ISSUER = "Suomi.fi-tunnistus";
+    private static final String KID = "kid \"1\"";
+    private static final int EXPIRATION_MINUTES = 60;
+
+    private Algorithm algorithm;
+    private TokenCreator tokenCreator;
+
+    @Before
+    public void setUp() throws Exception {
+        algorithm = Algorithm.HMAC256("secret");
+        tokenCreator = new TokenCreator(algorithm, ISSUER, KID, EXPIRATION_MINUTES);
+    }
+
+    @Test
+    public void tokenMatchesJwtBuilderOutput() throws Exception {
+        Date iat = new Date(1492775862123L);
+        assertEquals(referenceToken(TokenCreator.HETU_CLAIM_KEY, "010191-9696", "method", "rp", "sid", "rid", iat),
+                tokenCreator.getAuthenticationToken("010191-9696", "method", "rp", "sid", "rid", iat));
+        assertEquals(referenceToken(TokenCreator.PID_CLAIM_KEY, "FI/SE/1234", "method", "rp", "sid", "rid", iat),
+                tokenCreator.getEidasAuthenticationToken("FI/SE/1234", "method", "rp", "sid", "rid", iat));
+        assertEquals(referenceToken(TokenCreator.FOREIGN_PID_CLAIM_KEY, "fpid", "method", "rp", "sid", "rid", iat),
+                tokenCreator.getForeignPersonAuthenticationToken("fpid", "method", "rp", "sid", "rid", iat));
+    }
+
+    @Test
+    public void nullClaimsAreLeftOut() throws Exception {
+        Date iat = new Date();
+        assertEquals(referenceToken(TokenCreator.HETU_CLAIM_KEY, null, "method", null, "sid", null, iat),
+                tokenCreator.getAuthenticationToken(null, "method", null, "sid", null, iat));
+    }
+
+    @Test
+    public void claimValuesAreEscapedLikeJackson() throws Exception {
+        Date iat = new Date();
+        String rp = "https://sp.example.com/\"quoted\"\\path?a=1&b=\u00e4\u20ac\ud83d\ude00";
+        String sid = "tab\tnewline\ncontrol\u0001\u001f";
+        assertEquals(referenceToken(TokenCreator.HETU_CLAIM_KEY, "hetu", "method", rp, sid, "rid", iat),
+                tokenCreator.getAuthenticationToken("hetu", "method", rp, sid, "rid", iat));
+    }
+
+    @Test
+    public void base64UrlEncodingMatchesJdk() {
+        for (int length = 0; length < 8; length++) {
+            byte[] src = new byte[length];
+            for (int i = 0; i < length; i++) {
+                src[i] = (byte) (0xF0 + i * 37);
+            }
+            byte[] dst = new byte[JwtEncoder.base64Length(length)];
+            assertEquals(dst.length, JwtEncoder.base64(src, length, dst, 0));
+            assertEquals(Base64.getUrlEncoder().withoutPadding().encodeToString(src), new String(dst));
+        }
+    }
+
+    private String referenceToken(String personClaim, String person, String method, String rp, String sid, String rid, Date iat) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(iat);
+        cal.add(Calendar.MINUTE, EXPIRATION_MINUTES);
+        return JWT.create()
+                .withIssuer(ISSUER)
+                .withHeader(Collections.<String, Object>singletonMap(TokenCreator.KID_HEADERCLAIM_KEY, KID))
+                .withIssuedAt(iat)
+                .withExpiresAt(cal.getTime())
+                .withClaim(TokenCreator.AUTHMETHOD_CLAIM_KEY, method)
+                .withClaim(personClaim, person)
+                .withClaim(TokenCreator.RP_CLAIM_KEY, rp)
+                .withClaim(TokenCreator.SFI_ID_CLAIM_KEY, sid)
+                .withClaim(TokenCreator.REQ_ID_CLAIM_KEY, rid)
+                .sign(algorithm);
+    }
+}
@@ -23,6 +23,9 @@
 package fi.vm.kapa.identification.proxy.utils;
 
 import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.SignatureGenerationException;
+import fi.vm.kapa.identification.proxy.exception.TokenCreatorException;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -35,6 +38,15 @@ import org.springframework.test.context.support.DirtiesContextTestExecutionListe
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 @ContextConfiguration(locations = "classpath:testContext.xml")
 @TestExecutionListeners(listeners = {
@@ -92,4 +104,94 @@ public class TokenCreatorTest {
         cal.add(Calendar.MINUTE, addMinutes);
         return cal.getTime();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void asyncTokenMatchesSyncToken() throws Exception {
+        Date iat = new Date(1492775862);
+        long reuseHits = tokenCreator.getReuseHits();
+        Assert.assertEquals(tokenCreator.getAuthenticationToken("async-hetu","method","rp","session_id","request_id", iat),
+                tokenCreator.getAuthenticationTokenAsync("async-hetu","method","rp","session_id","request_id", iat).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(tokenCreator.getEidasAuthenticationToken("async-pid","method","rp","session_id","request_id", iat),
+                tokenCreator.getEidasAuthenticationTokenAsync("async-pid","method","rp","session_id","request_id", iat).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(tokenCreator.getForeignPersonAuthenticationToken("async-fpid","method","rp","session_id","request_id", iat),
+                tokenCreator.getForeignPersonAuthenticationTokenAsync("async-fpid","method","rp","session_id","request_id", iat).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(reuseHits + 3, tokenCreator.getReuseHits());
+    }
+
+    @Test
+    public void tokenIsReusedWithinReuseWindow() throws Exception {
+        AtomicInteger signatures = new AtomicInteger();
+        Algorithm algorithm = mock(Algorithm.class);
+        when(algorithm.getName()).thenReturn("RS256");
+        when(algorithm.sign(any(byte[].class))).thenAnswer(invocation -> new byte[] {(byte) signatures.incrementAndGet()});
+        // 10 minute tokens reused for one minute
+        TokenCreator creator = new TokenCreator(algorithm, "issuer", "kid", 10, 1, 10, 10, 0.1);
+        try {
+            long now = System.currentTimeMillis();
+            String token = creator.getAuthenticationToken("hetu", "method", "rp", "sid", "rid", new Date(now));
+            Assert.assertEquals(token, creator.getAuthenticationToken("hetu", "method", "rp", "sid", "rid", new Date(now + 30000)));
+            Assert.assertEquals(token, creator.getAuthenticationTokenAsync("hetu", "method", "rp", "sid", "rid", new Date(now + 59000)).get());
+            Assert.assertEquals(1, signatures.get());
+
+            Assert.assertNotEquals(token, creator.getAuthenticationToken("hetu", "method", "rp", "sid", "other-rid", new Date(now + 30000)));
+            Assert.assertNotEquals(token, creator.getEidasAuthenticationToken("hetu", "method", "rp", "sid", "rid", new Date(now + 30000)));
+            Assert.assertNotEquals(token, creator.getAuthenticationToken("hetu", "method", "rp", "sid", "rid", new Date(now + 60000)));
+            Assert.assertEquals(4, signatures.get());
+            Assert.assertEquals(2, creator.getReuseHits());
+            Assert.assertEquals(4, creator.getReuseMisses());
+        } finally {
+            creator.shutdown();
+        }
+    }
+
+    @Test
+    public void tokenIsSignedOnCallerWhenQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch signing = new CountDownLatch(1);
+        Algorithm algorithm = mock(Algorithm.class);
+        when(algorithm.getName()).thenReturn("RS256");
+        when(algorithm.sign(any(byte[].class))).thenAnswer(invocation -> {
+            if (!Thread.currentThread().getName().startsWith("token-signing-")) {
+                return new byte[] {2};
+            }
+            signing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return new byte[] {1};
+        });
+        TokenCreator creator = new TokenCreator(algorithm, "issuer", "kid", 10, 1, 1);
+        try {
+            CompletableFuture<String> first = creator.getAuthenticationTokenAsync("hetu", "method", "rp", "sid", "rid", new Date());
+            Assert.assertTrue(signing.await(5, TimeUnit.SECONDS));
+            CompletableFuture<String> queued = creator.getAuthenticationTokenAsync("hetu", "method", "rp", "sid", "rid", new Date());
+            Assert.assertEquals(1, creator.getSigningQueueDepth());
+
+            CompletableFuture<String> callerSigned = creator.getAuthenticationTokenAsync("hetu", "method", "rp", "sid", "rid", new Date());
+            Assert.assertTrue(callerSigned.isDone());
+            Assert.assertTrue(callerSigned.get().endsWith(".Ag"));
+            Assert.assertEquals(1, creator.getCallerRuns());
+
+            release.countDown();
+            Assert.assertTrue(first.get(5, TimeUnit.SECONDS).endsWith(".AQ"));
+            Assert.assertTrue(queued.get(5, TimeUnit.SECONDS).endsWith(".AQ"));
+        } finally {
+            release.countDown();
+            creator.shutdown();
+        }
+    }
+
+    @Test
+    public void asyncSigningFailureIsReportedAsTokenCreatorException() throws Exception {
+        Algorithm algorithm = mock(Algorithm.class);
+        when(algorithm.getName()).thenReturn("RS256");
+        when(algorithm.sign(any(byte[].class))).thenThrow(new SignatureGenerationException(algorithm, new IllegalStateException()));
+        TokenCreator creator = new TokenCreator(algorithm, "issuer", "kid", 10, 1, 1);
+        try {
+            creator.getAuthenticationTokenAsync("hetu", "method", "rp", "sid", "rid", new Date()).join();
+            Assert.fail("Signing failure not reported");
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof TokenCreatorException);
+        } finally {
+            creator.shutdown();
+        }
+    }
+}
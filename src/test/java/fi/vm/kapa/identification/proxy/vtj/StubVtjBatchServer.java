@@ -0,0 +1,106 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.vtj;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.sun.net.httpserver.HttpServer;
+import fi.vm.kapa.identification.vtj.model.VtjIssue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the VTJ batch endpoint. Answers each requested identifier with
+ * the person registered for it, or null, and echoes the request identifier header.
+ */
+public class StubVtjBatchServer implements AutoCloseable {
+
+    static final String PATH = "/vtj/persons";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String,Map<String,Object>> persons = new HashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> requestIdentifiers = new CopyOnWriteArrayList<>();
+    private final HttpServer server;
+
+    public StubVtjBatchServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(PATH, exchange -> {
+            requests.incrementAndGet();
+            requestIdentifiers.add(exchange.getRequestHeaders().getFirst(VtjIssue.REQUEST_IDENTIFIER_HEADER));
+            JsonNode identities = objectMapper.readTree(exchange.getRequestBody());
+            ArrayNode response = objectMapper.createArrayNode();
+            for (JsonNode identity : identities) {
+                Map<String,Object> person = persons.get(identity.get("identifier").asText());
+                response.add(person == null ? null : objectMapper.valueToTree(person));
+            }
+            byte[] body = objectMapper.writeValueAsString(response).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add(VtjIssue.REQUEST_IDENTIFIER_HEADER,
+                    exchange.getRequestHeaders().getFirst(VtjIssue.REQUEST_IDENTIFIER_HEADER));
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    public void addPerson(String hetu) {
+        Map<String,Object> person = new HashMap<>();
+        person.put("hetu", hetu);
+        person.put("hetuValid", true);
+        person.put("deceased", false);
+        person.put("protectionOrder", false);
+        persons.put(hetu, person);
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the request identifier headers received, in order
+     */
+    public List<String> getRequestIdentifiers() {
+        return requestIdentifiers;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.vtj;
+
+import fi.vm.kapa.identification.proxy.exception.VtjCallNotPermittedException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class VtjCircuitBreakerTest {
+
+    @Test
+    public void circuitOpensAfterConsecutiveFailures() throws Exception {
+        VtjCircuitBreaker circuitBreaker = new VtjCircuitBreaker(2, 60000, 10);
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onSuccess();
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+        assertEquals("CLOSED", circuitBreaker.getState());
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+        assertEquals("OPEN", circuitBreaker.getState());
+        assertRejected(circuitBreaker);
+        assertEquals(1, circuitBreaker.getRejectedCount());
+        assertEquals(0, circuitBreaker.getRequestsInProgress());
+    }
+
+    @Test
+    public void halfOpenProbeClosesCircuit() throws Exception {
+        VtjCircuitBreaker circuitBreaker = new VtjCircuitBreaker(1, 0, 10);
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+        assertEquals("OPEN", circuitBreaker.getState());
+        // open time elapsed, one probe is let through
+        circuitBreaker.acquirePermission();
+        assertEquals("HALF_OPEN", circuitBreaker.getState());
+        assertRejected(circuitBreaker);
+        circuitBreaker.onSuccess();
+        assertEquals("CLOSED", circuitBreaker.getState());
+        assertEquals(1, circuitBreaker.getOpenedCount());
+        assertEquals(1, circuitBreaker.getHalfOpenedCount());
+        assertEquals(1, circuitBreaker.getClosedCount());
+    }
+
+    @Test
+    public void successOfRequestStartedBeforeOpeningKeepsCircuitOpen() throws Exception {
+        VtjCircuitBreaker circuitBreaker = new VtjCircuitBreaker(1, 60000, 10);
+        circuitBreaker.acquirePermission();
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+        assertEquals("OPEN", circuitBreaker.getState());
+        circuitBreaker.onSuccess();
+        assertEquals("OPEN", circuitBreaker.getState());
+        assertRejected(circuitBreaker);
+        assertEquals(0, circuitBreaker.getClosedCount());
+        assertEquals(0, circuitBreaker.getRequestsInProgress());
+    }
+
+    @Test
+    public void failedHalfOpenProbeReopensCircuit() throws Exception {
+        VtjCircuitBreaker circuitBreaker = new VtjCircuitBreaker(1, 0, 10);
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+        assertEquals("OPEN", circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getOpenedCount());
+    }
+
+    @Test
+    public void bulkheadLimitsConcurrentRequests() throws Exception {
+        VtjCircuitBreaker circuitBreaker = new VtjCircuitBreaker(5, 60000, 2);
+        circuitBreaker.acquirePermission();
+        circuitBreaker.acquirePermission();
+        assertRejected(circuitBreaker);
+        assertEquals(1, circuitBreaker.getBulkheadRejectedCount());
+        circuitBreaker.onSuccess();
+        circuitBreaker.acquirePermission();
+        assertEquals(2, circuitBreaker.getRequestsInProgress());
+    }
+
+    private void assertRejected(VtjCircuitBreaker circuitBreaker) {
+        try {
+            circuitBreaker.acquirePermission();
+            fail("Should have been rejected");
+        } catch (VtjCallNotPermittedException e) {
+            // expected
+        }
+    }
+}
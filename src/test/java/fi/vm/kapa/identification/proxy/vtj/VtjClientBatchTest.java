@@ -0,0 +1,115 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.vtj;
+
+import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
+import fi.vm.kapa.identification.proxy.person.VtjPersonRecord;
+import fi.vm.kapa.identification.proxy.session.Identity;
+import fi.vm.kapa.identification.type.Identifier;
+import fi.vm.kapa.identification.vtj.model.VtjIssue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VtjClientBatchTest {
+
+    private StubVtjBatchServer stubVtjBatchServer;
+
+    private Client client;
+
+    private VtjClient vtjClient;
+
+    @Before
+    public void setUp() throws Exception {
+        stubVtjBatchServer = new StubVtjBatchServer();
+        client = ClientBuilder.newClient();
+        vtjClient = new VtjClient();
+        ReflectionTestUtils.setField(vtjClient, "client", client);
+        ReflectionTestUtils.setField(vtjClient, "vtjClientBatchEndpoint", stubVtjBatchServer.getUrl());
+        ReflectionTestUtils.setField(vtjClient, "vtjCircuitBreaker", new VtjCircuitBreaker(1, 30000, 10));
+        vtjClient.initBatchCircuitBreaker();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        stubVtjBatchServer.close();
+    }
+
+    @Test
+    public void batchReturnsFoundPersonsWithOneRequest() throws Exception {
+        stubVtjBatchServer.addPerson("010191-9641");
+        stubVtjBatchServer.addPerson("010191-9696");
+        Identity first = new Identity(null, Identifier.Types.HETU, "010191-9641");
+        Identity missing = new Identity(null, Identifier.Types.HETU, "010191-000A");
+        Identity second = new Identity(null, Identifier.Types.HETU, "010191-9696");
+
+        Map<Identity,VtjPersonRecord> persons = vtjClient.fetchVtjDataBatch(Arrays.asList(first, missing, second), new VtjIssue());
+
+        assertEquals(1, stubVtjBatchServer.getRequests());
+        assertEquals(2, persons.size());
+        assertEquals("010191-9641", persons.get(first).getHetu());
+        assertEquals("010191-9696", persons.get(second).getHetu());
+        assertFalse(persons.containsKey(missing));
+        assertTrue(persons.get(first).isHetuValid());
+    }
+
+    @Test(expected = VtjServiceException.class)
+    public void batchFailsWhenEndpointIsNotFound() throws Exception {
+        ReflectionTestUtils.setField(vtjClient, "vtjClientBatchEndpoint", stubVtjBatchServer.getUrl().replace(StubVtjBatchServer.PATH, "/vtj/unknown"));
+        vtjClient.fetchVtjDataBatch(Arrays.asList(new Identity(null, Identifier.Types.HETU, "010191-9641")), new VtjIssue());
+    }
+
+    @Test
+    public void batchFailuresDoNotOpenInteractiveCircuit() throws Exception {
+        ReflectionTestUtils.setField(vtjClient, "vtjClientBatchEndpoint", stubVtjBatchServer.getUrl().replace(StubVtjBatchServer.PATH, "/vtj/unknown"));
+        for (int i = 0; i < 2; i++) {
+            try {
+                vtjClient.fetchVtjDataBatch(Arrays.asList(new Identity(null, Identifier.Types.HETU, "010191-9641")), new VtjIssue());
+                fail("Should have thrown");
+            } catch (VtjServiceException e) {
+                // expected, the second one fails fast on the open batch circuit
+            }
+        }
+        VtjCircuitBreaker vtjCircuitBreaker = (VtjCircuitBreaker) ReflectionTestUtils.getField(vtjClient, "vtjCircuitBreaker");
+        assertEquals("CLOSED", vtjCircuitBreaker.getState());
+        assertEquals(0, vtjCircuitBreaker.getRequestsInProgress());
+    }
+
+    @Test
+    public void batchIsDisabledWithoutEndpoint() throws Exception {
+        ReflectionTestUtils.setField(vtjClient, "vtjClientBatchEndpoint", "");
+        assertFalse(vtjClient.isBatchEnabled());
+    }
+}
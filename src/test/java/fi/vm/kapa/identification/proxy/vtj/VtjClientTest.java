@@ -22,17 +22,30 @@
  */
 package fi.vm.kapa.identification.proxy.vtj;
 
+import fi.vm.kapa.identification.proxy.exception.VtjCallNotPermittedException;
 import fi.vm.kapa.identification.proxy.exception.VtjServiceException;
+import fi.vm.kapa.identification.proxy.person.VtjPersonRecord;
 import fi.vm.kapa.identification.proxy.session.Identity;
+import fi.vm.kapa.identification.proxy.utils.RequestDeadline;
 import fi.vm.kapa.identification.type.Identifier;
-import fi.vm.kapa.identification.vtj.model.VTJResponse;
 import fi.vm.kapa.identification.vtj.model.VtjIssue;
 import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.*;
 
 public class VtjClientTest {
@@ -40,8 +53,9 @@ public class VtjClientTest {
     @Test
     public void fetchVtjDataReturnsNullWhenVtjResponseIsNull() throws Exception {
         VtjClient vtjClient = spy(VtjClient.class);
+        ReflectionTestUtils.setField(vtjClient, "vtjCircuitBreaker", new VtjCircuitBreaker(5, 30000, 10));
         doReturn(null).when(vtjClient).getVtjResponseForUser(any(), any());
-        VTJResponse vtjResponse = vtjClient.fetchVtjData(new Identity(" ", Identifier.Types.HETU, "TEST_HETU"),new VtjIssue());
+        VtjPersonRecord vtjResponse = vtjClient.fetchVtjData(new Identity(" ", Identifier.Types.HETU, "TEST_HETU"),new VtjIssue());
         assertEquals(null, vtjResponse);
     }
 
@@ -51,6 +65,81 @@ public class VtjClientTest {
         when(vtjClient.getVtjResponseForUser(any(), any())).thenThrow(VtjServiceException.class);
     }
 
+    @Test
+    public void fetchVtjDataFailsFastWhenCircuitIsOpen() throws Exception {
+        VtjClient vtjClient = spy(VtjClient.class);
+        VtjCircuitBreaker vtjCircuitBreaker = new VtjCircuitBreaker(2, 30000, 10);
+        ReflectionTestUtils.setField(vtjClient, "vtjCircuitBreaker", vtjCircuitBreaker);
+        doThrow(new VtjServiceException("VTJ down")).when(vtjClient).getVtjResponseForUser(any(), any());
+        Identity identity = new Identity(" ", Identifier.Types.HETU, "TEST_HETU");
+        for (int i = 0; i < 2; i++) {
+            try {
+                vtjClient.fetchVtjData(identity, new VtjIssue());
+                fail("Should have thrown");
+            } catch (VtjServiceException e) {
+                assertFalse(e instanceof VtjCallNotPermittedException);
+            }
+        }
+        try {
+            vtjClient.fetchVtjData(identity, new VtjIssue());
+            fail("Should have thrown");
+        } catch (VtjCallNotPermittedException e) {
+            // expected
+        }
+        verify(vtjClient, times(2)).getVtjResponseForUser(any(), any());
+        assertEquals("OPEN", vtjCircuitBreaker.getState());
+    }
+
+    @Test
+    public void fetchVtjDataFailsFastWhenRequestDeadlineHasPassed() throws Exception {
+        VtjClient vtjClient = spy(VtjClient.class);
+        VtjCircuitBreaker vtjCircuitBreaker = new VtjCircuitBreaker(5, 30000, 10);
+        ReflectionTestUtils.setField(vtjClient, "vtjCircuitBreaker", vtjCircuitBreaker);
+        RequestDeadline.start(0);
+        try {
+            vtjClient.fetchVtjData(new Identity(" ", Identifier.Types.HETU, "TEST_HETU"), new VtjIssue());
+            fail("Should have thrown");
+        } catch (VtjServiceException e) {
+            // expected
+        } finally {
+            RequestDeadline.clear();
+        }
+        verify(vtjClient, never()).getVtjResponseForUser(any(), any());
+        assertEquals(0, vtjCircuitBreaker.getRequestsInProgress());
+    }
+
+    @Test
+    public void hedgedRequestAnswersWhenFirstRequestIsSlow() throws Exception {
+        VtjClient vtjClient = spy(VtjClient.class);
+        VtjHedgingPolicy vtjHedgingPolicy = newHedgingPolicy(5000);
+        ReflectionTestUtils.setField(vtjClient, "vtjHedgingPolicy", vtjHedgingPolicy);
+        Identity identity = new Identity(" ", Identifier.Types.HETU, "TEST_HETU");
+        VtjIssue vtjIssue = new VtjIssue();
+        VtjPersonRecord hedgeResponse = VtjPersonRecord.builder().hetu("TEST_HETU").build();
+        doReturn(new CompletableFuture<VtjPersonRecord>()).when(vtjClient).fetchVtjDataAsync(identity, vtjIssue.toString());
+        doReturn(CompletableFuture.completedFuture(hedgeResponse)).when(vtjClient).fetchVtjDataAsync(identity, vtjIssue.toString() + VtjClient.HEDGE_SUFFIX);
+
+        assertSame(hedgeResponse, vtjClient.fetchVtjData(identity, vtjIssue));
+        assertEquals(1, vtjHedgingPolicy.getHedgesSent());
+        assertEquals(1, vtjHedgingPolicy.getHedgesWon());
+    }
+
+    @Test(expected = VtjServiceException.class)
+    public void hedgedRequestFailsWhenDeadlineIsExceeded() throws Exception {
+        VtjClient vtjClient = spy(VtjClient.class);
+        ReflectionTestUtils.setField(vtjClient, "vtjHedgingPolicy", newHedgingPolicy(100));
+        doReturn(new CompletableFuture<VtjPersonRecord>()).when(vtjClient).fetchVtjDataAsync(any(Identity.class), anyString());
+        vtjClient.fetchVtjData(new Identity(" ", Identifier.Types.HETU, "TEST_HETU"), new VtjIssue());
+    }
+
+    private VtjHedgingPolicy newHedgingPolicy(long deadlineMillis) {
+        VtjHedgingPolicy vtjHedgingPolicy = new VtjHedgingPolicy(true, 95, 1, 10, deadlineMillis);
+        for (int i = 0; i < VtjHedgingPolicy.MIN_SAMPLES; i++) {
+            vtjHedgingPolicy.recordLatency(10);
+        }
+        return vtjHedgingPolicy;
+    }
+
     @Test(expected = VtjServiceException.class)
     public void getVtjResponseForUserThrowsIfResponseStatusIsNot200() throws Exception {
         VtjClient vtjClient = spy(VtjClient.class);
@@ -67,10 +156,33 @@ public class VtjClientTest {
         Identity userIdentity = new Identity("TEST_ISSUER_DN", Identifier.Types.SATU, "TEST_SATU");
         VtjIssue vtjIssue = new VtjIssue();
         doReturn(responseMock).when(vtjClient).getVtjHttpResponse(userIdentity, vtjIssue);
-        doReturn(new VTJResponse()).when(responseMock).readEntity(VTJResponse.class);
+        doReturn(new ByteArrayInputStream("{\"person\":{\"hetu\":\"TEST_HETU\"}}".getBytes(StandardCharsets.UTF_8)))
+                .when(responseMock).readEntity(InputStream.class);
         doReturn(200).when(responseMock).getStatus();
-        VTJResponse vtjResponse = vtjClient.getVtjResponseForUser(userIdentity, vtjIssue);
+        VtjPersonRecord vtjResponse = vtjClient.getVtjResponseForUser(userIdentity, vtjIssue);
         assertNotNull(vtjResponse);
     }
 
+    @Test
+    public void getVtjHttpResponseClosesResponseWithWrongRequestIdentifier() throws Exception {
+        VtjClient vtjClient = new VtjClient();
+        Client client = mock(Client.class);
+        WebTarget webTarget = mock(WebTarget.class);
+        Invocation.Builder invocationBuilder = mock(Invocation.Builder.class);
+        Response responseMock = mock(Response.class);
+        when(client.target(anyString())).thenReturn(webTarget);
+        when(webTarget.request(anyString())).thenReturn(invocationBuilder);
+        when(invocationBuilder.post(any())).thenReturn(responseMock);
+        when(responseMock.getHeaderString(VtjIssue.REQUEST_IDENTIFIER_HEADER)).thenReturn("OTHER_REQUEST");
+        ReflectionTestUtils.setField(vtjClient, "client", client);
+        ReflectionTestUtils.setField(vtjClient, "vtjClientEndpoint", "http://localhost/vtj");
+        try {
+            vtjClient.getVtjHttpResponse(new Identity(null, Identifier.Types.HETU, "TEST_HETU"), new VtjIssue());
+            fail("Should have thrown");
+        } catch (VtjServiceException e) {
+            // expected
+        }
+        verify(responseMock).close();
+    }
+
 }
@@ -0,0 +1,161 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.proxy.vtj;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.kapa.identification.proxy.person.VtjPersonRecord;
+import fi.vm.kapa.identification.vtj.model.Person;
+import fi.vm.kapa.identification.vtj.model.VTJResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VtjResponseParserTest {
+
+    private final VtjResponseParser parser = new VtjResponseParser();
+
+    @Test
+    public void parsesUsedPersonFieldsAndSkipsOthers() throws Exception {
+        VtjPersonRecord person = parser.parse(json("{\"error\":null,\"extra\":{\"nested\":[1,2,{\"a\":\"b\"}]},"
+                + "\"person\":{\"hetu\":\"010191-9641\",\"hetuValid\":true,\"deceased\":false,\"protectionOrder\":true,"
+                + "\"unusedList\":[\"x\",\"y\"],\"unusedObject\":{\"hetu\":\"WRONG\"},"
+                + "\"firstNames\":\"Testi Henkilo\",\"lastName\":\"Testaaja\",\"municipalityS\":\"Helsinki\",\"cityR\":\"Helsingfors\","
+                + "\"satu\":null}}"));
+
+        assertEquals("010191-9641", person.getHetu());
+        assertTrue(person.isHetuValid());
+        assertFalse(person.isDeceased());
+        assertTrue(person.isProtectionOrder());
+        assertEquals("Testi Henkilo", person.getFirstNames());
+        assertEquals("Testaaja", person.getLastName());
+        assertEquals("Helsinki", person.getMunicipalityS());
+        assertEquals("Helsingfors", person.getCityR());
+        assertNull(person.getSatu());
+        assertNull(person.getEmailAddress());
+    }
+
+    /**
+     * Serializes the shared VTJ model the way the VTJ service does, every person field
+     * must come through the parser.
+     */
+    @Test
+    public void parsesEveryFieldOfSerializedVtjResponse() throws Exception {
+        Person person = new Person();
+        person.setHetu("010191-9641");
+        person.setHetuValid(true);
+        person.setSatu("999198860");
+        person.setSatuValid(true);
+        person.setDeceased(true);
+        person.setProtectionOrder(true);
+        person.setFinnishCitizenship("1");
+        person.setLastName("Testaaja");
+        person.setFirstNames("Testi Henkilo");
+        person.setNickName("Testi");
+        person.setEmailAddress("testi@example.com");
+        person.setMunicipalityCode("091");
+        person.setMunicipalityS("Helsinki");
+        person.setMunicipalityR("Helsingfors");
+        person.setDomesticAddressS("Testikatu 1");
+        person.setDomesticAddressR("Testgatan 1");
+        person.setPostalCode("00100");
+        person.setCityS("HELSINKI");
+        person.setCityR("HELSINGFORS");
+        person.setForeignAddress("Teststrasse 1");
+        person.setForeignLocalityAndStateS("Berliini, Saksa");
+        person.setForeignLocalityAndStateR("Berlin, Tyskland");
+        person.setForeignLocalityAndStateClearText("Berlin, Deutschland");
+        person.setStateCode("276");
+        person.setTemporaryDomesticAddressS("Tilapaiskatu 2");
+        person.setTemporaryDomesticAddressR("Tillfalliggatan 2");
+        person.setTemporaryPostalCode("33100");
+        person.setTemporaryCityS("TAMPERE");
+        person.setTemporaryCityR("TAMMERFORS");
+        VTJResponse response = new VTJResponse();
+        response.setPerson(person);
+
+        VtjPersonRecord parsed = parser.parse(new ByteArrayInputStream(new ObjectMapper().writeValueAsBytes(response)));
+
+        assertEquals(person.getHetu(), parsed.getHetu());
+        assertEquals(person.isHetuValid(), parsed.isHetuValid());
+        assertEquals(person.getSatu(), parsed.getSatu());
+        assertEquals(person.isSatuValid(), parsed.isSatuValid());
+        assertEquals(person.isDeceased(), parsed.isDeceased());
+        assertEquals(person.isProtectionOrder(), parsed.isProtectionOrder());
+        assertEquals(person.getFinnishCitizenship(), parsed.getFinnishCitizenship());
+        assertEquals(person.getLastName(), parsed.getLastName());
+        assertEquals(person.getFirstNames(), parsed.getFirstNames());
+        assertEquals(person.getNickName(), parsed.getNickName());
+        assertEquals(person.getEmailAddress(), parsed.getEmailAddress());
+        assertEquals(person.getMunicipalityCode(), parsed.getMunicipalityCode());
+        assertEquals(person.getMunicipalityS(), parsed.getMunicipalityS());
+        assertEquals(person.getMunicipalityR(), parsed.getMunicipalityR());
+        assertEquals(person.getDomesticAddressS(), parsed.getDomesticAddressS());
+        assertEquals(person.getDomesticAddressR(), parsed.getDomesticAddressR());
+        assertEquals(person.getPostalCode(), parsed.getPostalCode());
+        assertEquals(person.getCityS(), parsed.getCityS());
+        assertEquals(person.getCityR(), parsed.getCityR());
+        assertEquals(person.getForeignAddress(), parsed.getForeignAddress());
+        assertEquals(person.getForeignLocalityAndStateS(), parsed.getForeignLocalityAndStateS());
+        assertEquals(person.getForeignLocalityAndStateR(), parsed.getForeignLocalityAndStateR());
+        assertEquals(person.getForeignLocalityAndStateClearText(), parsed.getForeignLocalityAndStateClearText());
+        assertEquals(person.getStateCode(), parsed.getStateCode());
+        assertEquals(person.getTemporaryDomesticAddressS(), parsed.getTemporaryDomesticAddressS());
+        assertEquals(person.getTemporaryDomesticAddressR(), parsed.getTemporaryDomesticAddressR());
+        assertEquals(person.getTemporaryPostalCode(), parsed.getTemporaryPostalCode());
+        assertEquals(person.getTemporaryCityS(), parsed.getTemporaryCityS());
+        assertEquals(person.getTemporaryCityR(), parsed.getTemporaryCityR());
+    }
+
+    @Test
+    public void responseWithoutPersonReturnsNull() throws Exception {
+        assertNull(parser.parse(json("{\"person\":null}")));
+        assertNull(parser.parse(json("{}")));
+    }
+
+    @Test
+    public void parsesBatchResponseInOrder() throws Exception {
+        List<VtjPersonRecord> persons = parser.parseBatch(json("[{\"hetu\":\"FIRST\",\"unused\":[1]},null,{\"hetu\":\"THIRD\"}]"));
+        assertEquals(3, persons.size());
+        assertEquals("FIRST", persons.get(0).getHetu());
+        assertNull(persons.get(1));
+        assertEquals("THIRD", persons.get(2).getHetu());
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidResponseThrows() throws Exception {
+        parser.parse(json("[]"));
+    }
+
+    private InputStream json(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}